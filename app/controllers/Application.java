@@ -5,11 +5,14 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.japi.Util;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import model.ActiveSession;
 import model.MessageProtocols;
 import model.Principal;
+import play.Configuration;
 import play.Logger;
+import play.inject.ApplicationLifecycle;
 import play.libs.F;
 import play.libs.Json;
 import play.libs.ws.WS;
@@ -19,29 +22,39 @@ import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.WebSocket;
+import server.AmqpMessageBus;
+import server.AmqpSessionReplication;
+import server.LocalMessageBus;
+import server.MessageBus;
+import server.NodeQueue;
+import server.JournaledSessionStore;
+import server.OutboundQueue;
+import server.ReplicatedSessionStore;
+import server.SessionStore;
+import server.SessionTokens;
+import server.ShardedSessionStore;
 import server.actors.Dispatcher;
-import server.actors.SessionInMemoryStore;
 import server.actors.SocketHandler;
-import utils.SafeChannel;
+import server.bot.BotEngine;
+import server.bot.Tablebase;
+import server.bot.TranspositionTable;
+import utils.ChannelPool;
+import utils.MoveAuditLog;
 import views.html.index;
 
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.Channel;
-
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 import static akka.pattern.Patterns.ask;
-import static utils.SafeChannel.managed;
 
 @Singleton
 public class Application extends Controller {
 
     //TODO: makes the timeouts configurable
-    private final static int STEP_TIMEOUT = 3000;
     private final static int FLOW_TIMEOUT = 6000;
     private final static int DISPATCH_TIMEOUT = 12000;
 
@@ -49,8 +62,14 @@ public class Application extends Controller {
     public final static String DEFAULT_CHARSET = "UTF-8";
 
     private final ActorRef dispatcher;
-    private final ActorRef sessionStore;
-    private Connection connection;
+    private final ShardedSessionStore storedSessions;
+    private final SessionStore sessionStore;
+    @Nullable
+    private final SessionTokens sessionTokens;
+    private final BotEngine botEngine;
+    private final boolean binaryMQ;
+    private final MessageBus bus;
+    private final OutboundQueue.Factory outboundQueues;
 
     @Nullable
     private ActiveSession loadSession() {
@@ -73,44 +92,255 @@ public class Application extends Controller {
                         .mapTo(Util.classTag(Result.class)));
     }
 
-    @Inject
-    public Application(final ActorSystem system) {
-        final WSClient client = WS.client();
-        sessionStore = system.actorOf(Props.create(SessionInMemoryStore.class));
+    private void startMoveAudit(final Configuration configuration, final ApplicationLifecycle lifecycle) {
+        if (!configuration.getBoolean("bolboard.audit.enabled", false)) {
+            return;
+        }
+
+        try {
+            final MoveAuditLog auditLog = new MoveAuditLog(
+                    Paths.get(configuration.getString("bolboard.audit.file", "logs/moves.bin")),
+                    configuration.getInt("bolboard.audit.capacity", 65536),
+                    configuration.getLong("bolboard.audit.max-file-size", 64L * 1024 * 1024),
+                    configuration.getInt("bolboard.audit.max-files", 5));
+            MoveAuditLog.install(auditLog);
+
+            lifecycle.addStopHook(() -> {
+                auditLog.close();
+                return F.Promise.pure(null);
+            });
+        } catch (final IOException e) {
+            Logger.error("Move audit log could not be started due to: ", e);
+        }
+    }
+
+    /**
+     * Maps the endgame tablebase if one is configured. The bot still plays without it, only slower in the endgame.
+     */
+    private static Tablebase openTablebase(final Configuration configuration) {
+        final String file = configuration.getString("bolboard.bot.tablebase");
+        if (file == null) {
+            return null;
+        }
+
+        try {
+            final Tablebase tablebase = Tablebase.open(Paths.get(file));
+            Logger.info("Endgame tablebase {} covers up to {} stones", file, tablebase.getMaxStones());
+            return tablebase;
+        } catch (final IOException e) {
+            Logger.warn("Endgame tablebase could not be opened due to: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * RabbitMQ connects the nodes. A single node, e.g. for a load test, can run without a broker on the bus of the JVM.
+     */
+    private static MessageBus openMessageBus(final Configuration configuration) {
+        final String type = configuration.getString("bolboard.message-bus", "rabbitmq");
+        if ("local".equals(type)) {
+            Logger.info("Messages are sent inside the JVM, this node cannot play with other nodes");
+            return new LocalMessageBus();
+        } else if (!"rabbitmq".equals(type)) {
+            throw new IllegalArgumentException("Unknown message bus: " + type);
+        }
 
         final ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(configuration.getString("bolboard.rabbitmq.host", "localhost"));
+        factory.setPort(configuration.getInt("bolboard.rabbitmq.port", 5672));
 
-        //TODO: should be read from the config file
-        factory.setHost("localhost");
-        factory.setPort(5672);
+        try {
+            final Connection connection = factory.newConnection();
+            AmqpMessageBus.declareExchange(connection, RabbitMQExchangeName);
+
+            final NodeQueue nodeQueue = new NodeQueue(connection, RabbitMQExchangeName,
+                    configuration.getInt("bolboard.rabbitmq.prefetch", NodeQueue.DEFAULT_PREFETCH),
+                    configuration.getInt("bolboard.rabbitmq.ack-batch-size", NodeQueue.DEFAULT_ACK_BATCH_SIZE),
+                    configuration.getLong("bolboard.rabbitmq.ack-interval", NodeQueue.DEFAULT_ACK_INTERVAL_MILLIS),
+                    configuration.getInt("bolboard.rabbitmq.max-in-flight", NodeQueue.DEFAULT_MAX_IN_FLIGHT),
+                    configuration.getInt("bolboard.rabbitmq.max-in-flight-per-key",
+                            NodeQueue.DEFAULT_MAX_IN_FLIGHT_PER_KEY));
+            return new AmqpMessageBus(nodeQueue, new ChannelPool(connection, RabbitMQExchangeName,
+                    configuration.getInt("bolboard.rabbitmq.publisher-channels", 4),
+                    configuration.getInt("bolboard.rabbitmq.publisher-batch-size", ChannelPool.DEFAULT_BATCH_SIZE),
+                    configuration.getLong("bolboard.rabbitmq.publisher-window", ChannelPool.DEFAULT_WINDOW_MICROS)));
+        } catch (final IOException e) {
+            Logger.error("Connection to RabbitMQ failed due to: ", e);
+            throw new RuntimeException(e);
+        }
+    }
 
+    /**
+     * The signed sessions, if bolboard.session.mode is "token". They are signed with the secret of the application
+     * unless the sessions have their own.
+     */
+    @Nullable
+    private static SessionTokens openSessionTokens(final Configuration configuration) {
+        if (!"token".equals(configuration.getString("bolboard.session.mode", "store"))) {
+            return null;
+        }
 
+        return new SessionTokens(
+                configuration.getString("bolboard.session.secret", configuration.getString("play.crypto.secret")),
+                configuration.getLong("bolboard.session.ttl", 12L * 60 * 60 * 1000));
+    }
 
+    /**
+     * Sends the revocations of the signed sessions to the other nodes, over RabbitMQ. Otherwise a session revoked on
+     * one node is still accepted by the others until it expires.
+     */
+    private static void replicateRevocations(final Configuration configuration,
+                                             final ApplicationLifecycle lifecycle,
+                                             final MessageBus bus,
+                                             @Nullable final SessionTokens sessionTokens) {
+        if (sessionTokens == null) {
+            return;
+        }
+        if (!(bus instanceof AmqpMessageBus)) {
+            Logger.info("Revoked sessions are only replicated over RabbitMQ, they are revoked on this node only");
+            return;
+        }
+
+        final NodeQueue nodeQueue = ((AmqpMessageBus) bus).getNodeQueue();
         try {
-            connection = factory.newConnection();
+            sessionTokens.replicate(new AmqpSessionReplication(nodeQueue.getConnection(),
+                    configuration.getString("bolboard.session.revocation-exchange", "BOL.revocations")));
+            lifecycle.addStopHook(() -> {
+                sessionTokens.close();
+                return F.Promise.pure(null);
+            });
+        } catch (final IOException e) {
+            Logger.error("Revocation replication could not be started, sessions are revoked on this node only due to: ",
+                    e);
+        }
+    }
 
-            managed(connection, Connection::createChannel, new SafeChannel.CheckedFunction<Channel, Void>() {
-                @Override
-                public Void apply(Channel channel) throws IOException {
-                    channel.exchangeDeclare(RabbitMQExchangeName, "direct", true);
-                    return null;
-                }
+    /**
+     * Saves the sessions to a local file if it is enabled, and restores them from it first. Otherwise the sessions
+     * are lost when the node restarts, and all its users log in again.
+     */
+    private static SessionStore openSessionJournal(final Configuration configuration,
+                                                   final ApplicationLifecycle lifecycle,
+                                                   final ShardedSessionStore sessions) {
+        if (!configuration.getBoolean("bolboard.session.journal.enabled", false)) {
+            return sessions;
+        }
+
+        try {
+            final JournaledSessionStore journal = new JournaledSessionStore(sessions,
+                    Paths.get(configuration.getString("bolboard.session.journal.file", "data/sessions.bin")),
+                    configuration.getLong("bolboard.session.journal.interval",
+                            JournaledSessionStore.DEFAULT_INTERVAL_MILLIS),
+                    configuration.getLong("bolboard.session.journal.snapshot-interval",
+                            JournaledSessionStore.DEFAULT_SNAPSHOT_INTERVAL_MILLIS),
+                    System::currentTimeMillis);
+            lifecycle.addStopHook(() -> {
+                journal.close();
+                return F.Promise.pure(null);
             });
+            return journal;
+        } catch (final IOException e) {
+            Logger.error("Session journal could not be opened, the sessions are not saved due to: ", e);
+            return sessions;
+        }
+    }
+
+    /**
+     * Shares the sessions with the other nodes through RabbitMQ if it is enabled, so a request is served by any node.
+     * Otherwise a user must be sent back to the node which created the session.
+     */
+    private static SessionStore openSessionReplication(final Configuration configuration,
+                                                       final ApplicationLifecycle lifecycle,
+                                                       final MessageBus bus,
+                                                       final SessionStore sessions) {
+        if (!configuration.getBoolean("bolboard.session.replication.enabled", false)) {
+            return sessions;
+        }
+        if (!(bus instanceof AmqpMessageBus)) {
+            Logger.warn("Sessions are only replicated over RabbitMQ, they stay on this node");
+            return sessions;
+        }
 
-            dispatcher = system.actorOf(Props.create(Dispatcher.class,
-                    client, connection, sessionStore, STEP_TIMEOUT, FLOW_TIMEOUT));
+        final NodeQueue nodeQueue = ((AmqpMessageBus) bus).getNodeQueue();
+        try {
+            final ReplicatedSessionStore replicated = new ReplicatedSessionStore(sessions,
+                    new AmqpSessionReplication(nodeQueue.getConnection(),
+                            configuration.getString("bolboard.session.replication.exchange", "BOL.sessions")),
+                    configuration.getLong("bolboard.session.replication.touch-interval",
+                            ReplicatedSessionStore.DEFAULT_TOUCH_INTERVAL_MILLIS),
+                    System::currentTimeMillis);
+            lifecycle.addStopHook(() -> {
+                replicated.close();
+                return F.Promise.pure(null);
+            });
+            return replicated;
         } catch (final IOException e) {
-            connection = null;
-            Logger.error("Connection to RabbitMQ failed due to: ", e);
-            throw new RuntimeException(e);
+            Logger.error("Session replication could not be started, the sessions stay on this node due to: ", e);
+            return sessions;
         }
+    }
+
+    @Inject
+    public Application(final ActorSystem system,
+                       final Configuration configuration,
+                       final ApplicationLifecycle lifecycle) {
+        startMoveAudit(configuration, lifecycle);
+
+        binaryMQ = configuration.getBoolean("bolboard.protocol.binary-mq", false);
+        outboundQueues = new OutboundQueue.Factory(
+                configuration.getInt("bolboard.socket.outbound-window", OutboundQueue.DEFAULT_WINDOW),
+                configuration.getInt("bolboard.socket.outbound-capacity", OutboundQueue.DEFAULT_CAPACITY),
+                OutboundQueue.Overflow.of(configuration.getString("bolboard.socket.overflow", "drop-stale")));
 
+        botEngine = new BotEngine(
+                configuration.getInt("bolboard.bot.parallelism", Runtime.getRuntime().availableProcessors()),
+                configuration.getLong("bolboard.bot.move-budget", 500L),
+                new TranspositionTable(configuration.getLong("bolboard.bot.transposition-table-size", 64L * 1024 * 1024)),
+                openTablebase(configuration));
+        lifecycle.addStopHook(() -> {
+            botEngine.close();
+            return F.Promise.pure(null);
+        });
+
+        final WSClient client = WS.client();
+        storedSessions = new ShardedSessionStore(
+                configuration.getInt("bolboard.session.shards", ShardedSessionStore.DEFAULT_SHARDS),
+                configuration.getLong("bolboard.session.expire-after-access",
+                        ShardedSessionStore.DEFAULT_EXPIRE_AFTER_ACCESS_MILLIS));
+        sessionTokens = openSessionTokens(configuration);
+
+        bus = openMessageBus(configuration);
+        lifecycle.addStopHook(() -> {
+            bus.close();
+            return F.Promise.pure(null);
+        });
+        replicateRevocations(configuration, lifecycle, bus, sessionTokens);
+        sessionStore = openSessionReplication(configuration, lifecycle, bus,
+                openSessionJournal(configuration, lifecycle, storedSessions));
+
+        dispatcher = system.actorOf(Props.create(Dispatcher.class,
+                client, bus, sessionStore, botEngine, sessionTokens, FLOW_TIMEOUT,
+                configuration.getInt("bolboard.flows.create-session", Dispatcher.DEFAULT_SESSION_FLOWS),
+                configuration.getInt("bolboard.flows.search", Dispatcher.DEFAULT_SEARCH_FLOWS),
+                configuration.getInt("bolboard.flows.game-request", Dispatcher.DEFAULT_GAME_REQUEST_FLOWS)));
     }
 
     public Result index() {
         return ok(index.render("Welcome to BolBoard!"));
     }
 
+    public Result botMetrics() {
+        return ok(Json.toJson(botEngine.metrics()));
+    }
+
+    public Result sessionMetrics() {
+        return ok(Json.toJson(storedSessions.metrics()));
+    }
+
+    public Result socketMetrics() {
+        return ok(Json.toJson(outboundQueues.metrics()));
+    }
+
     @BodyParser.Of(BodyParser.Json.class)
     public F.Promise<Result> createSession() {
         final JsonNode json = request().body().asJson();
@@ -133,7 +363,31 @@ public class Application extends Controller {
 
             public Props actorProps(final ActorRef out) {
                 try {
-                    return SocketHandler.props(out, sessionStore, connection);
+                    return SocketHandler.props(out, sessionStore, sessionTokens, bus, outboundQueues, binaryMQ);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }
+        };
+    }
+
+    /**
+     * The same socket for the clients of the binary protocol. The first message must be a HELLO frame.
+     */
+    public WebSocket<byte[]> binarySocket() {
+        return new WebSocket<byte[]>() {
+            public void onReady(In<byte[]> in, Out<byte[]> out) {
+            }
+
+            public boolean isActor() {
+                return true;
+            }
+
+            public Props actorProps(final ActorRef out) {
+                try {
+                    return SocketHandler.props(out, sessionStore, sessionTokens, bus, outboundQueues, binaryMQ);
                 } catch (RuntimeException | Error e) {
                     throw e;
                 } catch (Throwable t) {
@@ -165,4 +419,21 @@ public class Application extends Controller {
             return dispatch(gameRequest);
         }
     }
+
+    /**
+     * Ends the session of the user: a signed session is revoked, a stored one is removed from the store.
+     */
+    public Result logout() {
+        final ActiveSession session = loadSession();
+        if (session != null) {
+            if (sessionTokens != null) {
+                sessionTokens.revoke(session);
+            } else {
+                sessionStore.remove(session);
+            }
+        }
+
+        session().clear();
+        return ok();
+    }
 }
@@ -0,0 +1,520 @@
+package model;
+
+import javax.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+import static model.MessageProtocols.GameProtocol.*;
+
+/**
+ * The binary form of the game messages, for the web socket and the RabbitMQ bodies. Every message is a one byte
+ * opcode, the sequence number of the message as an unsigned varint and the payload of the opcode:
+ * <ul>
+ *     <li>STATE: the number of pits as a varint, then one byte of stones per pit</li>
+ *     <li>DELTA: one byte of flags (see {@link MessageProtocols.GameProtocol#GAME_DELTA_TURN}), the number of changed
+ *     pits as a varint, then a byte of pit index and a byte of stones per changed pit</li>
+ *     <li>MOVE: the pit (1 to pits per player) as one byte, then on RabbitMQ the user id of the player</li>
+ *     <li>HELLO: the credentials, "userId=sessionId"; OPPONENT: the display name; REJECT: the user id</li>
+ *     <li>SYNC: nothing from a socket client, the user id of the player on RabbitMQ</li>
+ *     <li>ACK: the number of frames the socket client received so far, as a varint</li>
+ *     <li>TURN, NOT_TURN, END, WAITING: nothing</li>
+ * </ul>
+ * Strings are a varint length and their UTF-8 bytes.
+ * <p>
+ * The string protocol of {@link MessageProtocols.GameProtocol} stays the default. A client chooses the binary one with
+ * its first socket message, a HELLO frame sent to the binary socket. Senders on RabbitMQ mark binary bodies with
+ * {@link #CONTENT_TYPE}, so receivers accept both.
+ * <p>
+ * Encoders write into a buffer given by the caller and return the end of the message, decoders read in place, so
+ * nothing is allocated except the strings the caller asks for. The frames of the socket clients cannot be trusted:
+ * every read is bounded by the message, and a decoder returns -1 (or null for a string) when the message is cut or
+ * its lengths do not fit.
+ */
+public final class BinaryGameProtocol {
+    public static final String CONTENT_TYPE = "application/x-bolboard";
+
+    public static final byte HELLO = 1;
+    public static final byte TURN = 2;
+    public static final byte NOT_TURN = 3;
+    public static final byte STATE = 4;
+    public static final byte END = 5;
+    public static final byte MOVE = 6;
+    public static final byte REJECT = 7;
+    public static final byte OPPONENT = 8;
+    public static final byte WAITING = 9;
+    public static final byte DELTA = 10;
+    public static final byte SYNC = 11;
+    public static final byte ACK = 12;
+
+    /**
+     * Opcode and the longest varint of a sequence number
+     */
+    public static final int MAX_HEADER_SIZE = 1 + 10;
+
+    private static final String TURN_TEXT = buildGameTurnMessage(true);
+    private static final String NOT_TURN_TEXT = buildGameTurnMessage(false);
+
+    private BinaryGameProtocol() {
+    }
+
+    public static boolean isBinary(final String contentType) {
+        return CONTENT_TYPE.equals(contentType);
+    }
+
+    /**
+     * @return the largest message carrying a string of the given length or a state of the given number of pits.
+     */
+    public static int maxSize(final int length) {
+        return MAX_HEADER_SIZE + 5 + 3 * length;
+    }
+
+    // ==========================================================================
+    // Varints and strings
+    // ==========================================================================
+    static int writeVarint(final byte[] buffer, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * @return the varint starting at the offset, or -1 if the buffer ends before it or it is longer than ten bytes
+     */
+    static long readVarint(final byte[] buffer, int offset) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && offset >= 0 && offset < buffer.length; shift += 7) {
+            final byte b = buffer[offset++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset after the varint starting at the offset, or -1 if the buffer ends before it
+     */
+    static int skipVarint(final byte[] buffer, int offset) {
+        for (int shift = 0; shift < 64 && offset >= 0 && offset < buffer.length; shift += 7) {
+            if ((buffer[offset++] & 0x80) == 0) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether the count entries of the given size starting at the offset are in the buffer
+     */
+    private static boolean fits(final byte[] buffer, final int offset, final long count, final int size) {
+        return offset >= 0 && count >= 0 && count <= (buffer.length - offset) / size;
+    }
+
+    private static int writeString(final byte[] buffer, final int offset, final String value) {
+        final int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+
+        if (ascii) {
+            int position = writeVarint(buffer, offset, length);
+            for (int i = 0; i < length; i++) {
+                buffer[position++] = (byte) value.charAt(i);
+            }
+            return position;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final int position = writeVarint(buffer, offset, bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    /**
+     * @return the string starting at the offset, or null if the buffer ends before it
+     */
+    private static String readString(final byte[] buffer, final int offset) {
+        final long length = readVarint(buffer, offset);
+        final int first = skipVarint(buffer, offset);
+        if (!fits(buffer, first, length, 1)) {
+            return null;
+        }
+        return new String(buffer, first, (int) length, StandardCharsets.UTF_8);
+    }
+
+    // ==========================================================================
+    // Encoding
+    // ==========================================================================
+    public static int encodeHeader(final byte[] buffer, final byte opcode, final long sequence) {
+        buffer[0] = opcode;
+        return writeVarint(buffer, 1, sequence);
+    }
+
+    public static int encodeTurn(final byte[] buffer, final long sequence, final boolean turn) {
+        return encodeHeader(buffer, turn ? TURN : NOT_TURN, sequence);
+    }
+
+    public static int encodeState(final byte[] buffer, final long sequence, final Game game) {
+        final int size = game.size();
+        int position = writeVarint(buffer, encodeHeader(buffer, STATE, sequence), size);
+        for (int i = 0; i < size; i++) {
+            buffer[position++] = (byte) game.stonesAt(i);
+        }
+        return position;
+    }
+
+    /**
+     * The move of a socket client
+     */
+    public static int encodeMove(final byte[] buffer, final long sequence, final int pitIndex) {
+        final int position = encodeHeader(buffer, MOVE, sequence);
+        buffer[position] = (byte) pitIndex;
+        return position + 1;
+    }
+
+    /**
+     * The move of a player to the game actor
+     */
+    public static int encodeMove(final byte[] buffer, final long sequence, final int pitIndex, final String userId) {
+        return writeString(buffer, encodeMove(buffer, sequence, pitIndex), userId);
+    }
+
+    /**
+     * Encodes the changes of the game since the previous state, or the whole state if there is no previous one.
+     */
+    public static int encodeDelta(final byte[] buffer,
+                                  final long sequence,
+                                  final int[] previous,
+                                  final Game game,
+                                  final boolean turn,
+                                  final boolean end) {
+        final int size = game.size();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (previous == null || previous[i] != game.stonesAt(i)) {
+                count++;
+            }
+        }
+
+        int position = encodeHeader(buffer, DELTA, sequence);
+        buffer[position++] = (byte) ((turn ? GAME_DELTA_TURN : 0) | (end ? GAME_DELTA_END : 0));
+        position = writeVarint(buffer, position, count);
+        for (int i = 0; i < size; i++) {
+            final int stones = game.stonesAt(i);
+            if (previous == null || previous[i] != stones) {
+                buffer[position++] = (byte) i;
+                buffer[position++] = (byte) stones;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * The request of a socket client for the whole state
+     */
+    public static int encodeSync(final byte[] buffer, final long sequence) {
+        return encodeHeader(buffer, SYNC, sequence);
+    }
+
+    /**
+     * The request of a player to the game actor for the whole state
+     */
+    public static int encodeSync(final byte[] buffer, final long sequence, final String userId) {
+        return writeString(buffer, encodeSync(buffer, sequence), userId);
+    }
+
+    /**
+     * The acknowledgement of a socket client for the frames it received
+     */
+    public static int encodeAck(final byte[] buffer, final long sequence, final long received) {
+        return writeVarint(buffer, encodeHeader(buffer, ACK, sequence), received);
+    }
+
+    public static int encodeReject(final byte[] buffer, final long sequence, final String userId) {
+        return writeString(buffer, encodeHeader(buffer, REJECT, sequence), userId);
+    }
+
+    public static int encodeHello(final byte[] buffer, final String credentials) {
+        return writeString(buffer, encodeHeader(buffer, HELLO, 0), credentials);
+    }
+
+    /**
+     * Encodes a message of the string protocol pushed to the socket.
+     *
+     * @return the end of the message, or -1 if the message has no binary form.
+     */
+    public static int encodeFrame(final byte[] buffer, final long sequence, final String message) {
+        if (message.equals(TURN_TEXT)) {
+            return encodeHeader(buffer, TURN, sequence);
+        } else if (message.equals(NOT_TURN_TEXT)) {
+            return encodeHeader(buffer, NOT_TURN, sequence);
+        } else if (message.equals(GAME_END_MESSAGE)) {
+            return encodeHeader(buffer, END, sequence);
+        } else if (message.equals(SOCKET_GAME_WAITING)) {
+            return encodeHeader(buffer, WAITING, sequence);
+        } else if (message.startsWith(GAME_STATE_PREFIX)) {
+            return encodeTextState(buffer, sequence, message);
+        } else if (fetchGameDeltaFlags(message) != -1) {
+            return encodeTextDelta(buffer, sequence, message);
+        } else if (message.startsWith(SOCKET_GAME_START_PREFIX + "=")) {
+            return writeString(buffer, encodeHeader(buffer, OPPONENT, sequence),
+                    message.substring(SOCKET_GAME_START_PREFIX.length() + 1));
+        } else if (isGameRejectedMessage(message)) {
+            return encodeReject(buffer, sequence, fetchRejector(message));
+        }
+        return -1;
+    }
+
+    /**
+     * Packs a "$$a-b-c" state without splitting it.
+     */
+    private static int encodeTextState(final byte[] buffer, final long sequence, final String message) {
+        int size = 1;
+        for (int i = GAME_STATE_PREFIX.length(); i < message.length(); i++) {
+            if (message.charAt(i) == '-') {
+                size++;
+            }
+        }
+
+        int position = writeVarint(buffer, encodeHeader(buffer, STATE, sequence), size);
+        int stones = 0;
+        for (int i = GAME_STATE_PREFIX.length(); i < message.length(); i++) {
+            final char c = message.charAt(i);
+            if (c == '-') {
+                buffer[position++] = (byte) stones;
+                stones = 0;
+            } else {
+                stones = stones * 10 + (c - '0');
+            }
+        }
+        buffer[position++] = (byte) stones;
+        return position;
+    }
+
+    /**
+     * Packs a valid "%%flags,pit:stones..." delta without splitting it.
+     */
+    private static int encodeTextDelta(final byte[] buffer, final long sequence, final String message) {
+        int count = 0;
+        for (int i = GAME_DELTA_PREFIX.length(); i < message.length(); i++) {
+            if (message.charAt(i) == ',') {
+                count++;
+            }
+        }
+
+        int position = encodeHeader(buffer, DELTA, sequence);
+        buffer[position++] = (byte) fetchGameDeltaFlags(message);
+        position = writeVarint(buffer, position, count);
+        int number = 0;
+        for (int i = GAME_DELTA_PREFIX.length() + 2; i <= message.length(); i++) {
+            final char c = i < message.length() ? message.charAt(i) : ',';
+            if (c == ',' || c == ':') {
+                buffer[position++] = (byte) number;
+                number = 0;
+            } else {
+                number = number * 10 + (c - '0');
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Copies the message with another sequence number, e.g. to forward a frame received from RabbitMQ to a socket.
+     *
+     * @return the end of the copy, or -1 if the message has no header
+     */
+    public static int restamp(final byte[] message, final int length, final byte[] buffer, final long sequence) {
+        final int payload = skipVarint(message, 1);
+        if (payload < 0 || payload > length) {
+            return -1;
+        }
+        final int position = encodeHeader(buffer, message[0], sequence);
+        System.arraycopy(message, payload, buffer, position, length - payload);
+        return position + length - payload;
+    }
+
+    // ==========================================================================
+    // Decoding
+    // ==========================================================================
+    public static byte opcode(final byte[] message) {
+        return message.length == 0 ? 0 : message[0];
+    }
+
+    /**
+     * @return the sequence number, or -1
+     */
+    public static long sequence(final byte[] message) {
+        return readVarint(message, 1);
+    }
+
+    /**
+     * @return the offset of the payload, or -1 if the message ends in its header
+     */
+    private static int payload(final byte[] message) {
+        return skipVarint(message, 1);
+    }
+
+    /**
+     * Reads a STATE message into the array.
+     *
+     * @return the number of pits, or -1 if the message is cut or has more pits than the array; nothing is read then.
+     */
+    public static int decodeState(final byte[] message, final int[] pits) {
+        final int offset = payload(message);
+        final long size = readVarint(message, offset);
+        final int first = skipVarint(message, offset);
+        if (!fits(message, first, size, 1) || size > pits.length) {
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            pits[i] = message[first + i] & 0xFF;
+        }
+        return (int) size;
+    }
+
+    /**
+     * @return the flags of a DELTA message, or -1
+     */
+    public static int decodeDeltaFlags(final byte[] message) {
+        final int offset = payload(message);
+        return fits(message, offset, 1, 1) ? message[offset] & 0xFF : -1;
+    }
+
+    /**
+     * Applies the changes of a DELTA message to the array.
+     *
+     * @return the number of changed pits, or -1 if the message is cut or a pit does not fit in the array; nothing is
+     * changed then.
+     */
+    public static int decodeDelta(final byte[] message, final int[] pits) {
+        final int offset = decodeDeltaFlags(message) == -1 ? -1 : payload(message) + 1;
+        final long count = readVarint(message, offset);
+        final int first = skipVarint(message, offset);
+        if (!fits(message, first, count, 2)) {
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if ((message[first + 2 * i] & 0xFF) >= pits.length) {
+                return -1;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            pits[message[first + 2 * i] & 0xFF] = message[first + 2 * i + 1] & 0xFF;
+        }
+        return (int) count;
+    }
+
+    /**
+     * @return the pit of a MOVE message, or -1
+     */
+    public static int decodeMovePit(final byte[] message) {
+        final int offset = payload(message);
+        return fits(message, offset, 1, 1) ? message[offset] & 0xFF : -1;
+    }
+
+    /**
+     * Finds the player of a MOVE, REJECT or SYNC message of RabbitMQ by comparing the user ids in place.
+     *
+     * @param userIds the UTF-8 bytes of the user ids of the players
+     * @return the index of the player, or -1
+     */
+    public static int decodePlayer(final byte[] message, final byte[][] userIds) {
+        final int payload = payload(message);
+        final int offset = opcode(message) == MOVE && payload >= 0 ? payload + 1 : payload;
+        final long length = readVarint(message, offset);
+        final int first = skipVarint(message, offset);
+        if (!fits(message, first, length, 1)) {
+            return -1;
+        }
+
+        for (int player = 0; player < userIds.length; player++) {
+            final byte[] userId = userIds[player];
+            if (userId.length != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && userId[i] == message[first + i]) {
+                i++;
+            }
+            if (i == length) {
+                return player;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of frames received by the client of an ACK message, or -1
+     */
+    public static long decodeAck(final byte[] message) {
+        return readVarint(message, payload(message));
+    }
+
+    /**
+     * @return the credentials of a HELLO message, or null
+     */
+    @Nullable
+    public static String decodeHello(final byte[] message) {
+        return readString(message, payload(message));
+    }
+
+    /**
+     * @return the message in the string protocol, for the clients which did not choose the binary one, or null if it
+     * has none or is cut.
+     */
+    @Nullable
+    public static String toText(final byte[] message) {
+        switch (opcode(message)) {
+            case TURN:
+                return TURN_TEXT;
+            case NOT_TURN:
+                return NOT_TURN_TEXT;
+            case END:
+                return GAME_END_MESSAGE;
+            case WAITING:
+                return SOCKET_GAME_WAITING;
+            case REJECT:
+                final String rejector = readString(message, payload(message));
+                return rejector == null ? null : buildRejectMessage(rejector);
+            case OPPONENT:
+                final String opponent = readString(message, payload(message));
+                return opponent == null ? null : buildSocketGameStartMessage(opponent);
+            case STATE:
+                final int offset = payload(message);
+                final long size = readVarint(message, offset);
+                final int first = skipVarint(message, offset);
+                if (!fits(message, first, size, 1)) {
+                    return null;
+                }
+                final StringBuilder builder = new StringBuilder(GAME_STATE_PREFIX);
+                for (int i = 0; i < size; i++) {
+                    if (i != 0) {
+                        builder.append('-');
+                    }
+                    builder.append(message[first + i] & 0xFF);
+                }
+                return builder.toString();
+            case DELTA:
+                final int flags = decodeDeltaFlags(message);
+                final int flagsOffset = payload(message);
+                final long count = readVarint(message, flags == -1 ? -1 : flagsOffset + 1);
+                final int firstChange = skipVarint(message, flags == -1 ? -1 : flagsOffset + 1);
+                if (!fits(message, firstChange, count, 2)) {
+                    return null;
+                }
+                final StringBuilder delta = new StringBuilder(GAME_DELTA_PREFIX).append(flags);
+                for (int i = 0; i < count; i++) {
+                    delta.append(',').append(message[firstChange + 2 * i] & 0xFF)
+                            .append(':').append(message[firstChange + 2 * i + 1] & 0xFF);
+                }
+                return delta.toString();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package model;
+
+/**
+ * Compact representation of a Mancala board. Every pit is kept in one byte lane of a primitive word, so a board of
+ * 14 pits fits in two longs. Players are absolute here: player 0 owns the first half of the board and its large pit,
+ * player 1 the second half (see {@link Geometry}).
+ * <p>
+ * All the per-player lookups (the sowing order which skips the forbidden large pit, the lane masks) come from the
+ * shared tables of the {@link Geometry}, so {@link #move(int, int)} does not allocate and sows in O(pits) regardless
+ * of the size of the board and the number of stones.
+ * <p>
+ * The board also keeps its Zobrist hash up to date on every change, so {@link #hash()} costs nothing.
+ */
+public final class Board {
+    public static final int PLAYERS = 2;
+
+    private final Geometry geometry;
+    private final long[] words;
+    private long hash;
+
+    public Board(final Geometry geometry) {
+        this.geometry = geometry;
+        this.words = geometry.initialWords.clone();
+        this.hash = geometry.initialHash;
+    }
+
+    public Board(final Board other) {
+        this.geometry = other.geometry;
+        this.words = other.words.clone();
+        this.hash = other.hash;
+    }
+
+    /**
+     * Overwrites this board with the pits of the other one. Both boards must have the same geometry.
+     */
+    public void copyFrom(final Board other) {
+        System.arraycopy(other.words, 0, words, 0, words.length);
+        hash = other.hash;
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public int size() {
+        return geometry.size;
+    }
+
+    /**
+     * @return the index of the large pit of the player
+     */
+    public int store(final int player) {
+        return geometry.store[player];
+    }
+
+    /**
+     * @return the player owning the small pit, or -1 if the index is a large pit or out of the board.
+     */
+    public int owner(final int pitIndex) {
+        if (pitIndex < 0 || pitIndex >= geometry.size) {
+            return -1;
+        }
+        return geometry.owner[pitIndex];
+    }
+
+    public int opposite(final int pitIndex) {
+        return geometry.opposite[pitIndex];
+    }
+
+    public int get(final int pitIndex) {
+        return (int) ((words[Geometry.word(pitIndex)] >>> Geometry.shift(pitIndex)) & Geometry.LANE_MASK);
+    }
+
+    public void set(final int pitIndex, final int stones) {
+        final long[] keys = geometry.zobrist[pitIndex];
+        hash ^= keys[get(pitIndex)] ^ keys[stones];
+
+        final int w = Geometry.word(pitIndex);
+        final int shift = Geometry.shift(pitIndex);
+        words[w] = (words[w] & ~(Geometry.LANE_MASK << shift)) | ((long) stones << shift);
+    }
+
+    private void add(final int pitIndex, final int stones) {
+        final long[] keys = geometry.zobrist[pitIndex];
+        final int current = get(pitIndex);
+        hash ^= keys[current] ^ keys[current + stones];
+
+        words[Geometry.word(pitIndex)] += (long) stones << Geometry.shift(pitIndex);
+    }
+
+    /**
+     * Copies the pits into the given array which must be at least {@link #size()} long.
+     */
+    public void copyTo(final int[] target) {
+        for (int i = 0; i < geometry.size; i++) {
+            target[i] = get(i);
+        }
+    }
+
+    public void load(final int[] pits) {
+        for (int i = 0; i < geometry.size; i++) {
+            set(i, pits[i]);
+        }
+    }
+
+    /**
+     * @return the number of stones left in the small pits of the player
+     */
+    public int sideStones(final int player) {
+        final int first = player * (geometry.pitsPerPlayer + 1);
+        int stones = 0;
+        for (int i = first; i < first + geometry.pitsPerPlayer; i++) {
+            stones += get(i);
+        }
+        return stones;
+    }
+
+    /**
+     * @return the 64 bit Zobrist hash of the pits. Equal boards of the same geometry have equal hashes.
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * @return the hash of the position, which is the pits together with the player to move.
+     */
+    public long hash(final int playerToMove) {
+        return playerToMove == 0 ? hash : hash ^ geometry.sideToMoveKey;
+    }
+
+    /**
+     * @return true if all the small pits of either player are empty.
+     */
+    public boolean isEnded() {
+        final long[] first = geometry.sideMask[0];
+        final long[] second = geometry.sideMask[1];
+
+        boolean firstEmpty = true;
+        boolean secondEmpty = true;
+        for (int w = 0; w < words.length; w++) {
+            firstEmpty &= (words[w] & first[w]) == 0;
+            secondEmpty &= (words[w] & second[w]) == 0;
+        }
+        return firstEmpty || secondEmpty;
+    }
+
+    /**
+     * Sows the stones of the pit for the player. The caller is responsible to validate that the pit belongs to the
+     * player and it is not empty.
+     *
+     * @return true if the last stone ended in the large pit of the player, so the player moves again.
+     */
+    public boolean move(final int player, final int pitIndex) {
+        final int stones = get(pitIndex);
+        set(pitIndex, 0);
+
+        // A full lap puts one stone in every pit except the forbidden large pit, the source pit included.
+        final int lap = geometry.size - 1;
+        final int laps = stones / lap;
+        if (laps != 0) {
+            final long[] mask = geometry.sowMask[player];
+            for (int w = 0; w < words.length; w++) {
+                words[w] += laps * mask[w];
+            }
+
+            final int forbidden = geometry.forbiddenStore[player];
+            for (int i = 0; i < geometry.size; i++) {
+                if (i != forbidden) {
+                    final long[] keys = geometry.zobrist[i];
+                    final int stonesAfter = get(i);
+                    hash ^= keys[stonesAfter - laps] ^ keys[stonesAfter];
+                }
+            }
+        }
+
+        final int[] order = geometry.next[player];
+        int last = pitIndex;
+        for (int remaining = stones % lap; remaining != 0; remaining--) {
+            last = order[last];
+            add(last, 1);
+        }
+
+        final int store = geometry.store[player];
+        if (geometry.owner[last] == player && get(last) == 1) {
+            final int opposite = geometry.opposite[last];
+            add(store, 1 + get(opposite));
+            set(last, 0);
+            set(opposite, 0);
+        }
+
+        return last == store;
+    }
+}
@@ -2,49 +2,70 @@ package model;
 
 import com.google.common.annotations.VisibleForTesting;
 import play.Logger;
+import utils.MoveAuditLog;
 
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Any instance of this class represents the life cycle of a game. The game core logic is implemented here. It handles
  * user turns, movement validation and also game state transition.
  * Player of a game can instantiate two completely separate instance of this class. By passing the movement to the {@link #move(int)}
  * function, state transition will be done locally without any need of synchronisation. It guarantees that, for the
+ * <p>
+ * The stones themselves are kept in a packed {@link Board}, so moving does not allocate.
  */
 public class Game {
-    //TODO: Game can accept this two parameter as constructor argument. So it will be flexible with any size of the field
+    /**
+     * The default geometry. Other sizes of the field can be played by passing a {@link Geometry} to the constructor.
+     */
     public final static int STONE_NUMBER_PER_PIT = 6;
     public final static int SMALL_PIT_NUMBER_PER_USER = 6;
 
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id;
     /**
      * it shows whether it is the current user turn to play or not.
      */
     private boolean turn = false;
-    private int[] pits = new int[2 * SMALL_PIT_NUMBER_PER_USER + 2]; // {6, 6, 6, 6, 6, 6, 0, 6, 6, 6, 6, 6, 6, 0}
+    private final Board board; // {6, 6, 6, 6, 6, 6, 0, 6, 6, 6, 6, 6, 6, 0} for the default geometry
     private final int userStartingIndex;
     private final int opponentStartingIndex;
+    private final int userPlayer;
 
     public Game(final boolean turn, final int userStartingIndex) {
+        this(NEXT_ID.incrementAndGet(), turn, userStartingIndex);
+    }
+
+    public Game(final long id, final boolean turn, final int userStartingIndex) {
+        this(id, Geometry.DEFAULT, turn, userStartingIndex);
+    }
+
+    /**
+     * @param geometry the shape of the board
+     * @param userStartingIndex either 0 or the first pit of the second player (pits per player + 1)
+     */
+    public Game(final long id, final Geometry geometry, final boolean turn, final int userStartingIndex) {
+        this.id = id;
+        this.board = new Board(geometry);
         this.turn = turn;
         this.userStartingIndex = userStartingIndex;
 
         if (userStartingIndex == 0) {
-            opponentStartingIndex = SMALL_PIT_NUMBER_PER_USER + 1;
+            opponentStartingIndex = geometry.getPitsPerPlayer() + 1;
+            userPlayer = 0;
         } else {
             opponentStartingIndex = 0;
+            userPlayer = 1;
         }
+    }
 
-        for (int i = 0; i < SMALL_PIT_NUMBER_PER_USER; i++) {
-            pits[i] = STONE_NUMBER_PER_PIT;
-        }
-
-        pits[SMALL_PIT_NUMBER_PER_USER] = 0;
-
-        for (int i = SMALL_PIT_NUMBER_PER_USER + 1; i < pits.length - 1; i++) {
-            pits[i] = STONE_NUMBER_PER_PIT;
-        }
+    public long getId() {
+        return id;
+    }
 
-        pits[pits.length - 1] = 0;
+    public Geometry getGeometry() {
+        return board.getGeometry();
     }
 
     public boolean getTurn() {
@@ -52,145 +73,86 @@ public class Game {
     }
 
     public int[] getState() {
-        return Arrays.copyOf(pits, pits.length);
-    }
-
-    private int modularized(int index) {
-        return index % pits.length;
-    }
-
-    private boolean isInUserRange(final int pitIndex) {
-        final int m = modularized(pitIndex);
-        return m >= userStartingIndex && m < userStartingIndex + SMALL_PIT_NUMBER_PER_USER;
+        final int[] pits = new int[board.size()];
+        board.copyTo(pits);
+        return pits;
     }
 
-    private boolean isInOpponentRange(final int pitIndex) {
-        final int m = modularized(pitIndex);
-
-        return m >= opponentStartingIndex && m < opponentStartingIndex + SMALL_PIT_NUMBER_PER_USER;
-    }
-
-    private boolean isInPlayerRange(final int pitIndex) {
-        return (turn && isInUserRange(pitIndex)) || (!turn && isInOpponentRange(pitIndex));
-    }
-
-    private int userLargePit() {
-        return userStartingIndex + SMALL_PIT_NUMBER_PER_USER;
+    /**
+     * @return the number of pits on the board, large pits included.
+     */
+    public int size() {
+        return board.size();
     }
 
-    private int opponentLargePit() {
-        return userStartingIndex == 0 ? pits.length - 1 : userStartingIndex - 1;
+    /**
+     * Reads a single pit without copying the whole state.
+     */
+    public int stonesAt(final int pitIndex) {
+        return board.get(pitIndex);
     }
 
-    private boolean isLargePitOfPlayer(final int pitIndex) {
-        final int modularized = modularized(pitIndex);
-
-        return ((turn && (modularized == userLargePit())) || (!turn && (modularized == opponentLargePit())));
+    private int currentPlayer() {
+        return turn ? userPlayer : 1 - userPlayer;
     }
 
     /**
-     * To apply the move on board state, if it is your turn other player's large pit is forbidden, if it is other
-     * player's large pit, your large pit is forbidden.
+     * @return the absolute player (see {@link Board}) who moves next.
      */
-    private boolean isForbiddenLargePit(final int pitIndex) {
-        final int modularized = modularized(pitIndex);
-
-        return (turn && (modularized == opponentLargePit())) || (!turn && (modularized == userLargePit()));
+    public int playerToMove() {
+        return currentPlayer();
     }
 
-    private int playerLargePitIndex() {
-        return turn ? userLargePit() : opponentLargePit();
-    }
-    
-    private int getOppositeIndex(final int pitIndex) {
-        return 2 * SMALL_PIT_NUMBER_PER_USER - modularized(pitIndex);
-    }
-
-    private boolean isEnded() {
-        boolean ended = true;
-        for (int i = 0; i < SMALL_PIT_NUMBER_PER_USER; i++) {
-            if (pits[i] != 0) {
-                ended = false;
-                break;
-            }
-        }
-
-        if (!ended) {
-            ended = true;
-            for (int i = SMALL_PIT_NUMBER_PER_USER + 1; i < pits.length - 1; i++) {
-                if (pits.length != 0) {
-                    ended = false;
-                    break;
-                }
-            }
-        }
-
-        return ended;
+    /**
+     * @return a copy of the board which can be freely changed, e.g. to search ahead.
+     */
+    public Board snapshot() {
+        return new Board(board);
     }
 
     /**
-     * Normalizes and index between 1 to 6 to an index between 0 to 13 (both ends inclusive)
+     * Normalizes and index between 1 to 6 to an index between 0 to 13 (both ends inclusive) for the default geometry,
+     * or generally between 1 to pits per player to an index of the board
      * @param pitIndex
      * @return
      */
     public int normalized(int pitIndex) {
         pitIndex--;
 
-        final int normalized = turn ? pitIndex + userStartingIndex : pitIndex + opponentStartingIndex;
-
-        Logger.debug("Pit index was {} but normalized to {}", pitIndex, normalized);
-
-        return normalized;
+        return turn ? pitIndex + userStartingIndex : pitIndex + opponentStartingIndex;
     }
 
     /**
+     * Applies the move and records it in the {@link MoveAuditLog}. Invalid moves are ignored. Nothing is formatted
+     * here unless debug logging is enabled for an invalid move; when enabled, the audit log is the trail to look at.
+     *
      * @return true if it was the last move (game ended).
      */
     public boolean move(int pitIndex) {
-        Logger.debug("Move {} received!", pitIndex);
-        Logger.debug("User starting index is: {}. opponent starting index is {}.", userStartingIndex, opponentStartingIndex);
-
-        if (pitIndex < 0 || pitIndex >= pits.length) {
-            Logger.debug("Invalid pit number {}", pitIndex);
-        } else if (!isInPlayerRange(pitIndex)) {
-            Logger.debug("Invalid move: turn {}, number {}", turn, pitIndex);
-        } else if (pits[pitIndex] == 0) {
-            Logger.debug("Pit {} is empty!", pitIndex);
-        } else {
-            int stones = pits[pitIndex];
-
-            int index = pitIndex + 1;
-            while (stones != 0) {
-                if (!isForbiddenLargePit(index)) {
-                    stones--;
-                    int mod = modularized(index);
-                    pits[mod]++;
-                    pits[pitIndex]--;
-                }
-                index++;
+        if (pitIndex < 0 || pitIndex >= board.size()) {
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("Invalid pit number {}", pitIndex);
             }
-
-            int mod = modularized(index - 1);
-
-            if (isInPlayerRange(mod) && pits[mod] == 1) {
-                pits[mod] = 0;
-                pits[playerLargePitIndex()]++;
-                pits[playerLargePitIndex()] += pits[getOppositeIndex(mod)];
-                pits[getOppositeIndex(mod)] = 0;
+        } else if (board.owner(pitIndex) != currentPlayer()) {
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("Invalid move: turn {}, number {}", turn, pitIndex);
             }
-
-            if (!isLargePitOfPlayer(mod)) {
+        } else if (board.get(pitIndex) == 0) {
+            if (Logger.isDebugEnabled()) {
+                Logger.debug("Pit {} is empty!", pitIndex);
+            }
+        } else {
+            if (!board.move(currentPlayer(), pitIndex)) {
                 turn = !turn;
             }
+            MoveAuditLog.current().record(id, pitIndex, board.hash());
         }
 
-        Logger.debug("Board state is {}", MessageProtocols.GameProtocol.buildGameStateMessage(this));
-
-        return isEnded();
+        return board.isEnded();
     }
 
     @VisibleForTesting
     void moveToState(final int[] pits) {
-        this.pits = pits;
+        board.load(pits);
     }
 }
@@ -0,0 +1,344 @@
+package model;
+
+import java.nio.charset.StandardCharsets;
+
+import static model.MessageProtocols.GameProtocol.*;
+
+/**
+ * A reusable, typed view of a message of the string protocol. {@link #decode} classifies the message from its first
+ * characters and reads its fields in the same pass: the user id stays a slice of the message and the number (game id,
+ * pit or instruction) is parsed in place. It works on the RabbitMQ body as well as on a string, so a consumer can
+ * decide what to do with a delivery without creating any string; {@link #userId()} creates one only if it is asked.
+ * <p>
+ * A view is not thread safe. It is meant to be owned by one actor or one consumer and reused for every message.
+ */
+public final class GameMessageView {
+    public enum Kind {
+        GAME_REQUEST, ACCEPT, REJECT, START, MOVE, SYNC, ACK, INSTRUCTION, TURN, NOT_TURN, STATE, DELTA, END, UNKNOWN
+    }
+
+    private static final String TURN_SUFFIX = GAME_WHOSE_TURN_INSTRUCTION;
+    private static final String NOT_TURN_SUFFIX = GAME_NOT_WHOSE_TURN_INSTRUCTION;
+    private static final String ACK_PREFIX = GAME_ACK_INSTRUCTION + "=";
+
+    private byte[] bytes;
+    private String text;
+    private int length;
+
+    private Kind kind = Kind.UNKNOWN;
+    private int userStart;
+    private int userEnd;
+    private long number;
+
+    public GameMessageView decode(final byte[] body) {
+        this.bytes = body;
+        this.text = null;
+        this.length = body.length;
+        return classify();
+    }
+
+    public GameMessageView decode(final String message) {
+        this.bytes = null;
+        this.text = message;
+        this.length = message.length();
+        return classify();
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * @return the game id of an accept or start, the pit of a move or an instruction, the flags of a delta, or -1 if
+     * the message has none.
+     */
+    public long number() {
+        return number;
+    }
+
+    public boolean hasUserId() {
+        return userEnd > userStart;
+    }
+
+    /**
+     * @return the user id of a game request, accept, reject, start, move or sync of RabbitMQ. It is created on every
+     * call.
+     */
+    public String userId() {
+        if (!hasUserId()) {
+            return null;
+        }
+        return bytes != null
+                ? new String(bytes, userStart, userEnd - userStart, StandardCharsets.UTF_8)
+                : text.substring(userStart, userEnd);
+    }
+
+    /**
+     * Compares the user id of the message without creating it.
+     */
+    public boolean userIdEquals(final String userId) {
+        final int size = userEnd - userStart;
+        if (bytes == null) {
+            return size == userId.length() && text.regionMatches(userStart, userId, 0, size);
+        }
+        if (size != userId.length()) {
+            return size >= userId.length() && userId.equals(userId());
+        }
+        for (int i = 0; i < size; i++) {
+            final char c = userId.charAt(i);
+            if (c >= 0x80) {
+                return userId.equals(userId());
+            }
+            if (bytes[userStart + i] != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the stones of a state message into the array.
+     *
+     * @return the number of pits, or -1 if the state is not valid or does not fit.
+     */
+    public int stateInto(final int[] pits) {
+        if (kind != Kind.STATE) {
+            return -1;
+        }
+
+        int count = 0;
+        int stones = 0;
+        boolean digit = false;
+        for (int i = GAME_STATE_PREFIX.length(); i < length; i++) {
+            final char c = at(i);
+            if (c == '-') {
+                if (!digit || count == pits.length) {
+                    return -1;
+                }
+                pits[count++] = stones;
+                stones = 0;
+                digit = false;
+            } else if (c >= '0' && c <= '9') {
+                stones = stones * 10 + (c - '0');
+                digit = true;
+            } else {
+                return -1;
+            }
+        }
+        if (!digit || count == pits.length) {
+            return -1;
+        }
+        pits[count++] = stones;
+        return count;
+    }
+
+    /**
+     * Applies the changes of a delta message to the array. Nothing is changed if the delta is not valid.
+     *
+     * @return the number of changed pits, or -1 if the delta is not valid or does not fit.
+     */
+    public int deltaInto(final int[] pits) {
+        if (kind != Kind.DELTA) {
+            return -1;
+        }
+
+        final int first = GAME_DELTA_PREFIX.length() + 1;
+        final int count = applyDelta(first, pits, false);
+        return count == -1 ? -1 : applyDelta(first, pits, true);
+    }
+
+    // ==========================================================================
+    // Implementation details
+    // ==========================================================================
+    private char at(final int index) {
+        return bytes != null ? (char) (bytes[index] & 0xFF) : text.charAt(index);
+    }
+
+    private boolean matches(final int offset, final String expected) {
+        if (length - offset < expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (at(offset + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesExactly(final int offset, final String expected) {
+        return length - offset == expected.length() && matches(offset, expected);
+    }
+
+    /**
+     * @return whether the message starts with "prefix="
+     */
+    private boolean hasPrefix(final String prefix) {
+        return length > prefix.length() && at(prefix.length()) == '=' && matches(0, prefix);
+    }
+
+    /**
+     * Parses a non-negative decimal number, or returns -1.
+     */
+    private long parseNumber(final int from, final int to) {
+        if (from >= to) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            final int d = at(i) - '0';
+            if (d < 0 || d > 9 || value > (Long.MAX_VALUE - d) / 10) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private void user(final int from) {
+        userStart = from;
+        userEnd = length;
+    }
+
+    /**
+     * Reads "user=number", the number being after the last '='.
+     */
+    private void userAndNumber(final int from) {
+        int separator = length - 1;
+        while (separator >= from && at(separator) != '=') {
+            separator--;
+        }
+
+        if (separator < from) {
+            user(from);
+        } else {
+            userStart = from;
+            userEnd = separator;
+            number = parseNumber(separator + 1, length);
+        }
+    }
+
+    /**
+     * Reads the ",pit:stones" changes from the offset, only validating them unless asked to apply them.
+     */
+    private int applyDelta(final int from, final int[] pits, final boolean apply) {
+        int count = 0;
+        int i = from;
+        while (i < length) {
+            if (at(i) != ',') {
+                return -1;
+            }
+            int separator = ++i;
+            while (separator < length && at(separator) != ':') {
+                separator++;
+            }
+            int end = separator;
+            while (end < length && at(end) != ',') {
+                end++;
+            }
+
+            final long pit = parseNumber(i, separator);
+            final long stones = separator < length ? parseNumber(separator + 1, end) : -1;
+            if (pit == -1 || pit >= pits.length || stones == -1 || stones > Integer.MAX_VALUE) {
+                return -1;
+            }
+            if (apply) {
+                pits[(int) pit] = (int) stones;
+            }
+            count++;
+            i = end;
+        }
+        return count;
+    }
+
+    private GameMessageView classify() {
+        kind = Kind.UNKNOWN;
+        userStart = 0;
+        userEnd = 0;
+        number = -1;
+
+        if (length == 0) {
+            return this;
+        }
+
+        switch (at(0)) {
+            case 'g':
+                if (hasPrefix(MQ_GAME_REQUEST_PREFIX)) {
+                    kind = Kind.GAME_REQUEST;
+                    user(MQ_GAME_REQUEST_PREFIX.length() + 1);
+                }
+                break;
+            case 'a':
+                if (hasPrefix(MQ_GAME_REQUEST_ACCEPTED_PREFIX)) {
+                    kind = Kind.ACCEPT;
+                    userAndNumber(MQ_GAME_REQUEST_ACCEPTED_PREFIX.length() + 1);
+                }
+                break;
+            case 'r':
+                if (hasPrefix(MQ_GAME_REQUEST_REJECTED_PREFIX)) {
+                    kind = Kind.REJECT;
+                    user(MQ_GAME_REQUEST_REJECTED_PREFIX.length() + 1);
+                }
+                break;
+            case 's':
+                if (hasPrefix(MQ_GAME_START_PREFIX)) {
+                    kind = Kind.START;
+                    userAndNumber(MQ_GAME_START_PREFIX.length() + 1);
+                } else if (hasPrefix(MQ_GAME_SYNC_PREFIX)) {
+                    kind = Kind.SYNC;
+                    user(MQ_GAME_SYNC_PREFIX.length() + 1);
+                }
+                break;
+            case 'm':
+                if (hasPrefix(MQ_GAME_MOVE_PREFIX)) {
+                    kind = Kind.MOVE;
+                    userAndNumber(MQ_GAME_MOVE_PREFIX.length() + 1);
+                }
+                break;
+            case 'e':
+                if (matchesExactly(0, GAME_END_MESSAGE)) {
+                    kind = Kind.END;
+                }
+                break;
+            case '$':
+                if (matches(0, GAME_STATE_PREFIX)) {
+                    kind = Kind.STATE;
+                }
+                break;
+            case '%':
+                if (length > GAME_DELTA_PREFIX.length() && matches(0, GAME_DELTA_PREFIX)) {
+                    final int flags = at(GAME_DELTA_PREFIX.length()) - '0';
+                    if (flags >= 0 && flags <= (GAME_DELTA_TURN | GAME_DELTA_END)) {
+                        kind = Kind.DELTA;
+                        number = flags;
+                    }
+                }
+                break;
+            case '#':
+                if (matches(0, GAME_INSTRUCTION_PREFIX)) {
+                    final int offset = GAME_INSTRUCTION_PREFIX.length();
+                    if (matchesExactly(offset, TURN_SUFFIX)) {
+                        kind = Kind.TURN;
+                    } else if (matchesExactly(offset, NOT_TURN_SUFFIX)) {
+                        kind = Kind.NOT_TURN;
+                    } else if (matchesExactly(offset, GAME_SYNC_INSTRUCTION)) {
+                        kind = Kind.SYNC;
+                    } else if (matches(offset, ACK_PREFIX)) {
+                        number = parseNumber(offset + ACK_PREFIX.length(), length);
+                        if (number != -1) {
+                            kind = Kind.ACK;
+                        }
+                    } else {
+                        number = parseNumber(offset, length);
+                        if (number != -1) {
+                            kind = Kind.INSTRUCTION;
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        return this;
+    }
+}
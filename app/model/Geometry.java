@@ -0,0 +1,195 @@
+package model;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The shape of a board: how many small pits each player has and how many stones each of them starts with. All the
+ * lookup tables needed to play on such a board are computed once and shared by every {@link Board} of the same
+ * geometry, so use {@link #of(int, int)} rather than creating instances.
+ * <p>
+ * Player 0 owns the small pits 0 to pitsPerPlayer - 1 followed by its large pit, player 1 owns the following
+ * pitsPerPlayer small pits and the last large pit.
+ */
+public final class Geometry {
+    public static final int LANE_BITS = 8;
+    public static final int LANES_PER_WORD = Long.SIZE / LANE_BITS;
+    public static final long LANE_MASK = 0xFFL;
+
+    private static final long ZOBRIST_SEED = 0x5DEECE66DL;
+
+    private static final ConcurrentMap<Long, Geometry> CACHE = new ConcurrentHashMap<>();
+
+    public static final Geometry DEFAULT = of(Game.SMALL_PIT_NUMBER_PER_USER, Game.STONE_NUMBER_PER_PIT);
+
+    /**
+     * @return the shared geometry with the given number of small pits per player and stones per small pit.
+     * @throws IllegalArgumentException if all the stones of the board could not fit in one pit
+     */
+    public static Geometry of(final int pitsPerPlayer, final int stonesPerPit) {
+        if (pitsPerPlayer < 1 || stonesPerPit < 1 || 2L * pitsPerPlayer * stonesPerPit > LANE_MASK) {
+            throw new IllegalArgumentException(
+                    String.format("Unsupported geometry: %d pits with %d stones", pitsPerPlayer, stonesPerPit));
+        }
+
+        final long key = ((long) pitsPerPlayer << 32) | stonesPerPit;
+        Geometry geometry = CACHE.get(key);
+        if (geometry == null) {
+            geometry = CACHE.computeIfAbsent(key, k -> new Geometry(pitsPerPlayer, stonesPerPit));
+        }
+        return geometry;
+    }
+
+    final int pitsPerPlayer;
+    final int stonesPerPit;
+    final int size;
+    final int words;
+
+    /**
+     * store[player] is the large pit of the player, forbiddenStore[player] the one the player must skip.
+     */
+    final int[] store = new int[Board.PLAYERS];
+    final int[] forbiddenStore = new int[Board.PLAYERS];
+    /**
+     * owner[i] is the player owning the small pit i, or -1 for a large pit.
+     */
+    final int[] owner;
+    final int[] opposite;
+    /**
+     * next[player][i] is the pit following i when the player sows. The large pit of the other player is skipped.
+     */
+    final int[][] next;
+    /**
+     * sowMask[player][w] has a one in every lane of word w which receives a stone on a full lap of the player.
+     */
+    final long[][] sowMask;
+    /**
+     * sideMask[player][w] covers the lanes of the small pits of the player in word w.
+     */
+    final long[][] sideMask;
+    /**
+     * The words of a board at the beginning of a game.
+     */
+    final long[] initialWords;
+    /**
+     * zobrist[i][stones] is the random key of pit i holding that many stones. The hash of a board is the xor of the
+     * keys of all its pits. The keys only depend on the geometry, so hashes are the same on every node.
+     */
+    final long[][] zobrist;
+    final long initialHash;
+    final long sideToMoveKey;
+
+    private Geometry(final int pitsPerPlayer, final int stonesPerPit) {
+        this.pitsPerPlayer = pitsPerPlayer;
+        this.stonesPerPit = stonesPerPit;
+        this.size = 2 * pitsPerPlayer + 2;
+        this.words = (size + LANES_PER_WORD - 1) / LANES_PER_WORD;
+
+        this.owner = new int[size];
+        this.opposite = new int[size];
+        this.next = new int[Board.PLAYERS][size];
+        this.sowMask = new long[Board.PLAYERS][words];
+        this.sideMask = new long[Board.PLAYERS][words];
+        this.initialWords = new long[words];
+
+        for (int player = 0; player < Board.PLAYERS; player++) {
+            store[player] = player * (pitsPerPlayer + 1) + pitsPerPlayer;
+        }
+        for (int player = 0; player < Board.PLAYERS; player++) {
+            forbiddenStore[player] = store[1 - player];
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (i == store[0] || i == store[1]) {
+                owner[i] = -1;
+                opposite[i] = -1;
+            } else {
+                owner[i] = i < pitsPerPlayer ? 0 : 1;
+                opposite[i] = 2 * pitsPerPlayer - i;
+                initialWords[word(i)] |= (long) stonesPerPit << shift(i);
+            }
+        }
+
+        final SplittableRandom random = new SplittableRandom(ZOBRIST_SEED ^ ((long) pitsPerPlayer << 16) ^ stonesPerPit);
+        this.zobrist = new long[size][(int) LANE_MASK + 1];
+        for (int i = 0; i < size; i++) {
+            for (int stones = 0; stones <= LANE_MASK; stones++) {
+                zobrist[i][stones] = random.nextLong();
+            }
+        }
+        this.sideToMoveKey = random.nextLong();
+
+        long hash = 0;
+        for (int i = 0; i < size; i++) {
+            hash ^= zobrist[i][owner[i] == -1 ? 0 : stonesPerPit];
+        }
+        this.initialHash = hash;
+
+        for (int player = 0; player < Board.PLAYERS; player++) {
+            final int forbidden = forbiddenStore[player];
+            for (int i = 0; i < size; i++) {
+                int following = (i + 1) % size;
+                if (following == forbidden) {
+                    following = (following + 1) % size;
+                }
+                next[player][i] = following;
+
+                if (i != forbidden) {
+                    sowMask[player][word(i)] |= 1L << shift(i);
+                }
+                if (owner[i] == player) {
+                    sideMask[player][word(i)] |= LANE_MASK << shift(i);
+                }
+            }
+        }
+    }
+
+    static int word(final int pitIndex) {
+        return pitIndex / LANES_PER_WORD;
+    }
+
+    static int shift(final int pitIndex) {
+        return (pitIndex % LANES_PER_WORD) * LANE_BITS;
+    }
+
+    public int getPitsPerPlayer() {
+        return pitsPerPlayer;
+    }
+
+    public int getStonesPerPit() {
+        return stonesPerPit;
+    }
+
+    /**
+     * @return the number of pits on the board, large pits included.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the large pit of the player
+     */
+    public int store(final int player) {
+        return store[player];
+    }
+
+    /**
+     * @return the key to xor into a board hash when the second player is to move, so the same pits with different
+     * players to move hash differently.
+     */
+    public long sideToMoveKey() {
+        return sideToMoveKey;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .addValue(pitsPerPlayer)
+                .addValue(stonesPerPit)
+                .toString();
+    }
+}
@@ -58,21 +58,35 @@ public class MessageProtocols {
         public static final String MQ_GAME_REQUEST_ACCEPTED_PREFIX = "accept";
         public static final String MQ_GAME_REQUEST_REJECTED_PREFIX = "reject";
         public static final String MQ_GAME_START_PREFIX = "start";
+        public static final String MQ_GAME_MOVE_PREFIX = "move";
+        public static final String MQ_GAME_SYNC_PREFIX = "sync";
+        public static final String MQ_GAME_ROUTING_KEY_PREFIX = "game:";
+        public static final String MQ_REQUEST_ROUTING_KEY_PREFIX = "request:";
         public static final String GAME_INSTRUCTION_PREFIX = "##";
         public static final String GAME_STATE_PREFIX = "$$";
+        public static final String GAME_DELTA_PREFIX = "%%";
 
         public static final String GAME_WHOSE_TURN_INSTRUCTION = "turn";
         public static final String GAME_NOT_WHOSE_TURN_INSTRUCTION = "~turn";
+        public static final String GAME_SYNC_INSTRUCTION = "sync";
+        public static final String GAME_ACK_INSTRUCTION = "ack";
         public static final String GAME_END_MESSAGE = "end";
 
+        /**
+         * Flags of a delta message
+         */
+        public static final int GAME_DELTA_TURN = 1;
+        public static final int GAME_DELTA_END = 2;
+
         public static final String SOCKET_GAME_START_PREFIX = "opponent";
         public static final String SOCKET_GAME_WAITING = "wait-for-game";
 
         /**
-         * Creates a message to be published to RabbitMQ showing that the user accepts game request
+         * Creates a message to be published to RabbitMQ showing that the user accepts game request. The accepter
+         * chooses the id of the game, so it can tell the start of this game from a late start of an earlier request.
          */
-        public static String buildAcceptMessage(final String accepter) {
-            return String.format("%s=%s", MQ_GAME_REQUEST_ACCEPTED_PREFIX, accepter);
+        public static String buildAcceptMessage(final String accepter, final long gameId) {
+            return String.format("%s=%s=%d", MQ_GAME_REQUEST_ACCEPTED_PREFIX, accepter, gameId);
         }
 
         /**
@@ -85,14 +99,50 @@ public class MessageProtocols {
         /**
          * Creates a message to be published to RabbitMQ showing that the game started
          */
-        public static String buildStartMessage(final String requester) {
-            return String.format("%s=%s", MQ_GAME_START_PREFIX, requester);
+        public static String buildStartMessage(final String requester, final long gameId) {
+            return String.format("%s=%s=%d", MQ_GAME_START_PREFIX, requester, gameId);
+        }
+
+        /**
+         * Creates a message to be published to RabbitMQ to the game actor, asking to empty a pit (1 to pits per player)
+         */
+        public static String buildMoveMessage(final String player, final int pitIndex) {
+            return String.format("%s=%s=%d", MQ_GAME_MOVE_PREFIX, player, pitIndex);
+        }
+
+        /**
+         * Creates a message to be published to RabbitMQ to the game actor, asking for the whole state of the game
+         */
+        public static String buildSyncMessage(final String player) {
+            return String.format("%s=%s", MQ_GAME_SYNC_PREFIX, player);
+        }
+
+        /**
+         * The routing key of the actor which owns the game
+         */
+        public static String buildGameRoutingKey(final long gameId) {
+            return MQ_GAME_ROUTING_KEY_PREFIX + gameId;
+        }
+
+        /**
+         * The routing key of the game requests to a user. It is only bound while the user can accept one, so the
+         * requests to a busy user are dropped by the exchange.
+         */
+        public static String buildRequestRoutingKey(final String userId) {
+            return MQ_REQUEST_ROUTING_KEY_PREFIX + userId;
         }
 
         public static String buildGameTurnMessage(final boolean turn) {
             return buildGameInstructionMessage(turn ? GAME_WHOSE_TURN_INSTRUCTION : GAME_NOT_WHOSE_TURN_INSTRUCTION);
         }
 
+        /**
+         * Creates the message of a socket client telling how many frames it received so far, "##ack=12"
+         */
+        public static String buildAckMessage(final long received) {
+            return String.format("%s%s=%d", GAME_INSTRUCTION_PREFIX, GAME_ACK_INSTRUCTION, received);
+        }
+
         /**
          * Creates game controlling message to be published to MQ and Socket.
          */
@@ -104,13 +154,13 @@ public class MessageProtocols {
          * Creates a message representing the state of the game showing how many stones are in each pit
          */
         public static String buildGameStateMessage(final Game game) {
-            final int[] pits = game.getState();
+            final int size = game.size();
 
             StringBuilder builder = new StringBuilder();
-            for (int i = 0; i < pits.length; i++) {
-                builder.append(pits[i]);
+            for (int i = 0; i < size; i++) {
+                builder.append(game.stonesAt(i));
 
-                if (i != pits.length - 1) {
+                if (i != size - 1) {
                     builder.append("-");
                 }
             }
@@ -118,6 +168,28 @@ public class MessageProtocols {
             return String.format("%s%s", GAME_STATE_PREFIX, builder.toString());
         }
 
+        /**
+         * Creates the single message pushed to a player after a move: "%%flags,pit:stones,pit:stones...". The flags
+         * are {@link #GAME_DELTA_TURN} and {@link #GAME_DELTA_END}, the pits are the ones which changed since the
+         * previous state, or all of them if there is no previous state.
+         */
+        public static String buildGameDeltaMessage(@Nullable final int[] previous,
+                                                   final Game game,
+                                                   final boolean turn,
+                                                   final boolean end) {
+            final StringBuilder builder = new StringBuilder(GAME_DELTA_PREFIX)
+                    .append((turn ? GAME_DELTA_TURN : 0) | (end ? GAME_DELTA_END : 0));
+
+            final int size = game.size();
+            for (int i = 0; i < size; i++) {
+                final int stones = game.stonesAt(i);
+                if (previous == null || previous[i] != stones) {
+                    builder.append(',').append(i).append(':').append(stones);
+                }
+            }
+            return builder.toString();
+        }
+
         public static String buildGameEndMessage() {
             return GAME_END_MESSAGE;
         }
@@ -157,6 +229,46 @@ public class MessageProtocols {
             return message.startsWith(GAME_INSTRUCTION_PREFIX);
         }
 
+        public static boolean isGameMoveMessage(final String message) {
+            return message.startsWith(MQ_GAME_MOVE_PREFIX);
+        }
+
+        public static boolean isGameDeltaMessage(final String message) {
+            return message.startsWith(GAME_DELTA_PREFIX);
+        }
+
+        /**
+         * @return true for the messages the game actor pushes to the players: state, delta, turn and end.
+         */
+        public static boolean isGameFrameMessage(final String message) {
+            return message.startsWith(GAME_STATE_PREFIX)
+                    || isGameDeltaMessage(message)
+                    || message.equals(GAME_END_MESSAGE)
+                    || message.equals(GAME_INSTRUCTION_PREFIX + GAME_WHOSE_TURN_INSTRUCTION)
+                    || message.equals(GAME_INSTRUCTION_PREFIX + GAME_NOT_WHOSE_TURN_INSTRUCTION);
+        }
+
+        /**
+         * @return the user id of a "prefix=user=number" message
+         */
+        @Nullable
+        private static String userPart(final String message, final String prefix) {
+            final int end = message.lastIndexOf('=');
+            return end <= prefix.length() ? null : message.substring(prefix.length() + 1, end);
+        }
+
+        /**
+         * @return the number of a "prefix=user=number" message
+         */
+        @Nullable
+        private static Long numberPart(final String message) {
+            try {
+                return Long.parseLong(message.substring(message.lastIndexOf('=') + 1));
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+        }
+
         @Nullable
         public static String fetchRequester(final String message) {
             if (isGameRequestMessage(message)) {
@@ -168,7 +280,7 @@ public class MessageProtocols {
         @Nullable
         public static String fetchAccepter(final String message) {
             if (isGameAcceptedMessage(message)) {
-                return message.replace(MQ_GAME_REQUEST_ACCEPTED_PREFIX + "=", "");
+                return userPart(message, MQ_GAME_REQUEST_ACCEPTED_PREFIX);
             }
             return null;
         }
@@ -176,11 +288,81 @@ public class MessageProtocols {
         @Nullable
         public static String fetchStarter(final String message) {
             if (isGameStartMessage(message)) {
-                return message.replace(MQ_GAME_START_PREFIX + "=", "");
+                return userPart(message, MQ_GAME_START_PREFIX);
+            }
+            return null;
+        }
+
+        @Nullable
+        public static String fetchRejector(final String message) {
+            if (isGameRejectedMessage(message)) {
+                return message.replace(MQ_GAME_REQUEST_REJECTED_PREFIX + "=", "");
+            }
+            return null;
+        }
+
+        /**
+         * @return the game id of an accept or start message
+         */
+        @Nullable
+        public static Long fetchGameId(final String message) {
+            if (isGameAcceptedMessage(message) || isGameStartMessage(message)) {
+                return numberPart(message);
+            }
+            return null;
+        }
+
+        @Nullable
+        public static String fetchMover(final String message) {
+            if (isGameMoveMessage(message)) {
+                return userPart(message, MQ_GAME_MOVE_PREFIX);
             }
             return null;
         }
 
+        /**
+         * @return the pit (1 to pits per player) of a move message
+         */
+        @Nullable
+        public static Integer fetchMovePit(final String message) {
+            if (isGameMoveMessage(message)) {
+                final Long pit = numberPart(message);
+                return pit == null ? null : pit.intValue();
+            }
+            return null;
+        }
+
+        /**
+         * @return the stones of every pit of a state message
+         */
+        @Nullable
+        public static int[] fetchGameState(final String message) {
+            if (!message.startsWith(GAME_STATE_PREFIX)) {
+                return null;
+            }
+            try {
+                final String[] parts = message.substring(GAME_STATE_PREFIX.length()).split("-");
+                final int[] pits = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    pits[i] = Integer.parseInt(parts[i]);
+                }
+                return pits;
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the flags of a delta message, or -1
+         */
+        public static int fetchGameDeltaFlags(final String message) {
+            if (!isGameDeltaMessage(message) || message.length() <= GAME_DELTA_PREFIX.length()) {
+                return -1;
+            }
+            final int flags = message.charAt(GAME_DELTA_PREFIX.length()) - '0';
+            return flags >= 0 && flags <= (GAME_DELTA_TURN | GAME_DELTA_END) ? flags : -1;
+        }
+
         @Nullable
         public static String fetchGameInstruction(final String message) {
             if (isGameInstructionMessage(message)) {
@@ -0,0 +1,110 @@
+package server;
+
+import akka.actor.ActorRef;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import utils.ChannelPool;
+import utils.SafeChannel;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static utils.SafeChannel.managed;
+
+/**
+ * The message bus of the nodes over a 'direct' exchange of RabbitMQ. Every node consumes its {@link NodeQueue} and
+ * publishes through its {@link ChannelPool}.
+ * <p>
+ * When the actor of a routing key runs on this node, the message is told to it directly, exactly as if it had been
+ * consumed from the queue of the node; only the others are published. Games between two users of the same node, and
+ * games against the bot, never go through the broker. A routing key has one actor in the whole cluster, except a user
+ * connected to several nodes at once: such a user only gets the messages of this node when it is also connected here.
+ */
+public class AmqpMessageBus implements MessageBus {
+    private static final CompletableFuture<Void> DELIVERED = CompletableFuture.completedFuture(null);
+
+    private final NodeQueue nodeQueue;
+    private final ChannelPool publishers;
+
+    private final AtomicLong local = new AtomicLong();
+    private final AtomicLong remote = new AtomicLong();
+
+    /**
+     * Declares the exchange of the bus. It must exist before the queue of the node binds to it.
+     */
+    public static void declareExchange(final Connection connection, final String exchange) throws IOException {
+        managed(connection, Connection::createChannel, new SafeChannel.CheckedFunction<Channel, Void>() {
+            @Override
+            public Void apply(Channel channel) throws IOException {
+                channel.exchangeDeclare(exchange, "direct", true);
+                return null;
+            }
+        });
+    }
+
+    public AmqpMessageBus(final NodeQueue nodeQueue, final ChannelPool publishers) {
+        this.nodeQueue = nodeQueue;
+        this.publishers = publishers;
+    }
+
+    public NodeQueue getNodeQueue() {
+        return nodeQueue;
+    }
+
+    public ChannelPool getPublishers() {
+        return publishers;
+    }
+
+    /**
+     * Binds the queue of the node to the routing key, so the messages from the other nodes arrive too.
+     */
+    @Override
+    public void register(final String routingKey, final ActorRef actor) throws IOException {
+        nodeQueue.register(routingKey, actor);
+    }
+
+    @Override
+    public void unregister(final String routingKey, final ActorRef actor) {
+        nodeQueue.unregister(routingKey, actor);
+    }
+
+    /**
+     * @return the messages told to an actor of this node
+     */
+    public long local() {
+        return local.get();
+    }
+
+    /**
+     * @return the messages published to RabbitMQ
+     */
+    public long remote() {
+        return remote.get();
+    }
+
+    /**
+     * @return a future completed once the message is told to the local actor or confirmed by the broker
+     */
+    @Override
+    public CompletableFuture<Void> publish(final String routingKey, final String contentType, final byte[] body) {
+        final ActorRef actor = nodeQueue.actorOf(routingKey);
+        if (actor != null) {
+            local.incrementAndGet();
+            actor.tell(new Delivery(routingKey, contentType, body), ActorRef.noSender());
+            return DELIVERED;
+        }
+
+        remote.incrementAndGet();
+        return publishers.publish(routingKey, contentType, body);
+    }
+
+    /**
+     * The messages already queued are written before the queue of the node is deleted.
+     */
+    @Override
+    public void close() {
+        publishers.close();
+        nodeQueue.close();
+    }
+}
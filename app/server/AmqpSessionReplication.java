@@ -0,0 +1,109 @@
+package server;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import play.Logger;
+import utils.ChannelPool;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * The replication of the sessions over a 'fanout' exchange of RabbitMQ, on the connection of the message bus. Every
+ * node binds its own exclusive queue to the exchange, so every message reaches every node, the sender included. The
+ * address of a node is the name of its queue: a message sent to one node only goes through the default exchange.
+ * <p>
+ * The messages are acknowledged as they are consumed and are not persistent: a node which is down misses them, and
+ * asks for the sessions again when it starts.
+ */
+public class AmqpSessionReplication implements SessionReplication {
+    public static final String CONTENT_TYPE = "application/x-bolboard-sessions";
+
+    private final String exchange;
+    private final String queueName;
+    private final Channel consumingChannel;
+    private final ChannelPool publishers;
+    private final ChannelPool replies;
+
+    /**
+     * Declares the exchange and the queue of the node, and binds them.
+     */
+    public AmqpSessionReplication(final Connection connection, final String exchange) throws IOException {
+        this.exchange = exchange;
+
+        final boolean durable = false;
+        final boolean exclusive = true;
+        final boolean autoDelete = true;
+        consumingChannel = connection.createChannel();
+        consumingChannel.exchangeDeclare(exchange, "fanout", true);
+        queueName = consumingChannel
+                .queueDeclare("sessions-" + UUID.randomUUID(), durable, exclusive, autoDelete, null)
+                .getQueue();
+        consumingChannel.queueBind(queueName, exchange, "");
+
+        publishers = new ChannelPool(connection, exchange, 1);
+        replies = new ChannelPool(connection, "", 1);
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    @Override
+    public String address() {
+        return queueName;
+    }
+
+    @Override
+    public void start(final Consumer<byte[]> receiver) throws IOException {
+        final boolean autoAck = true;
+        consumingChannel.basicConsume(queueName, autoAck, new DefaultConsumer(consumingChannel) {
+            @Override
+            public void handleDelivery(final String consumerTag,
+                                       final Envelope envelope,
+                                       final AMQP.BasicProperties properties,
+                                       final byte[] body) throws IOException {
+                receiver.accept(body);
+            }
+        });
+        Logger.info("Sessions are replicated through {} on queue {}", exchange, queueName);
+    }
+
+    @Override
+    public void broadcast(final byte[] message) {
+        publishers.publish("", CONTENT_TYPE, message).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                Logger.warn("A session change could not be sent to the other nodes due to: {}", failure.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void send(final String address, final byte[] message) {
+        replies.publish(address, CONTENT_TYPE, message).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                Logger.warn("Sessions could not be sent to node {} due to: {}", address, failure.getMessage());
+            }
+        });
+    }
+
+    /**
+     * The messages already queued are written before the queue of the node is deleted.
+     */
+    @Override
+    public void close() {
+        publishers.close();
+        replies.close();
+        if (consumingChannel.isOpen()) {
+            try {
+                consumingChannel.close();
+            } catch (final IOException e) {
+                // Do Nothing
+            }
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package server;
+
+import model.ActiveSession;
+import play.Logger;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link ShardedSessionStore} saved to a local file, so a node which restarts keeps its sessions and its users do not
+ * all log in again at once.
+ * <p>
+ * The file is a header (magic and version) followed by records: a type byte (PUT or REMOVE), the time of the change
+ * or last access as a long, and the user id and the session id, each a short length and its UTF-8 bytes. A REMOVE
+ * only removes the session of the user if it is the same session, like {@link SessionStore#remove}.
+ * <p>
+ * The changes are coalesced per user and appended every interval by a single thread. Once the file holds more records
+ * than twice the sessions, it is compacted into a snapshot of the sessions with their last access, written aside and
+ * moved over the file. The reads of the sessions are not journaled, so a snapshot is also written every snapshot
+ * interval and on close: a session in use is restored with its last access, not with the time it was put. At start the
+ * file is memory-mapped and replayed into the store; a record cut by a crash ends the replay and is truncated.
+ */
+public class JournaledSessionStore implements SessionStore, AutoCloseable {
+    public static final int MAGIC = 0x424F4C53; // BOLS
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private static final class Change {
+        private final byte type;
+        private final String sessionId;
+        private final long time;
+        /**
+         * Whether the session removed was put since the last flush, so the file does not hold it yet.
+         */
+        private final boolean unsaved;
+
+        private Change(final byte type, final String sessionId, final long time) {
+            this(type, sessionId, time, false);
+        }
+
+        private Change(final byte type, final String sessionId, final long time, final boolean unsaved) {
+            this.type = type;
+            this.sessionId = sessionId;
+            this.time = time;
+            this.unsaved = unsaved;
+        }
+    }
+
+    private final ShardedSessionStore store;
+    private final Path file;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Change> pending = new ConcurrentHashMap<>();
+    @Nullable
+    private final ScheduledExecutorService writer;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private long records;
+    private int restored;
+
+    /**
+     * Replays the file into the store and appends the changes to it every interval.
+     *
+     * @param intervalMillis 0 to append only when {@link #flush} is called
+     */
+    public JournaledSessionStore(final ShardedSessionStore store,
+                                 final Path file,
+                                 final long intervalMillis) throws IOException {
+        this(store, file, intervalMillis, DEFAULT_SNAPSHOT_INTERVAL_MILLIS, System::currentTimeMillis);
+    }
+
+    public JournaledSessionStore(final ShardedSessionStore store,
+                                 final Path file,
+                                 final long intervalMillis,
+                                 final LongSupplier clock) throws IOException {
+        this(store, file, intervalMillis, DEFAULT_SNAPSHOT_INTERVAL_MILLIS, clock);
+    }
+
+    /**
+     * @param snapshotIntervalMillis how often the last access of the sessions is saved, 0 to save it only when
+     *                               {@link #compact} or {@link #close} is called
+     */
+    public JournaledSessionStore(final ShardedSessionStore store,
+                                 final Path file,
+                                 final long intervalMillis,
+                                 final long snapshotIntervalMillis,
+                                 final LongSupplier clock) throws IOException {
+        this.store = store;
+        this.file = file;
+        this.clock = clock;
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = open(replay());
+
+        if (intervalMillis > 0 || snapshotIntervalMillis > 0) {
+            writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "session-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            writer = null;
+        }
+        if (intervalMillis > 0) {
+            writer.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (snapshotIntervalMillis > 0) {
+            writer.scheduleWithFixedDelay(this::snapshotQuietly,
+                    snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ==========================================================================
+    // Replay
+    // ==========================================================================
+
+    /**
+     * @return the end of the last complete record, where the next ones are appended
+     */
+    private long replay() throws IOException {
+        if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+            return 0;
+        }
+
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer mapped = input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                Logger.warn("Session journal {} has an unknown format, the sessions start empty", file);
+                return 0;
+            }
+
+            int end = mapped.position();
+            try {
+                while (mapped.hasRemaining()) {
+                    final byte type = mapped.get();
+                    final long time = mapped.getLong();
+                    final ActiveSession session = new ActiveSession(readString(mapped), readString(mapped));
+                    if (type == PUT) {
+                        store.restore(session, time);
+                    } else if (type == REMOVE) {
+                        store.remove(session);
+                    } else {
+                        break;
+                    }
+                    records++;
+                    end = mapped.position();
+                }
+            } catch (final BufferUnderflowException e) {
+                Logger.warn("Session journal {} ends with a partial record, it is dropped", file);
+            }
+
+            restored = store.size();
+            Logger.info("{} sessions restored from {}", restored, file);
+            return end;
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param end the end of the valid records, 0 for a new file
+     */
+    private FileChannel open(final long end) throws IOException {
+        final FileChannel opened = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (end == 0) {
+            records = 0;
+            opened.truncate(0);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            write(opened, header);
+        } else {
+            opened.truncate(end);
+        }
+        opened.position(opened.size());
+        return opened;
+    }
+
+    /**
+     * @return the sessions read from the file at start
+     */
+    public int restored() {
+        return restored;
+    }
+
+    // ==========================================================================
+    // Store
+    // ==========================================================================
+    @Override
+    public void put(final ActiveSession session) {
+        store.put(session);
+        pending.put(session.getUserId(), new Change(PUT, session.getSessionId(), clock.getAsLong()));
+    }
+
+    @Nullable
+    @Override
+    public ActiveSession get(final String userId) {
+        return store.get(userId);
+    }
+
+    @Override
+    public boolean remove(final ActiveSession session) {
+        if (!store.remove(session)) {
+            return false;
+        }
+        //The removal replaces the put of the same session if it is not written yet: both are written, so the REMOVE
+        //matches the session in the file and the one it replaced is removed too
+        final Change removal = new Change(REMOVE, session.getSessionId(), clock.getAsLong());
+        pending.merge(session.getUserId(), removal, (previous, next) -> previous.type == PUT
+                ? new Change(REMOVE, next.sessionId, next.time, true)
+                : next);
+        return true;
+    }
+
+    @Override
+    public boolean putIfAbsent(final ActiveSession session, final long accessed) {
+        if (!store.putIfAbsent(session, accessed)) {
+            return false;
+        }
+        pending.put(session.getUserId(), new Change(PUT, session.getSessionId(), accessed));
+        return true;
+    }
+
+    /**
+     * The last access is saved by the next snapshot, like the reads.
+     */
+    @Override
+    public void touch(final ActiveSession session, final long accessed) {
+        store.touch(session, accessed);
+    }
+
+    @Override
+    public void forEach(final Visitor visitor) {
+        store.forEach(visitor);
+    }
+
+    // ==========================================================================
+    // Writing
+    // ==========================================================================
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final IOException e) {
+            Logger.error("Writing the session journal failed due to: ", e);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (final IOException e) {
+            Logger.error("Writing the session snapshot failed due to: ", e);
+        }
+    }
+
+    /**
+     * Appends the changes, then replaces the file with the sessions and their last access.
+     */
+    private synchronized void snapshot() throws IOException {
+        flush();
+        compact();
+    }
+
+    /**
+     * Appends the changes since the last flush, and compacts the file if it grew too much.
+     */
+    public synchronized void flush() throws IOException {
+        for (Map.Entry<String, Change> entry : pending.entrySet()) {
+            final Change change = entry.getValue();
+            if (pending.remove(entry.getKey(), change)) {
+                if (change.unsaved) {
+                    append(PUT, change.time, entry.getKey(), change.sessionId);
+                }
+                append(change.type, change.time, entry.getKey(), change.sessionId);
+            }
+        }
+        drain(channel);
+
+        if (records > Math.max(MIN_COMPACTION_RECORDS, 2L * store.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes the sessions of the store, with their last access, into a new file which replaces the journal.
+     */
+    public synchronized void compact() throws IOException {
+        final Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        final long[] count = {0};
+        try (FileChannel output = FileChannel.open(compacted,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            buffer.putInt(MAGIC).putInt(VERSION);
+            final IOException[] failure = {null};
+            store.forEach((userId, sessionId, accessed) -> {
+                if (failure[0] == null) {
+                    try {
+                        append(output, PUT, accessed, userId, sessionId);
+                        count[0]++;
+                    } catch (final IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            drain(output);
+            output.force(false);
+        }
+
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        records = count[0];
+    }
+
+    private void append(final byte type, final long time, final String userId, final String sessionId)
+            throws IOException {
+        append(channel, type, time, userId, sessionId);
+        records++;
+    }
+
+    private void append(final FileChannel target,
+                        final byte type,
+                        final long time,
+                        final String userId,
+                        final String sessionId) throws IOException {
+        final byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        final byte[] session = sessionId.getBytes(StandardCharsets.UTF_8);
+        if (user.length > 0xFFFF || session.length > 0xFFFF) {
+            Logger.warn("Session of user {} is too long to be saved", userId);
+            return;
+        }
+
+        final int size = 1 + 8 + 2 + user.length + 2 + session.length;
+        if (buffer.remaining() < size) {
+            drain(target);
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocate(size);
+            }
+        }
+        buffer.put(type).putLong(time)
+                .putShort((short) user.length).put(user)
+                .putShort((short) session.length).put(session);
+    }
+
+    private void drain(final FileChannel target) throws IOException {
+        buffer.flip();
+        write(target, buffer);
+        buffer.clear();
+    }
+
+    private static void write(final FileChannel target, final ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            target.write(source);
+        }
+    }
+
+    /**
+     * Stops the writer, saves the sessions with their last access and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            snapshot();
+            channel.force(false);
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+import akka.actor.ActorRef;
+import play.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A message bus inside the JVM, for a single node or load tests without a broker. A message is told to the actor of
+ * its routing key straight away: the mailbox of the actor is already a lock-free queue, so nothing is queued or
+ * copied in between and no lock is taken. A message to a routing key nobody registered is dropped, as the exchange
+ * of RabbitMQ would do.
+ */
+public class LocalMessageBus implements MessageBus {
+    private static final CompletableFuture<Void> DELIVERED = CompletableFuture.completedFuture(null);
+
+    private final ConcurrentHashMap<String, ActorRef> actors = new ConcurrentHashMap<>();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Override
+    public void register(final String routingKey, final ActorRef actor) {
+        actors.put(routingKey, actor);
+    }
+
+    @Override
+    public void unregister(final String routingKey, final ActorRef actor) {
+        actors.remove(routingKey, actor);
+    }
+
+    public int registered() {
+        return actors.size();
+    }
+
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the messages to routing keys which have no actor
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(final String routingKey, final String contentType, final byte[] body) {
+        final ActorRef actor = actors.get(routingKey);
+        if (actor == null) {
+            dropped.incrementAndGet();
+            Logger.debug("Message to {} dropped, no actor is registered for it", routingKey);
+        } else {
+            delivered.incrementAndGet();
+            actor.tell(new Delivery(routingKey, contentType, body), ActorRef.noSender());
+        }
+        return DELIVERED;
+    }
+
+    @Override
+    public void close() {
+        actors.clear();
+    }
+}
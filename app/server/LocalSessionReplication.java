@@ -0,0 +1,71 @@
+package server;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The replication of the sessions between nodes in the same JVM, for tests of several nodes without a broker. A
+ * message is given to every node of the {@link Hub}, the sender included, or to the node of its address, in the thread
+ * which sent it.
+ */
+public class LocalSessionReplication implements SessionReplication {
+
+    /**
+     * The nodes which see the messages of each other, the stand-in of the fanout exchange
+     */
+    public static class Hub {
+        private final CopyOnWriteArrayList<LocalSessionReplication> nodes = new CopyOnWriteArrayList<>();
+
+        public LocalSessionReplication join(final String address) {
+            return new LocalSessionReplication(this, address);
+        }
+
+        /**
+         * @return the nodes started and not closed
+         */
+        public int size() {
+            return nodes.size();
+        }
+    }
+
+    private final Hub hub;
+    private final String address;
+    private volatile Consumer<byte[]> receiver;
+
+    private LocalSessionReplication(final Hub hub, final String address) {
+        this.hub = hub;
+        this.address = address;
+    }
+
+    @Override
+    public String address() {
+        return address;
+    }
+
+    @Override
+    public void start(final Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        hub.nodes.addIfAbsent(this);
+    }
+
+    @Override
+    public void broadcast(final byte[] message) {
+        for (LocalSessionReplication node : hub.nodes) {
+            node.receiver.accept(message);
+        }
+    }
+
+    @Override
+    public void send(final String address, final byte[] message) {
+        for (LocalSessionReplication node : hub.nodes) {
+            if (node.address.equals(address)) {
+                node.receiver.accept(message);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        hub.nodes.remove(this);
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import akka.actor.ActorRef;
+import model.BinaryGameProtocol;
+import utils.ChannelPool;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * How the actors of the nodes talk to each other: a message is sent to a routing key (a user id, a game routing key or
+ * a bot user id) and told, as a {@link Delivery}, to the actor which registered that key. The actors do not know
+ * whether the bus is RabbitMQ ({@link AmqpMessageBus}) or the JVM itself ({@link LocalMessageBus}).
+ */
+public interface MessageBus extends AutoCloseable {
+    String TEXT_CONTENT_TYPE = ChannelPool.TEXT_CONTENT_TYPE;
+
+    /**
+     * A message of the bus for a registered actor. The body is not decoded, it is up to the actor.
+     */
+    class Delivery {
+        private final String routingKey;
+        private final String contentType;
+        private final byte[] body;
+        private final Runnable onProcessed;
+        private boolean processed = false;
+
+        public Delivery(final String routingKey, final String contentType, final byte[] body) {
+            this(routingKey, contentType, body, null);
+        }
+
+        /**
+         * @param onProcessed called when the actor takes the delivery, so the bus may send it more
+         */
+        public Delivery(final String routingKey,
+                        final String contentType,
+                        final byte[] body,
+                        @Nullable final Runnable onProcessed) {
+            this.routingKey = routingKey;
+            this.contentType = contentType;
+            this.body = body;
+            this.onProcessed = onProcessed;
+        }
+
+        public String getRoutingKey() {
+            return routingKey;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public boolean isBinary() {
+            return BinaryGameProtocol.isBinary(contentType);
+        }
+
+        /**
+         * Tells the bus the actor took the delivery out of its mailbox. Actors call it first thing when they receive a
+         * delivery; the bus holds back the next ones while too many are not processed.
+         */
+        public void processed() {
+            if (onProcessed != null && !processed) {
+                processed = true;
+                onProcessed.run();
+            }
+        }
+    }
+
+    /**
+     * Tells the messages to the routing key to the actor from now on. An actor which registers a key already taken
+     * replaces the previous one, e.g. a user who opened the game in another tab.
+     */
+    void register(String routingKey, ActorRef actor) throws IOException;
+
+    /**
+     * Stops telling the messages to the routing key to the actor, unless another actor took the key in between.
+     */
+    void unregister(String routingKey, ActorRef actor);
+
+    default CompletableFuture<Void> publish(final String routingKey, final String message) {
+        return publish(routingKey, TEXT_CONTENT_TYPE, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The body may be handed over to the receiver as it is, so it must not be changed afterwards.
+     *
+     * @return a future completed once the message is delivered or failed if it could not be sent
+     */
+    CompletableFuture<Void> publish(String routingKey, String contentType, byte[] body);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,467 @@
+package server;
+
+import akka.actor.ActorRef;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import play.Logger;
+
+import static model.MessageProtocols.GameProtocol.MQ_REQUEST_ROUTING_KEY_PREFIX;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The only RabbitMQ queue of the node. Actors which receive messages from RabbitMQ (socket handlers by user id, game
+ * actors by game routing key, bot players by bot user id) register their routing key: the queue is bound to it, and
+ * every delivery is told to the actor of its routing key as a {@link MessageBus.Delivery}. The broker then has one
+ * queue, one channel and one consumer per node instead of per connected user.
+ * <p>
+ * The broker sends at most a prefetch of unacknowledged deliveries, so a node which falls behind does not pile them
+ * up in memory. Deliveries are acknowledged together: one cumulative ack after a number of them, or after a short
+ * interval for the last ones.
+ * <p>
+ * Deliveries are only sent to the actors as fast as they take them: a delivery holds a credit from when it is told to
+ * its actor until the actor takes it out of its mailbox ({@link MessageBus.Delivery#processed()}). When the credits of
+ * the node run out, the consumer waits, so the prefetch fills up and the broker stops delivering until the actors catch
+ * up. A routing key may have a few deliveries in its mailbox only. Above them, the game requests ("request:" keys) are
+ * shed, so a burst of requests to a popular user does not grow its mailbox without bound. The other keys carry the
+ * frames of the games, which must not be lost: they wait on the node, in their order, and are told to the actor as it
+ * takes the previous ones. They still hold their credit, so a busy key does not stall the other keys until it holds
+ * all the credits of the node.
+ * <p>
+ * A routing key has one actor on a node. An actor which registers a key already taken replaces the previous one,
+ * e.g. a user who opened the game in another tab.
+ */
+public class NodeQueue implements AutoCloseable {
+    public static final int DEFAULT_PREFETCH = 256;
+    public static final int DEFAULT_ACK_BATCH_SIZE = 32;
+    public static final long DEFAULT_ACK_INTERVAL_MILLIS = 20;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_KEY = 32;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Connection connection;
+    private final String exchange;
+    private final String queueName;
+    private final Channel consumingChannel;
+    private final Channel bindingChannel;
+
+    private final ConcurrentHashMap<String, Subscriber> actors = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final Semaphore credits;
+    private final int maxInFlightPerKey;
+    private volatile boolean closed = false;
+
+    private final int ackBatchSize;
+    private final ScheduledExecutorService ackTimer;
+    /**
+     * The last delivery tag not acknowledged yet, and how many deliveries it acknowledges
+     */
+    private long ackTag;
+    private int unacked;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong acks = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong held = new AtomicLong();
+    private final AtomicLong paused = new AtomicLong();
+
+    public NodeQueue(final Connection connection, final String exchange) throws IOException {
+        this(connection, exchange, DEFAULT_PREFETCH, DEFAULT_ACK_BATCH_SIZE, DEFAULT_ACK_INTERVAL_MILLIS,
+                DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT_PER_KEY);
+    }
+
+    /**
+     * Declares the queue of the node and starts consuming it.
+     *
+     * @param prefetch          the most deliveries not acknowledged yet, 0 for no limit
+     * @param ackBatchSize      the deliveries acknowledged at once, at most the prefetch
+     * @param ackIntervalMillis how long a delivery may wait for its ack
+     * @param maxInFlight       the most deliveries in the mailboxes of the actors of the node
+     * @param maxInFlightPerKey the most deliveries in the mailbox of one actor
+     */
+    public NodeQueue(final Connection connection,
+                     final String exchange,
+                     final int prefetch,
+                     final int ackBatchSize,
+                     final long ackIntervalMillis,
+                     final int maxInFlight,
+                     final int maxInFlightPerKey) throws IOException {
+        if (prefetch < 0 || ackBatchSize < 1 || (prefetch > 0 && ackBatchSize > prefetch) || ackIntervalMillis < 1) {
+            throw new IllegalArgumentException("The ack batch size must be positive and not above the prefetch");
+        }
+        if (maxInFlightPerKey < 1 || maxInFlight < maxInFlightPerKey) {
+            throw new IllegalArgumentException("The deliveries in flight of a key must be positive and within the node");
+        }
+
+        this.credits = new Semaphore(maxInFlight);
+        this.maxInFlightPerKey = maxInFlightPerKey;
+
+        this.connection = connection;
+        this.exchange = exchange;
+        this.ackBatchSize = ackBatchSize;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        bindingChannel = connection.createChannel();
+        final boolean durable = false;
+        final boolean exclusive = true;
+        final boolean autoDelete = true;
+        queueName = bindingChannel
+                .queueDeclare("node-" + UUID.randomUUID(), durable, exclusive, autoDelete, null)
+                .getQueue();
+
+        consumingChannel = connection.createChannel();
+        consumingChannel.basicQos(prefetch);
+
+        ackTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "node-queue-acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ackTimer.scheduleWithFixedDelay(this::flushAcks, ackIntervalMillis, ackIntervalMillis, TimeUnit.MILLISECONDS);
+
+        final boolean autoAck = false;
+        consumingChannel.basicConsume(queueName, autoAck, new DefaultConsumer(consumingChannel) {
+            @Override
+            public void handleDelivery(final String consumerTag,
+                                       final Envelope envelope,
+                                       final AMQP.BasicProperties properties,
+                                       final byte[] body) throws IOException {
+                dispatch(envelope.getRoutingKey(), properties.getContentType(), body);
+                acknowledge(envelope.getDeliveryTag());
+            }
+        });
+        Logger.info("Node queue {} is consumed with a prefetch of {}", queueName, prefetch);
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    /**
+     * Binds the queue of the node to the routing key and sends its deliveries to the actor from now on.
+     */
+    public void register(final String routingKey, final ActorRef actor) throws IOException {
+        synchronized (lock(routingKey)) {
+            final Subscriber previous = actors.get(routingKey);
+            if (previous != null && previous.actor.equals(actor)) {
+                return;
+            }
+
+            final Subscriber subscriber = new Subscriber(actor);
+            actors.put(routingKey, subscriber);
+            if (previous != null) {
+                previous.close();
+                return;
+            }
+
+            try {
+                bind(routingKey);
+            } catch (final IOException e) {
+                actors.remove(routingKey, subscriber);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops sending the deliveries of the routing key to the actor, unless another actor took the key in between.
+     */
+    public void unregister(final String routingKey, final ActorRef actor) {
+        synchronized (lock(routingKey)) {
+            final Subscriber subscriber = actors.get(routingKey);
+            if (subscriber != null && subscriber.actor.equals(actor)) {
+                actors.remove(routingKey);
+                subscriber.close();
+                try {
+                    unbind(routingKey);
+                } catch (final IOException e) {
+                    Logger.warn("Routing key {} could not be unbound from {}: {}", routingKey, queueName, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the actor of the routing key on this node, or null
+     */
+    public ActorRef actorOf(final String routingKey) {
+        final Subscriber subscriber = actors.get(routingKey);
+        return subscriber == null ? null : subscriber.actor;
+    }
+
+    public int registered() {
+        return actors.size();
+    }
+
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the deliveries of routing keys which have no actor any more
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the game requests dropped because the actor of their routing key had too many in its mailbox
+     */
+    public long shed() {
+        return shed.get();
+    }
+
+    /**
+     * @return the frames which waited on the node because the actor of their routing key had too many in its mailbox
+     */
+    public long held() {
+        return held.get();
+    }
+
+    /**
+     * @return how many times the consumer waited for the actors of the node, so the broker stopped delivering
+     */
+    public long paused() {
+        return paused.get();
+    }
+
+    /**
+     * @return the deliveries told to the actors which they have not taken yet
+     */
+    public int inFlight() {
+        int inFlight = 0;
+        for (Subscriber subscriber : actors.values()) {
+            inFlight += subscriber.inFlight();
+        }
+        return inFlight;
+    }
+
+    /**
+     * @return the ack frames sent to the broker
+     */
+    public long acks() {
+        return acks.get();
+    }
+
+    /**
+     * Deletes the queue of the node with its bindings.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ackTimer.shutdown();
+        flushAcks();
+        actors.clear();
+        for (Channel channel : new Channel[]{consumingChannel, bindingChannel}) {
+            if (channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (final IOException e) {
+                    // Do Nothing
+                }
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Implementation details
+    // ==========================================================================
+    /**
+     * The actor of a routing key, its deliveries in flight and the frames waiting for them. Every one of them holds a
+     * credit of the node.
+     */
+    private class Subscriber {
+        private final ActorRef actor;
+        private final ArrayDeque<MessageBus.Delivery> waiting = new ArrayDeque<>();
+        private int inFlight = 0;
+        private boolean closed = false;
+
+        private Subscriber(final ActorRef actor) {
+            this.actor = actor;
+        }
+
+        private synchronized int inFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return false if the actor has too many deliveries in its mailbox or is not registered any more
+         */
+        private synchronized boolean take() {
+            if (closed || inFlight >= maxInFlightPerKey) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * Runs on the thread of the consumer. Tells the frame to the actor, or keeps it until the actor has room in its
+         * mailbox.
+         *
+         * @return false if the actor is not registered any more
+         */
+        private synchronized boolean offer(final MessageBus.Delivery delivery) {
+            if (closed) {
+                return false;
+            }
+            if (inFlight < maxInFlightPerKey) {
+                inFlight++;
+                deliver(this, delivery);
+            } else {
+                waiting.add(delivery);
+                held.incrementAndGet();
+                Logger.debug("Delivery to {} held, its actor has {} deliveries to process",
+                        delivery.getRoutingKey(), maxInFlightPerKey);
+            }
+            return true;
+        }
+
+        /**
+         * Runs on the thread of the actor. The next frame waiting takes the place of the delivery in the mailbox.
+         */
+        private synchronized void processed() {
+            if (!closed && inFlight > 0) {
+                credits.release();
+                final MessageBus.Delivery next = waiting.poll();
+                if (next != null) {
+                    deliver(this, next);
+                } else {
+                    inFlight--;
+                }
+            }
+        }
+
+        /**
+         * The deliveries left in the mailbox of an actor which is gone are never processed, so they give their credit
+         * back now, like the frames which waited for them and are dropped.
+         */
+        private synchronized void close() {
+            if (!closed) {
+                closed = true;
+                credits.release(inFlight + waiting.size());
+                dropped.addAndGet(waiting.size());
+                waiting.clear();
+                inFlight = 0;
+            }
+        }
+    }
+
+    /**
+     * Runs on the thread of the consumer. While the node has no credit left, the consumer does not return, so the
+     * client reads no more deliveries and the broker stops at the prefetch.
+     */
+    private boolean acquireCredit(final String routingKey) {
+        if (credits.tryAcquire()) {
+            return true;
+        }
+
+        paused.incrementAndGet();
+        Logger.warn("Node queue {} waits for its actors, the delivery to {} is held", queueName, routingKey);
+        try {
+            while (!closed) {
+                if (credits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private Object lock(final String routingKey) {
+        return locks[(routingKey.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    /**
+     * The binding channel is shared by all the registering actors; its RPCs are serialized by the client.
+     */
+    private void bind(final String routingKey) throws IOException {
+        bindingChannel.queueBind(queueName, exchange, routingKey);
+    }
+
+    private void unbind(final String routingKey) throws IOException {
+        bindingChannel.queueUnbind(queueName, exchange, routingKey);
+    }
+
+    /**
+     * Runs on the thread of the consumer. The deliveries of a channel come in the order of their tags, so acknowledging
+     * the last one acknowledges them all.
+     */
+    private synchronized void acknowledge(final long deliveryTag) {
+        ackTag = deliveryTag;
+        if (++unacked >= ackBatchSize) {
+            flushAcks();
+        }
+    }
+
+    /**
+     * Runs on the thread of the consumer or of the timer
+     */
+    private synchronized void flushAcks() {
+        if (unacked == 0) {
+            return;
+        }
+
+        try {
+            final boolean multiple = true;
+            consumingChannel.basicAck(ackTag, multiple);
+            acks.incrementAndGet();
+        } catch (final IOException | ShutdownSignalException e) {
+            // The channel is closed: the broker requeues its deliveries, there is nothing left to acknowledge
+            Logger.warn("Deliveries of {} up to {} could not be acknowledged: {}", queueName, ackTag, e.getMessage());
+        }
+        unacked = 0;
+    }
+
+    /**
+     * Runs on the thread of the consumer
+     */
+    void dispatch(final String routingKey, final String contentType, final byte[] body) {
+        final Subscriber subscriber = actors.get(routingKey);
+        if (subscriber == null) {
+            dropped.incrementAndGet();
+            Logger.debug("Delivery to {} dropped, no actor is registered for it", routingKey);
+        } else if (!acquireCredit(routingKey)) {
+            dropped.incrementAndGet();
+        } else if (!routingKey.startsWith(MQ_REQUEST_ROUTING_KEY_PREFIX)) {
+            if (!subscriber.offer(new MessageBus.Delivery(routingKey, contentType, body, subscriber::processed))) {
+                credits.release();
+                dropped.incrementAndGet();
+            }
+        } else if (!subscriber.take()) {
+            credits.release();
+            shed.incrementAndGet();
+            Logger.debug("Request to {} shed, its actor has {} deliveries to process", routingKey, maxInFlightPerKey);
+        } else {
+            deliver(subscriber, new MessageBus.Delivery(routingKey, contentType, body, subscriber::processed));
+        }
+    }
+
+    private void deliver(final Subscriber subscriber, final MessageBus.Delivery delivery) {
+        delivered.incrementAndGet();
+        subscriber.actor.tell(delivery, ActorRef.noSender());
+    }
+}
@@ -0,0 +1,249 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The frames of one socket waiting for its client. The socket actor of Play accepts every frame at once, so a client
+ * which stops reading would pile them up in the memory of the node. Instead a client which acknowledges the frames it
+ * received ("##ack=n" or an ACK frame) is written at most a window of frames without an acknowledgement; the next ones
+ * wait here, up to a capacity. The window only applies from the first acknowledgement of the client: a client which
+ * never sends one, e.g. one written before the acknowledgements, is written every frame at once.
+ * <p>
+ * When the queue is full, the {@link Overflow} policy decides: either the stale frames (board states, deltas and turns,
+ * which a full state replaces) are dropped and the handler asks the game for the whole state again, or the socket is
+ * closed.
+ * <p>
+ * A queue is not thread safe, it is owned by the socket handler. The {@link Factory} is shared by the node and keeps
+ * the counters of all the queues.
+ */
+public class OutboundQueue {
+    public static final int DEFAULT_WINDOW = 32;
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public enum Overflow {
+        DROP_STALE, DISCONNECT;
+
+        /**
+         * @param name "drop-stale" or "disconnect"
+         */
+        public static Overflow of(final String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * What the handler does with a frame it offered
+     */
+    public enum Action {
+        /**
+         * Write the frame to the socket now
+         */
+        SEND,
+        /**
+         * Nothing, the frame is written once the client acknowledged enough frames
+         */
+        QUEUED,
+        /**
+         * The stale frames have been dropped, ask the game for the whole state
+         */
+        RESYNC,
+        /**
+         * The client does not keep up, close the socket
+         */
+        DISCONNECT
+    }
+
+    /**
+     * The limits of the queues of a node and their counters
+     */
+    public static class Factory {
+        private final int window;
+        private final int capacity;
+        private final Overflow overflow;
+
+        private final LongAdder queued = new LongAdder();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong resyncs = new AtomicLong();
+        private final AtomicLong disconnects = new AtomicLong();
+
+        public Factory() {
+            this(DEFAULT_WINDOW, DEFAULT_CAPACITY, Overflow.DROP_STALE);
+        }
+
+        /**
+         * @param window   the frames written to a socket which are not acknowledged yet, at most
+         * @param capacity the frames waiting for a socket, at most
+         */
+        public Factory(final int window, final int capacity, final Overflow overflow) {
+            if (window < 1 || capacity < 1) {
+                throw new IllegalArgumentException("Window and capacity must be positive");
+            }
+            this.window = window;
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
+        public OutboundQueue newQueue() {
+            return new OutboundQueue(this);
+        }
+
+        public Metrics metrics() {
+            return new Metrics(queued.sum(), maxDepth.get(), dropped.get(), resyncs.get(), disconnects.get());
+        }
+    }
+
+    public static class Metrics {
+        private final long queued;
+        private final int maxDepth;
+        private final long dropped;
+        private final long resyncs;
+        private final long disconnects;
+
+        public Metrics(final long queued,
+                       final int maxDepth,
+                       final long dropped,
+                       final long resyncs,
+                       final long disconnects) {
+            this.queued = queued;
+            this.maxDepth = maxDepth;
+            this.dropped = dropped;
+            this.resyncs = resyncs;
+            this.disconnects = disconnects;
+        }
+
+        /**
+         * @return the frames waiting in all the queues of the node
+         */
+        public long getQueued() {
+            return queued;
+        }
+
+        /**
+         * @return the deepest a queue has been
+         */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * @return the stale frames which have never been written
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getResyncs() {
+            return resyncs;
+        }
+
+        public long getDisconnects() {
+            return disconnects;
+        }
+    }
+
+    private static class Entry {
+        private final Object frame;
+        private final boolean stale;
+
+        private Entry(final Object frame, final boolean stale) {
+            this.frame = frame;
+            this.stale = stale;
+        }
+    }
+
+    private final Factory factory;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long sent;
+    private long acknowledged;
+    private boolean acknowledging = false;
+
+    private OutboundQueue(final Factory factory) {
+        this.factory = factory;
+    }
+
+    public int depth() {
+        return entries.size();
+    }
+
+    /**
+     * @return the frames written which the client did not acknowledge yet
+     */
+    public long unacknowledged() {
+        return sent - acknowledged;
+    }
+
+    /**
+     * @param stale whether a later state of the game makes the frame useless
+     */
+    public Action offer(final Object frame, final boolean stale) {
+        if (!acknowledging || (entries.isEmpty() && sent - acknowledged < factory.window)) {
+            sent++;
+            return Action.SEND;
+        }
+
+        if (entries.size() < factory.capacity) {
+            add(frame, stale);
+            return Action.QUEUED;
+        }
+
+        final int full = entries.size();
+        if (factory.overflow == Overflow.DROP_STALE && entries.removeIf(entry -> entry.stale)) {
+            final int removed = full - entries.size();
+            factory.queued.add(-removed);
+            factory.dropped.addAndGet(removed);
+            factory.resyncs.incrementAndGet();
+            if (stale) {
+                // The whole state asked for replaces it too
+                factory.dropped.incrementAndGet();
+            } else {
+                add(frame, false);
+            }
+            return Action.RESYNC;
+        }
+
+        factory.disconnects.incrementAndGet();
+        return Action.DISCONNECT;
+    }
+
+    private void add(final Object frame, final boolean stale) {
+        entries.add(new Entry(frame, stale));
+        factory.queued.increment();
+        final int depth = entries.size();
+        factory.maxDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    /**
+     * The first acknowledgement opts the client in to the window.
+     *
+     * @param received the number of frames the client received since the socket opened
+     */
+    public void acknowledge(final long received) {
+        acknowledging = true;
+        acknowledged = Math.max(acknowledged, Math.min(received, sent));
+    }
+
+    /**
+     * @return the next frame to write now that the client acknowledged some, or null
+     */
+    public Object poll() {
+        if (entries.isEmpty() || sent - acknowledged >= factory.window) {
+            return null;
+        }
+
+        sent++;
+        factory.queued.decrement();
+        return entries.poll().frame;
+    }
+
+    /**
+     * Forgets the frames of a closed socket.
+     */
+    public void clear() {
+        factory.queued.add(-entries.size());
+        entries.clear();
+    }
+}
@@ -0,0 +1,353 @@
+package server;
+
+import model.ActiveSession;
+import play.Logger;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The sessions shared by the nodes of the cluster, so a request is served by any node whichever node created the
+ * session. Every node keeps all the sessions in its local store, which serves the reads in memory; the sessions it
+ * puts and removes are written to the local store first and then sent to the other nodes through the
+ * {@link SessionReplication}, which apply them to their own store.
+ * <p>
+ * A node which starts asks the others for their sessions (SYNC); every node answers with all the sessions it holds
+ * and their last access (STATE), sent to the address of that node only, so the other nodes do not read the answers of
+ * each other. A copy is only kept if its user has no session on the node yet, so
+ * an answer arriving after a login on the new node does not bring the older session back.
+ * <p>
+ * The reads are served locally and the sessions read on a node are sent to the others every touch interval with the
+ * time of the read (TOUCH), so a session used on one node only does not expire on the others.
+ * <p>
+ * A message is a type byte, the node which sent it, the node it is addressed to (empty for every node), the number of
+ * sessions, then the user id, the session id and the time of each, every string a short length and its UTF-8 bytes.
+ * <p>
+ * The replication is asynchronous: the other nodes know a session a few milliseconds after it is put. A user who logs
+ * in on two nodes within that time may keep a different session on each, until the next login.
+ */
+public class ReplicatedSessionStore implements SessionStore, AutoCloseable {
+    public static final long DEFAULT_TOUCH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte SYNC = 3;
+    static final byte STATE = 4;
+    static final byte TOUCH = 5;
+
+    /**
+     * The sessions in one STATE or TOUCH message, at most
+     */
+    static final int STATE_BATCH = 256;
+
+    /**
+     * A session as sent to the other nodes, with the time it was put or last read
+     */
+    static class Entry {
+        final String userId;
+        final String sessionId;
+        final long time;
+
+        Entry(final String userId, final String sessionId, final long time) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.time = time;
+        }
+    }
+
+    private final SessionStore local;
+    private final SessionReplication replication;
+    private final String node;
+    private final LongSupplier clock;
+
+    /**
+     * The sessions read on this node since the last TOUCH, by user
+     */
+    private final Map<String, Entry> reads = new ConcurrentHashMap<>();
+    @Nullable
+    private final ScheduledExecutorService toucher;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ReplicatedSessionStore(final SessionStore local, final SessionReplication replication) throws IOException {
+        this(local, replication, DEFAULT_TOUCH_INTERVAL_MILLIS, System::currentTimeMillis);
+    }
+
+    /**
+     * Starts receiving the changes of the other nodes, and asks them for their sessions. The node is known to the
+     * others by the address of its replication.
+     *
+     * @param touchIntervalMillis how often the sessions read on this node are sent to the others, 0 to send them only
+     *                            when {@link #publishReads} is called
+     */
+    public ReplicatedSessionStore(final SessionStore local,
+                                  final SessionReplication replication,
+                                  final long touchIntervalMillis,
+                                  final LongSupplier clock) throws IOException {
+        this.local = local;
+        this.replication = replication;
+        this.node = replication.address();
+        this.clock = clock;
+
+        replication.start(this::receive);
+        send(SYNC, "", Collections.<Entry>emptyList());
+
+        if (touchIntervalMillis > 0) {
+            toucher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "session-replication");
+                thread.setDaemon(true);
+                return thread;
+            });
+            toucher.scheduleWithFixedDelay(this::publishReads,
+                    touchIntervalMillis, touchIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            toucher = null;
+        }
+    }
+
+    // ==========================================================================
+    // Store
+    // ==========================================================================
+    @Override
+    public void put(final ActiveSession session) {
+        local.put(session);
+        send(PUT, "", Collections.singletonList(entry(session, clock.getAsLong())));
+    }
+
+    /**
+     * The session read is sent to the other nodes with the next TOUCH.
+     */
+    @Nullable
+    @Override
+    public ActiveSession get(final String userId) {
+        final ActiveSession session = local.get(userId);
+        if (session != null) {
+            reads.put(userId, entry(session, clock.getAsLong()));
+        }
+        return session;
+    }
+
+    @Override
+    public boolean remove(final ActiveSession session) {
+        if (!local.remove(session)) {
+            return false;
+        }
+        reads.remove(session.getUserId());
+        send(REMOVE, "", Collections.singletonList(entry(session, clock.getAsLong())));
+        return true;
+    }
+
+    /**
+     * Only applied to this node, the other nodes keep their copies.
+     */
+    @Override
+    public boolean putIfAbsent(final ActiveSession session, final long accessed) {
+        return local.putIfAbsent(session, accessed);
+    }
+
+    /**
+     * Only applied to this node, the other nodes learn it with the next TOUCH if it is a read of this node.
+     */
+    @Override
+    public void touch(final ActiveSession session, final long accessed) {
+        local.touch(session, accessed);
+    }
+
+    @Override
+    public void forEach(final Visitor visitor) {
+        local.forEach(visitor);
+    }
+
+    /**
+     * Sends the sessions read on this node since the last call to the other nodes, which move their last access
+     * forward.
+     */
+    public void publishReads() {
+        final List<Entry> batch = new ArrayList<>(STATE_BATCH);
+        for (String userId : reads.keySet()) {
+            final Entry read = reads.remove(userId);
+            if (read == null) {
+                continue;
+            }
+            batch.add(read);
+            if (batch.size() == STATE_BATCH) {
+                send(TOUCH, "", batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(TOUCH, "", batch);
+        }
+    }
+
+    /**
+     * @return the messages sent to the other nodes
+     */
+    public long sent() {
+        return sent.get();
+    }
+
+    /**
+     * @return the messages of the other nodes applied to this one
+     */
+    public long received() {
+        return received.get();
+    }
+
+    /**
+     * @return the messages which could not be read
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Sends the last reads and stops receiving the changes of the other nodes. The local store is not closed.
+     */
+    @Override
+    public void close() {
+        if (toucher != null) {
+            toucher.shutdown();
+            try {
+                toucher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        publishReads();
+        replication.close();
+    }
+
+    // ==========================================================================
+    // Replication
+    // ==========================================================================
+    private void send(final byte type, final String target, final List<Entry> sessions) {
+        final byte[] message;
+        try {
+            message = encode(type, node, target, sessions);
+        } catch (final IllegalArgumentException e) {
+            Logger.warn("Sessions not sent to the other nodes: {}", e.getMessage());
+            return;
+        }
+        sent.incrementAndGet();
+        if (target.isEmpty()) {
+            replication.broadcast(message);
+        } else {
+            replication.send(target, message);
+        }
+    }
+
+    private void receive(final byte[] message) {
+        final ByteBuffer buffer = ByteBuffer.wrap(message);
+        try {
+            final byte type = buffer.get();
+            final String origin = readString(buffer);
+            final String target = readString(buffer);
+            if (origin.equals(node) || !(target.isEmpty() || target.equals(node))) {
+                return;
+            }
+
+            final int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final ActiveSession session = new ActiveSession(readString(buffer), readString(buffer));
+                final long time = buffer.getLong();
+                if (type == PUT) {
+                    local.put(session);
+                } else if (type == STATE) {
+                    local.putIfAbsent(session, time);
+                } else if (type == TOUCH) {
+                    local.touch(session, time);
+                } else if (type == REMOVE) {
+                    local.remove(session);
+                }
+            }
+
+            if (type == SYNC) {
+                answer(origin);
+            }
+            received.incrementAndGet();
+        } catch (final BufferUnderflowException e) {
+            dropped.incrementAndGet();
+            Logger.warn("A session message of {} bytes from another node is incomplete, it is dropped", message.length);
+        }
+    }
+
+    /**
+     * Sends the sessions of this node and their last access to the node which asked for them.
+     */
+    private void answer(final String origin) {
+        final List<Entry> batch = new ArrayList<>(STATE_BATCH);
+        local.forEach((userId, sessionId, accessed) -> {
+            batch.add(new Entry(userId, sessionId, accessed));
+            if (batch.size() == STATE_BATCH) {
+                send(STATE, origin, batch);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            send(STATE, origin, batch);
+        }
+    }
+
+    private static Entry entry(final ActiveSession session, final long time) {
+        return new Entry(session.getUserId(), session.getSessionId(), time);
+    }
+
+    static byte[] encode(final byte type, final String origin, final String target, final List<Entry> sessions) {
+        final byte[] from = bytes(origin);
+        final byte[] to = bytes(target);
+        final byte[][] ids = new byte[2 * sessions.size()][];
+        int size = 1 + 2 + from.length + 2 + to.length + 4;
+        for (int i = 0; i < sessions.size(); i++) {
+            ids[2 * i] = bytes(sessions.get(i).userId);
+            ids[2 * i + 1] = bytes(sessions.get(i).sessionId);
+            size += 2 + ids[2 * i].length + 2 + ids[2 * i + 1].length + 8;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(type);
+        putString(buffer, from);
+        putString(buffer, to);
+        buffer.putInt(sessions.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            putString(buffer, ids[2 * i]);
+            putString(buffer, ids[2 * i + 1]);
+            buffer.putLong(sessions.get(i).time);
+        }
+        return buffer.array();
+    }
+
+    private static void putString(final ByteBuffer buffer, final byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static byte[] bytes(final String string) {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("a string of " + bytes.length + " bytes is too long");
+        }
+        return bytes;
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
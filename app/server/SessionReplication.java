@@ -0,0 +1,35 @@
+package server;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Carries the changes of the sessions from a node to every node of the cluster, itself included, as a fanout exchange
+ * does, or to a single node by its address. The messages are opaque here, see {@link ReplicatedSessionStore}.
+ */
+public interface SessionReplication extends AutoCloseable {
+
+    /**
+     * @return the address of this node, unique in the cluster, to which {@link #send} delivers
+     */
+    String address();
+
+    /**
+     * Gives the messages of the nodes to the receiver from now on, in the order they arrive.
+     */
+    void start(Consumer<byte[]> receiver) throws IOException;
+
+    /**
+     * Sends the message to every node, without waiting. A message which cannot be sent is logged and lost.
+     */
+    void broadcast(byte[] message);
+
+    /**
+     * Sends the message to the node of the address only, without waiting. A message which cannot be sent is logged and
+     * lost.
+     */
+    void send(String address, byte[] message);
+
+    @Override
+    void close();
+}
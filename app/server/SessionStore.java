@@ -0,0 +1,65 @@
+package server;
+
+import model.ActiveSession;
+
+import javax.annotation.Nullable;
+
+/**
+ * The sessions of the users of the node, one per user. Every method is thread safe and returns at once, so the flows
+ * and the socket handlers read the sessions in their own thread instead of asking an actor.
+ */
+public interface SessionStore {
+    class UserNotFoundException extends RuntimeException {
+
+    }
+
+    /**
+     * Receives the sessions of a store, e.g. to save them or to send them to another node
+     */
+    interface Visitor {
+        void visit(String userId, String sessionId, long accessed);
+    }
+
+    /**
+     * Keeps the session, in place of the previous session of the user.
+     */
+    void put(ActiveSession session);
+
+    /**
+     * @return the session of the user, or null if the user has none or it expired
+     */
+    @Nullable
+    ActiveSession get(String userId);
+
+    /**
+     * Forgets the session, e.g. on logout, unless the user has a newer one.
+     *
+     * @return whether the session has been removed
+     */
+    boolean remove(ActiveSession session);
+
+    /**
+     * Keeps a session known elsewhere, e.g. by another node, with its last access, unless it expired or its user has a
+     * session already.
+     *
+     * @return whether the session has been kept
+     */
+    boolean putIfAbsent(ActiveSession session, long accessed);
+
+    /**
+     * Moves the last access of the session forward, if it is still the current session of its user.
+     */
+    void touch(ActiveSession session, long accessed);
+
+    /**
+     * Visits the sessions which have not expired. Sessions put meanwhile may or may not be visited.
+     */
+    void forEach(Visitor visitor);
+
+    /**
+     * @return whether the session is the current one of its user
+     */
+    default boolean contains(final ActiveSession session) {
+        return session.getUserId() != null && session.equals(get(session.getUserId()));
+    }
+}
@@ -0,0 +1,311 @@
+package server;
+
+import model.ActiveSession;
+import play.Logger;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Stateless sessions: the session id is "expiry.nonce.mac", the MAC (HMAC-SHA256 with the secret of the application)
+ * covering the user id, the expiry and the nonce. Any node with the same secret checks a session in the calling
+ * thread, in constant time, without asking the session store.
+ * <p>
+ * A logout adds the session to a revocation set, until the session would have expired anyway. The set is local to
+ * the node unless it is {@link #replicate replicated}: the revocations are then sent to every node (REVOKE), and a
+ * node which starts asks the others for theirs (SYNC), which they send to it only (STATE). A message is a type byte,
+ * the address of the node which sent it, the number of session ids, then each of them, a short length and its UTF-8
+ * bytes.
+ * <p>
+ * The listeners {@link #watch watching} a session, e.g. the socket it opened, are told when it is revoked on any node.
+ */
+public class SessionTokens implements AutoCloseable {
+    static final byte REVOKE = 1;
+    static final byte SYNC = 2;
+    static final byte STATE = 3;
+
+    /**
+     * The session ids in one STATE message, at most
+     */
+    static final int STATE_BATCH = 256;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * The revoked session ids and their expiry
+     */
+    private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<>();
+    /**
+     * The listeners of the sessions in use on this node, by session id
+     */
+    private final ConcurrentHashMap<String, Set<Runnable>> watchers = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile SessionReplication replication;
+
+    public SessionTokens(final String secret, final long ttlMillis) {
+        this(secret, ttlMillis, System::currentTimeMillis);
+    }
+
+    public SessionTokens(final String secret, final long ttlMillis, final LongSupplier clock) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                final Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        });
+    }
+
+    private byte[] sign(final String userId, final String payload) {
+        final Mac mac = macs.get();
+        mac.update(userId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A new session of the user, valid until the end of the time to live.
+     */
+    public ActiveSession issue(final String userId) {
+        final long expiry = clock.getAsLong() + ttlMillis;
+        final String payload = Long.toString(expiry, 36) + '.'
+                + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+        return new ActiveSession(userId, payload + '.' + ENCODER.encodeToString(sign(userId, payload)));
+    }
+
+    /**
+     * @return the expiry of a session id, or -1 if it is not one of these tokens
+     */
+    private static long expiry(final String sessionId) {
+        final int dot = sessionId.indexOf('.');
+        if (dot <= 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(sessionId.substring(0, dot), 36);
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return whether the session has been issued with the same secret, is not expired and has not been revoked
+     */
+    public boolean verify(final ActiveSession session) {
+        final String userId = session.getUserId();
+        final String sessionId = session.getSessionId();
+        if (userId == null || sessionId == null) {
+            return false;
+        }
+
+        final int last = sessionId.lastIndexOf('.');
+        final long expiry = expiry(sessionId);
+        if (last <= sessionId.indexOf('.') || expiry < clock.getAsLong() || revoked.containsKey(sessionId)) {
+            return false;
+        }
+
+        final byte[] mac;
+        try {
+            mac = DECODER.decode(sessionId.substring(last + 1));
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        return MessageDigest.isEqual(mac, sign(userId, sessionId.substring(0, last)));
+    }
+
+    /**
+     * Rejects a valid session from now on, on every node if the revocations are replicated, e.g. on logout. The
+     * expired sessions are forgotten at the same time.
+     */
+    public void revoke(final ActiveSession session) {
+        if (!verify(session)) {
+            return;
+        }
+
+        markRevoked(session.getSessionId());
+        final SessionReplication nodes = replication;
+        if (nodes != null) {
+            send(nodes, REVOKE, "", Collections.singletonList(session.getSessionId()));
+        }
+    }
+
+    private void markRevoked(final String sessionId) {
+        final long now = clock.getAsLong();
+        final long expiry = expiry(sessionId);
+        if (expiry < now) {
+            return;
+        }
+
+        revoked.values().removeIf(time -> time < now);
+        if (revoked.put(sessionId, expiry) == null) {
+            final Set<Runnable> listeners = watchers.get(sessionId);
+            if (listeners != null) {
+                listeners.forEach(Runnable::run);
+            }
+        }
+    }
+
+    /**
+     * Tells the listener when the session is revoked, on this node or another one, until {@link #unwatch} is called.
+     * The listener is called in the thread which revokes the session, it must not block.
+     */
+    public void watch(final String sessionId, final Runnable listener) {
+        watchers.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(listener);
+    }
+
+    public void unwatch(final String sessionId, final Runnable listener) {
+        watchers.computeIfPresent(sessionId, (id, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    /**
+     * @return the sessions watched on this node
+     */
+    public int watched() {
+        return watchers.size();
+    }
+
+    /**
+     * @return the sessions revoked which have not expired yet, at most
+     */
+    public int revoked() {
+        return revoked.size();
+    }
+
+    // ==========================================================================
+    // Replication
+    // ==========================================================================
+
+    /**
+     * Sends the revocations of this node to the other nodes from now on, applies theirs, and asks them for the
+     * sessions they revoked before.
+     */
+    public void replicate(final SessionReplication replication) throws IOException {
+        replication.start(message -> receive(replication, message));
+        this.replication = replication;
+        send(replication, SYNC, "", Collections.<String>emptyList());
+    }
+
+    /**
+     * Stops receiving the revocations of the other nodes. Those already received are kept.
+     */
+    @Override
+    public void close() {
+        final SessionReplication nodes = replication;
+        replication = null;
+        if (nodes != null) {
+            nodes.close();
+        }
+    }
+
+    private void send(final SessionReplication nodes,
+                      final byte type,
+                      final String target,
+                      final List<String> sessionIds) {
+        final byte[] origin = nodes.address().getBytes(StandardCharsets.UTF_8);
+        final List<byte[]> ids = new ArrayList<>(sessionIds.size());
+        int size = 1 + 2 + origin.length + 4;
+        for (String sessionId : sessionIds) {
+            final byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+            if (id.length > 0xFFFF) {
+                continue;
+            }
+            ids.add(id);
+            size += 2 + id.length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(type).putShort((short) origin.length).put(origin).putInt(ids.size());
+        for (byte[] id : ids) {
+            buffer.putShort((short) id.length).put(id);
+        }
+        if (target.isEmpty()) {
+            nodes.broadcast(buffer.array());
+        } else {
+            nodes.send(target, buffer.array());
+        }
+    }
+
+    private void receive(final SessionReplication nodes, final byte[] message) {
+        final ByteBuffer buffer = ByteBuffer.wrap(message);
+        try {
+            final byte type = buffer.get();
+            final String origin = readString(buffer);
+            if (origin.equals(nodes.address())) {
+                return;
+            }
+
+            final int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final String sessionId = readString(buffer);
+                if (type == REVOKE || type == STATE) {
+                    markRevoked(sessionId);
+                }
+            }
+
+            if (type == SYNC) {
+                answer(nodes, origin);
+            }
+        } catch (final BufferUnderflowException e) {
+            Logger.warn("A revocation message of {} bytes from another node is incomplete, it is dropped",
+                    message.length);
+        }
+    }
+
+    /**
+     * Sends the sessions revoked on this node which have not expired to the node which asked for them.
+     */
+    private void answer(final SessionReplication nodes, final String origin) {
+        final long now = clock.getAsLong();
+        final List<String> batch = new ArrayList<>(STATE_BATCH);
+        revoked.forEach((sessionId, expiry) -> {
+            if (expiry < now) {
+                return;
+            }
+            batch.add(sessionId);
+            if (batch.size() == STATE_BATCH) {
+                send(nodes, STATE, origin, batch);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            send(nodes, STATE, origin, batch);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
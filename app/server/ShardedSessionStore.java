@@ -0,0 +1,235 @@
+package server;
+
+import model.ActiveSession;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link SessionStore} in the memory of the node, split in shards by user id. Reads take no lock: a session is a
+ * lookup in the concurrent map of its shard. Sessions expire once they have not been read nor written for a while;
+ * an expired session is evicted when it is read, and each shard sweeps its expired sessions every
+ * {@link #SWEEP_INTERVAL} writes, so no thread is needed for the eviction.
+ */
+public class ShardedSessionStore implements SessionStore {
+    public static final int DEFAULT_SHARDS = 16;
+    public static final long DEFAULT_EXPIRE_AFTER_ACCESS_MILLIS = TimeUnit.HOURS.toMillis(12);
+    static final int SWEEP_INTERVAL = 1024;
+
+    /**
+     * Reads only move the access time of a session forward by at least this much, so the sessions read all the time
+     * are not written all the time.
+     */
+    private static final long ACCESS_GRANULARITY_MILLIS = 1000;
+
+    public static class Metrics {
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        public Metrics(final int size, final long hits, final long misses, final long evictions) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the sessions removed because they expired
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+    }
+
+    private static final class Entry {
+        private final String sessionId;
+        private volatile long accessed;
+
+        private Entry(final String sessionId, final long accessed) {
+            this.sessionId = sessionId;
+            this.accessed = accessed;
+        }
+    }
+
+    private static final class Shard {
+        private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+        private final AtomicInteger writes = new AtomicInteger();
+    }
+
+    private final Shard[] shards;
+    private final long expireAfterAccessMillis;
+    private final LongSupplier clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ShardedSessionStore() {
+        this(DEFAULT_SHARDS, DEFAULT_EXPIRE_AFTER_ACCESS_MILLIS);
+    }
+
+    public ShardedSessionStore(final int shards, final long expireAfterAccessMillis) {
+        this(shards, expireAfterAccessMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param shards rounded up to a power of two
+     */
+    public ShardedSessionStore(final int shards, final long expireAfterAccessMillis, final LongSupplier clock) {
+        final int size = Integer.highestOneBit(Math.max(1, shards - 1)) << 1;
+        this.shards = new Shard[shards <= 1 ? 1 : size];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.expireAfterAccessMillis = expireAfterAccessMillis;
+        this.clock = clock;
+    }
+
+    private Shard shard(final String userId) {
+        final int hash = userId.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    private boolean expired(final Entry entry, final long now) {
+        return now - entry.accessed > expireAfterAccessMillis;
+    }
+
+    @Override
+    public void put(final ActiveSession session) {
+        final Shard shard = shard(session.getUserId());
+        final long now = clock.getAsLong();
+        shard.entries.put(session.getUserId(), new Entry(session.getSessionId(), now));
+        if (shard.writes.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            sweep(shard, now);
+        }
+    }
+
+    /**
+     * Puts back a session saved earlier with its last access, unless it expired since.
+     *
+     * @return whether the session has been kept
+     */
+    public boolean restore(final ActiveSession session, final long accessed) {
+        if (clock.getAsLong() - accessed > expireAfterAccessMillis) {
+            return false;
+        }
+        shard(session.getUserId()).entries.put(session.getUserId(), new Entry(session.getSessionId(), accessed));
+        return true;
+    }
+
+    @Override
+    public boolean putIfAbsent(final ActiveSession session, final long accessed) {
+        final long now = clock.getAsLong();
+        if (now - accessed > expireAfterAccessMillis) {
+            return false;
+        }
+        final Entry entry = new Entry(session.getSessionId(), accessed);
+        return shard(session.getUserId()).entries.merge(session.getUserId(), entry,
+                (previous, next) -> expired(previous, now) ? next : previous) == entry;
+    }
+
+    @Override
+    public void touch(final ActiveSession session, final long accessed) {
+        shard(session.getUserId()).entries.computeIfPresent(session.getUserId(), (userId, entry) -> {
+            if (entry.sessionId.equals(session.getSessionId()) && entry.accessed < accessed) {
+                entry.accessed = accessed;
+            }
+            return entry;
+        });
+    }
+
+    @Override
+    public void forEach(final Visitor visitor) {
+        final long now = clock.getAsLong();
+        for (Shard shard : shards) {
+            shard.entries.forEach((userId, entry) -> {
+                if (!expired(entry, now)) {
+                    visitor.visit(userId, entry.sessionId, entry.accessed);
+                }
+            });
+        }
+    }
+
+    @Nullable
+    @Override
+    public ActiveSession get(final String userId) {
+        final Shard shard = shard(userId);
+        final Entry entry = shard.entries.get(userId);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        final long now = clock.getAsLong();
+        if (expired(entry, now)) {
+            if (shard.entries.remove(userId, entry)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+
+        if (now - entry.accessed >= ACCESS_GRANULARITY_MILLIS) {
+            entry.accessed = now;
+        }
+        hits.increment();
+        return new ActiveSession(userId, entry.sessionId);
+    }
+
+    @Override
+    public boolean remove(final ActiveSession session) {
+        final Shard shard = shard(session.getUserId());
+        final Entry entry = shard.entries.get(session.getUserId());
+        return entry != null && entry.sessionId.equals(session.getSessionId())
+                && shard.entries.remove(session.getUserId(), entry);
+    }
+
+    private void sweep(final Shard shard, final long now) {
+        shard.entries.forEach((userId, entry) -> {
+            if (expired(entry, now) && shard.entries.remove(userId, entry)) {
+                evictions.increment();
+            }
+        });
+    }
+
+    /**
+     * Evicts all the expired sessions now.
+     */
+    public void cleanUp() {
+        final long now = clock.getAsLong();
+        for (Shard shard : shards) {
+            sweep(shard, now);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.entries.size();
+        }
+        return size;
+    }
+
+    public Metrics metrics() {
+        return new Metrics(size(), hits.sum(), misses.sum(), evictions.sum());
+    }
+}
@@ -0,0 +1,249 @@
+package server.actors;
+
+import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.japi.Procedure;
+import model.BinaryGameProtocol;
+import model.Board;
+import model.GameMessageView;
+import model.Geometry;
+import scala.concurrent.duration.FiniteDuration;
+import server.MessageBus;
+import server.bot.BotEngine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static model.MessageProtocols.GameProtocol.*;
+
+/**
+ * Plays one game against a user. For the user's {@link SocketHandler} it looks exactly like another player: it has
+ * its own routing key (a bot user id unique to the game), accepts the request over RabbitMQ, sends its moves to the
+ * {@link GameActor} and follows the game from the deltas it pushes. The moves are chosen by the shared
+ * {@link BotEngine}; the actor itself never blocks while the engine searches.
+ */
+public class BotPlayer extends UntypedActor {
+    private final static FiniteDuration GAME_START_TIMEOUT = new FiniteDuration(15, TimeUnit.SECONDS);
+    private final static FiniteDuration GAME_MOVEMENT_TIMEOUT = new FiniteDuration(5, TimeUnit.MINUTES);
+
+    private static final AtomicLong NEXT_GAME = new AtomicLong();
+
+    public static Props props(final MessageBus bus,
+                              final BotEngine engine,
+                              final String opponentUserId) {
+        final String botUserId = String.format("%s:%d", BotEngine.BOT_USER_ID, NEXT_GAME.incrementAndGet());
+        return Props.create(BotPlayer.class, bus, engine, botUserId, opponentUserId);
+    }
+
+    /**
+     * The move chosen by the engine, as an absolute pit index.
+     */
+    static class BotMove {
+        private final int pitIndex;
+
+        BotMove(final int pitIndex) {
+            this.pitIndex = pitIndex;
+        }
+    }
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final MessageBus bus;
+    private final BotEngine engine;
+    private final String botUserId;
+    private final String opponentUserId;
+
+    private final long gameId = GameActor.newGameId();
+    private Board board;
+    private int[] pits;
+    private final GameMessageView view = new GameMessageView();
+    private int player;
+    private boolean finished = false;
+
+    public BotPlayer(final MessageBus bus,
+                     final BotEngine engine,
+                     final String botUserId,
+                     final String opponentUserId) {
+        this.bus = bus;
+        this.engine = engine;
+        this.botUserId = botUserId;
+        this.opponentUserId = opponentUserId;
+    }
+
+    // ==========================================================================
+    // Implementation details
+    // ==========================================================================
+    private void pushToMQ(final String message, final String routingKey) {
+        bus.publish(routingKey, message).exceptionally(failure -> {
+            log.error(failure, "Message of bot {} could not be published to {}", botUserId, routingKey);
+            return null;
+        });
+    }
+
+    /**
+     * The game actor decides who starts the same way: the user with the smaller id is the first player.
+     */
+    private void startGame() {
+        board = new Board(Geometry.DEFAULT);
+        pits = new int[board.size()];
+        board.copyTo(pits);
+        player = botUserId.compareTo(opponentUserId) < 0 ? 0 : 1;
+    }
+
+    private void think() {
+        engine.bestMove(new Board(board), player).whenComplete((pitIndex, failure) -> {
+            if (failure != null) {
+                log.error(failure, "Bot {} could not choose a move", botUserId);
+                self().tell(new BotMove(-1), self());
+            } else {
+                self().tell(new BotMove(pitIndex), self());
+            }
+        });
+    }
+
+    private void handleBotMove(final BotMove move) {
+        if (move.pitIndex < 0) {
+            getContext().stop(self());
+            return;
+        }
+
+        final int firstPit = player * (board.getGeometry().getPitsPerPlayer() + 1);
+        pushToMQ(buildMoveMessage(botUserId, move.pitIndex - firstPit + 1), buildGameRoutingKey(gameId));
+    }
+
+    private void handleFlags(final int flags) {
+        if ((flags & GAME_DELTA_END) != 0) {
+            log.debug("Bot game {} against {} ended", botUserId, opponentUserId);
+            finished = true;
+            getContext().stop(self());
+        } else if ((flags & GAME_DELTA_TURN) != 0) {
+            think();
+        }
+    }
+
+    private void handleGameFrame(final GameMessageView frame) {
+        switch (frame.kind()) {
+            case STATE:
+                if (frame.stateInto(pits) == pits.length) {
+                    board.load(pits);
+                }
+                break;
+            case DELTA:
+                if (frame.deltaInto(pits) != -1) {
+                    board.load(pits);
+                }
+                handleFlags((int) frame.number());
+                break;
+            case TURN:
+                think();
+                break;
+            case END:
+                log.debug("Bot game {} against {} ended", botUserId, opponentUserId);
+                finished = true;
+                getContext().stop(self());
+                break;
+            case REJECT:
+                finished = true;
+                getContext().stop(self());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handleBinaryFrame(final byte[] frame) {
+        switch (BinaryGameProtocol.opcode(frame)) {
+            case BinaryGameProtocol.STATE:
+                if (BinaryGameProtocol.decodeState(frame, pits) == pits.length) {
+                    board.load(pits);
+                }
+                break;
+            case BinaryGameProtocol.DELTA:
+                if (BinaryGameProtocol.decodeDelta(frame, pits) != -1) {
+                    board.load(pits);
+                    handleFlags(BinaryGameProtocol.decodeDeltaFlags(frame));
+                }
+                break;
+            case BinaryGameProtocol.TURN:
+                think();
+                break;
+            case BinaryGameProtocol.END:
+            case BinaryGameProtocol.REJECT:
+                finished = true;
+                getContext().stop(self());
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ==========================================================================
+    // Receive partial functions for different states of the actor
+    // ==========================================================================
+    private Procedure<Object> gaming = message -> {
+        if (message instanceof BotMove) {
+            handleBotMove((BotMove) message);
+        } else if (message instanceof MessageBus.Delivery) {
+            final MessageBus.Delivery delivery = (MessageBus.Delivery) message;
+            delivery.processed();
+            if (delivery.isBinary()) {
+                handleBinaryFrame(delivery.getBody());
+            } else {
+                handleGameFrame(view.decode(delivery.getBody()));
+            }
+        } else if (message instanceof ReceiveTimeout) {
+            getContext().stop(self());
+        }
+    };
+
+    private Procedure<Object> waitForGameStart = message -> {
+        if (message instanceof MessageBus.Delivery) {
+            ((MessageBus.Delivery) message).processed();
+        }
+
+        if (message instanceof MessageBus.Delivery
+                && !((MessageBus.Delivery) message).isBinary()
+                && view.decode(((MessageBus.Delivery) message).getBody()).kind() == GameMessageView.Kind.START
+                && view.number() == gameId) {
+            startGame();
+            getContext().setReceiveTimeout(GAME_MOVEMENT_TIMEOUT);
+            getContext().become(gaming);
+        } else if (message instanceof ReceiveTimeout) {
+            getContext().stop(self());
+        }
+    };
+
+    @Override
+    public void onReceive(final Object message) throws Exception {
+        unhandled(message);
+    }
+
+    // ==========================================================================
+    // Actor hooks
+    // ==========================================================================
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+
+        bus.register(botUserId, self());
+        log.debug("Bot {} accepts the game request of {}", botUserId, opponentUserId);
+        pushToMQ(buildAcceptMessage(botUserId, gameId), opponentUserId);
+
+        getContext().setReceiveTimeout(GAME_START_TIMEOUT);
+        getContext().become(waitForGameStart);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        super.postStop();
+
+        if (!finished) {
+            pushToMQ(buildRejectMessage(botUserId), buildGameRoutingKey(gameId));
+        }
+
+        bus.unregister(botUserId, self());
+    }
+}
@@ -5,39 +5,45 @@ import akka.actor.Status;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.japi.Procedure;
-import akka.japi.Util;
 import model.ActiveSession;
 import model.MessageProtocols;
 import model.Principal;
 import model.User;
 import play.libs.F;
 import play.libs.ws.WSClient;
-import scala.concurrent.Future;
+import server.SessionStore;
+import server.SessionTokens;
 import server.TokenVerifier;
 
+import javax.annotation.Nullable;
+
 import java.util.UUID;
 
-import static akka.pattern.Patterns.ask;
 import static utils.ExceptionUtils.withCause;
 
 /**
- * This short-living flow is responsible for creating users and their sessions. So upon receive a principal,
+ * This flow is responsible for creating users and their sessions. So upon receive a principal,
  * first its validate its token with the corresponding token verifier. If it is fine, it persists the user and also
  * adds it session in a in-memory bucket.
+ * <p>
+ * A worker of the pool of the {@link Dispatcher}: it handles every principal it receives, several at once since the
+ * verification of a token is asynchronous, and is never stopped.
  */
 public class CreateSessionFlow extends UntypedActor {
     final WSClient client;
-    final ActorRef sessionStore;
-    final int stepTimeout;
+    final SessionStore sessionStore;
+    final SessionTokens sessionTokens;
 
 
+    /**
+     * @param sessionTokens issues signed sessions instead of caching them in the session store, if not null
+     */
     public CreateSessionFlow(final WSClient client,
-                             final ActorRef sessionStore,
-                             final int stepTimeout) {
+                             final SessionStore sessionStore,
+                             @Nullable final SessionTokens sessionTokens) {
         this.client = client;
         this.sessionStore = sessionStore;
-        this.stepTimeout = stepTimeout;
+        this.sessionTokens = sessionTokens;
     }
 
 
@@ -46,15 +52,10 @@ public class CreateSessionFlow extends UntypedActor {
     @Override
     public void onReceive(final Object message) throws Exception {
         if (message instanceof Principal) {
-            getContext().become(processing);
             handlePrincipal((Principal) message, getSender());
         }
     }
 
-    private Procedure<Object> processing = object -> {
-        //while the actor processes the first principal messages, it does not respond to any other message.
-    };
-
     //TODO: e-bean is blocking. It would be ideal to use non-blocking persistence layer.
     protected User persistUser(final Principal principal) {
         try {
@@ -83,8 +84,7 @@ public class CreateSessionFlow extends UntypedActor {
 
     /**
      * Validates the oauth token, stores the user and creates a new session for the user. If everything is
-     * successful, it replies the sender with an {@link ActiveSession} instance. It stops the actor after it
-     * finishes its task regardless of success or failure.
+     * successful, it replies the sender with an {@link ActiveSession} instance, otherwise a failure.
      *
      * @param principal the user principal.
      * @param responder the responder actor to which the responses should be sent.
@@ -101,25 +101,18 @@ public class CreateSessionFlow extends UntypedActor {
                     log.debug("Provided OAuth token for user {} was not valid!", principal.buildUsername());
                     throw new MessageProtocols.Exceptions.InvalidTokenException();
                 })
-                .flatMap(user -> {
-                    final String sessionId = UUID.randomUUID().toString();
-                    final SessionInMemoryStore.CacheSession cacheSessionCommand = new SessionInMemoryStore.CacheSession(
-                            new ActiveSession(user.getUserId(), sessionId)
-                    );
-
-                    Future<ActiveSession> activeSessionFuture =
-                            ask(sessionStore, cacheSessionCommand, stepTimeout).mapTo(Util.classTag(ActiveSession.class));
-                    return F.Promise.wrap(activeSessionFuture);
+                .map(user -> {
+                    if (sessionTokens != null) {
+                        return sessionTokens.issue(user.getUserId());
+                    }
+
+                    final ActiveSession session = new ActiveSession(user.getUserId(), UUID.randomUUID().toString());
+                    sessionStore.put(session);
+                    return session;
                 });
 
-        sessionPromise.onFailure(throwable -> {
-            responder.tell(new Status.Failure(throwable), self());
-            getContext().stop(self());
-        });
+        sessionPromise.onFailure(throwable -> responder.tell(new Status.Failure(throwable), self()));
 
-        sessionPromise.onRedeem(activeSession -> {
-            responder.tell(activeSession, self());
-            getContext().stop(self());
-        });
+        sessionPromise.onRedeem(activeSession -> responder.tell(activeSession, self()));
     }
 }
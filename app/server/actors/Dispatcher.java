@@ -6,7 +6,7 @@ import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.japi.Util;
-import com.rabbitmq.client.Connection;
+import akka.routing.RoundRobinPool;
 import controllers.Application;
 import model.ActiveSession;
 import model.MessageProtocols;
@@ -14,8 +14,12 @@ import model.SearchResult;
 import play.libs.F;
 import play.libs.Json;
 import play.libs.ws.WSClient;
+import server.MessageBus;
+import server.SessionStore;
+import server.SessionTokens;
+import server.bot.BotEngine;
 
-import java.util.UUID;
+import javax.annotation.Nullable;
 
 import static akka.pattern.Patterns.ask;
 import static play.mvc.Results.Status;
@@ -24,43 +28,79 @@ import static play.mvc.Results.ok;
 import static play.mvc.Results.unauthorized;
 
 /**
- * The singleton actor which acts as the parent of all the short living actors.
+ * The singleton actor which dispatches the HTTP requests to the flows. Every kind of flow is a pool of workers, created
+ * once with the dispatcher and reused by all the requests: a request costs a message, not a new actor.
  */
 public class Dispatcher extends UntypedActor {
+    public static final int DEFAULT_SESSION_FLOWS = 8;
+    public static final int DEFAULT_SEARCH_FLOWS = 4;
+    public static final int DEFAULT_GAME_REQUEST_FLOWS = 4;
+
     private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
     final WSClient client;
-    final Connection mqConnection;
-    final ActorRef sessionStore;
-    final int stepTimeout;
+    final MessageBus bus;
+    final SessionStore sessionStore;
+    final BotEngine botEngine;
+    final SessionTokens sessionTokens;
     final int flowTimeout;
+    final int sessionFlows;
+    final int searchFlows;
+    final int gameRequestFlows;
+
+    private ActorRef createSessionFlow;
+    private ActorRef searchFlow;
+    private ActorRef gameRequestFlow;
 
     public Dispatcher(final WSClient client,
-                      final Connection mqConnection,
-                      final ActorRef sessionStore,
-                      final int stepTimeout,
+                      final MessageBus bus,
+                      final SessionStore sessionStore,
+                      final BotEngine botEngine,
                       final int flowTimeout) {
+        this(client, bus, sessionStore, botEngine, null, flowTimeout,
+                DEFAULT_SESSION_FLOWS, DEFAULT_SEARCH_FLOWS, DEFAULT_GAME_REQUEST_FLOWS);
+    }
+
+    /**
+     * @param sessionTokens    the signed sessions checked in place of the session store, or null to use the store
+     * @param sessionFlows     the workers of the session creation, each of them verifies several tokens at once
+     * @param searchFlows      the workers of the search
+     * @param gameRequestFlows the workers publishing the game requests
+     */
+    public Dispatcher(final WSClient client,
+                      final MessageBus bus,
+                      final SessionStore sessionStore,
+                      final BotEngine botEngine,
+                      @Nullable final SessionTokens sessionTokens,
+                      final int flowTimeout,
+                      final int sessionFlows,
+                      final int searchFlows,
+                      final int gameRequestFlows) {
         this.client = client;
-        this.mqConnection = mqConnection;
+        this.bus = bus;
         this.sessionStore = sessionStore;
-        this.stepTimeout = stepTimeout;
+        this.botEngine = botEngine;
+        this.sessionTokens = sessionTokens;
         this.flowTimeout = flowTimeout;
+        this.sessionFlows = sessionFlows;
+        this.searchFlows = searchFlows;
+        this.gameRequestFlows = gameRequestFlows;
     }
 
     // ==========================================================================
     // Helper functions to dispatch the request to the short living actor
     // ==========================================================================
+    /**
+     * The session is checked right here, by its signature or in the session store.
+     */
     private F.Promise<ActiveSession> authenticate(final ActiveSession session) {
-        return F.Promise.wrap(
-                ask(sessionStore, new SessionInMemoryStore.LoadSession(session.getUserId()), stepTimeout)
-                        .mapTo(Util.classTag(ActiveSession.class)));
+        final boolean valid = sessionTokens != null ? sessionTokens.verify(session) : sessionStore.contains(session);
+        return valid ? F.Promise.pure(session) : F.Promise.throwing(new SessionStore.UserNotFoundException());
     }
 
     private void handleCreateSession(final MessageProtocols.CreateSession createSession, final ActorRef responder) {
         log.debug("Creating session for user {} is being dispatched", createSession.getPrincipal().buildUsername());
 
-        final ActorRef createSessionFlow = createSessionFlowActor();
-
         F.Promise<ActiveSession> sessionPromise = F.Promise.wrap(
                 ask(createSessionFlow, createSession.getPrincipal(), flowTimeout)
                         .mapTo(Util.classTag(ActiveSession.class)));
@@ -85,8 +125,6 @@ public class Dispatcher extends UntypedActor {
     private void handleSearch(final MessageProtocols.Search search, final ActorRef responder) {
         log.debug("Search for user {} is being dispatched", search.getSession().getUserId());
 
-        final ActorRef searchFlow = createSearchFlowActor();
-
         F.Promise<SearchResult> searchPromise = authenticate(search.getSession())
                 .flatMap(activeSession -> F.Promise.wrap(
                         ask(searchFlow, search, flowTimeout)
@@ -94,7 +132,7 @@ public class Dispatcher extends UntypedActor {
 
         searchPromise.onFailure(throwable -> {
             final Status result;
-            if (throwable instanceof SessionInMemoryStore.UserNotFoundException) {
+            if (throwable instanceof SessionStore.UserNotFoundException) {
                 result = unauthorized("Provided token is not valid!", Application.DEFAULT_CHARSET);
             } else {
                 result = internalServerError("Unknown failure", Application.DEFAULT_CHARSET);
@@ -109,12 +147,11 @@ public class Dispatcher extends UntypedActor {
         log.debug("GameRequest from user {} to play with user {} is being dispatched",
                 gameRequest.getRequester().getUserId(), gameRequest.getTarget());
 
-        final ActorRef gameRequestFlow = createGameRequestFlowActor();
         F.Promise<ActiveSession> activeSessionPromise = authenticate(gameRequest.getRequester());
 
         activeSessionPromise.onFailure(throwable -> {
             final Status result;
-            if (throwable instanceof SessionInMemoryStore.UserNotFoundException) {
+            if (throwable instanceof SessionStore.UserNotFoundException) {
                 result = unauthorized("Provided token is not valid!", Application.DEFAULT_CHARSET);
             } else {
                 result = internalServerError("Unknown failure", Application.DEFAULT_CHARSET);
@@ -129,6 +166,17 @@ public class Dispatcher extends UntypedActor {
         });
     }
 
+    // ==========================================================================
+    // Actor hooks
+    // ==========================================================================
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+        createSessionFlow = createSessionFlowActor();
+        searchFlow = createSearchFlowActor();
+        gameRequestFlow = createGameRequestFlowActor();
+    }
+
     @Override
     public void onReceive(final Object message) throws Exception {
         if (message instanceof MessageProtocols.CreateSession) {
@@ -141,23 +189,24 @@ public class Dispatcher extends UntypedActor {
     }
 
     // ==========================================================================
-    // Factory methods to create the short living actors
+    // Factory methods to create the pools of flows, once per dispatcher
     // ==========================================================================
     protected ActorRef createSessionFlowActor() {
         return getContext().actorOf(
-                Props.create(CreateSessionFlow.class, client, sessionStore, stepTimeout),
-                String.format("create-session-flow-%s", UUID.randomUUID()));
+                new RoundRobinPool(sessionFlows).props(
+                        Props.create(CreateSessionFlow.class, client, sessionStore, sessionTokens)),
+                "create-session-flow");
     }
 
     protected ActorRef createSearchFlowActor() {
         return getContext().actorOf(
-                Props.create(SearchFlow.class),
-                String.format("search-flow-%s", UUID.randomUUID()));
+                new RoundRobinPool(searchFlows).props(Props.create(SearchFlow.class)),
+                "search-flow");
     }
 
     protected ActorRef createGameRequestFlowActor() {
         return getContext().actorOf(
-                Props.create(GameRequestFlow.class, mqConnection),
-                String.format("game-request-%s", UUID.randomUUID()));
+                new RoundRobinPool(gameRequestFlows).props(Props.create(GameRequestFlow.class, bus, botEngine)),
+                "game-request-flow");
     }
 }
@@ -0,0 +1,439 @@
+package server.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Terminated;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import model.BinaryGameProtocol;
+import model.Game;
+import model.GameMessageView;
+import scala.concurrent.duration.FiniteDuration;
+import server.MessageBus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static model.MessageProtocols.GameProtocol.*;
+
+/**
+ * Owns the only {@link Game} of a game between two players. It is started by the {@link SocketHandler} of the player
+ * who requested the game (the host) when the opponent (the guest) accepts, on the node of the host.
+ * <p>
+ * The players only send their moves; the game actor applies them and pushes a single delta to each of them: the pits
+ * which changed, whether it is their turn and whether the game ended. A player which lost track of the board asks for
+ * a sync and gets a delta of every pit. The host is told directly, the guest through RabbitMQ. The actor registers its
+ * own routing key, derived from the game id, on the {@link MessageBus}, so the guest can send moves from any node.
+ * <p>
+ * Moves are accepted in both the string and the binary protocol. Frames are published to the guest in the binary
+ * protocol if the node is configured so.
+ */
+public class GameActor extends UntypedActor {
+    private final static FiniteDuration GAME_MOVEMENT_TIMEOUT = new FiniteDuration(5, TimeUnit.MINUTES);
+
+    public static Props props(final MessageBus bus,
+                              final long gameId,
+                              final String hostUserId,
+                              final ActorRef host,
+                              final String guestUserId) {
+        return props(bus, gameId, hostUserId, host, guestUserId, false);
+    }
+
+    /**
+     * @param binaryMQ whether frames are published to the guest in the binary protocol
+     */
+    public static Props props(final MessageBus bus,
+                              final long gameId,
+                              final String hostUserId,
+                              final ActorRef host,
+                              final String guestUserId,
+                              final boolean binaryMQ) {
+        return Props.create(GameActor.class, bus, gameId, hostUserId, host, guestUserId, binaryMQ);
+    }
+
+    /**
+     * Game ids are chosen by the accepter without any coordination between the nodes, so they are random.
+     */
+    public static long newGameId() {
+        return ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+    }
+
+    /**
+     * A message pushed to a player, to be forwarded to its socket, in the string or the binary protocol.
+     */
+    public static class Frame {
+        public static final Frame TURN = new Frame(buildGameTurnMessage(true));
+        public static final Frame NOT_TURN = new Frame(buildGameTurnMessage(false));
+        public static final Frame END = new Frame(buildGameEndMessage());
+
+        private final String message;
+        private final byte[] binary;
+
+        public Frame(final String message) {
+            this.message = message;
+            this.binary = null;
+        }
+
+        public Frame(final byte[] binary) {
+            this.message = null;
+            this.binary = binary;
+        }
+
+        /**
+         * @return the message in the string protocol, converted if it has been received in the binary one.
+         */
+        public String getMessage() {
+            return message != null ? message : BinaryGameProtocol.toText(binary);
+        }
+
+        /**
+         * @return the message in the binary protocol, or null if it has been received in the string one.
+         */
+        public byte[] getBinary() {
+            return binary;
+        }
+
+        public boolean isRejected() {
+            return message != null
+                    ? isGameRejectedMessage(message)
+                    : BinaryGameProtocol.opcode(binary) == BinaryGameProtocol.REJECT;
+        }
+
+        /**
+         * @return true for the states, the deltas and the turns, which the whole state of the game replaces; the last
+         * delta is not, nothing comes after it
+         */
+        public boolean isStale() {
+            if (message != null) {
+                return message.startsWith(GAME_STATE_PREFIX) || message.equals(TURN.message)
+                        || message.equals(NOT_TURN.message) || (fetchGameDeltaFlags(message) & ~GAME_DELTA_TURN) == 0;
+            }
+            final byte opcode = BinaryGameProtocol.opcode(binary);
+            return opcode == BinaryGameProtocol.STATE || opcode == BinaryGameProtocol.TURN
+                    || opcode == BinaryGameProtocol.NOT_TURN
+                    || (opcode == BinaryGameProtocol.DELTA
+                    && (BinaryGameProtocol.decodeDeltaFlags(binary) & GAME_DELTA_END) == 0);
+        }
+
+        /**
+         * @return true for the end message and for a delta of the last move
+         */
+        public boolean isEnd() {
+            if (message != null) {
+                final int flags = fetchGameDeltaFlags(message);
+                return GAME_END_MESSAGE.equals(message) || (flags != -1 && (flags & GAME_DELTA_END) > 0);
+            }
+            final byte opcode = BinaryGameProtocol.opcode(binary);
+            return opcode == BinaryGameProtocol.END
+                    || (opcode == BinaryGameProtocol.DELTA
+                    && BinaryGameProtocol.decodeDeltaFlags(binary) != -1
+                    && (BinaryGameProtocol.decodeDeltaFlags(binary) & GAME_DELTA_END) > 0);
+        }
+    }
+
+    /**
+     * A move of a player, the pit being between 1 and the number of pits per player.
+     */
+    public static class Move {
+        private final String userId;
+        private final int pitIndex;
+
+        public Move(final String userId, final int pitIndex) {
+            this.userId = userId;
+            this.pitIndex = pitIndex;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public int getPitIndex() {
+            return pitIndex;
+        }
+    }
+
+    /**
+     * A player asking for the whole state of the game
+     */
+    public static class Sync {
+        private final String userId;
+
+        public Sync(final String userId) {
+            this.userId = userId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final MessageBus bus;
+    private final long gameId;
+    private final String hostUserId;
+    private final ActorRef host;
+    private final String guestUserId;
+    private final boolean binaryMQ;
+
+    /**
+     * User ids and, for the host, the actor of the absolute players (see {@link model.Board}).
+     */
+    private final String[] players = new String[2];
+    private final ActorRef[] localPlayers = new ActorRef[2];
+    private final byte[][] playerIds = new byte[2][];
+
+    private final byte[] buffer = new byte[BinaryGameProtocol.maxSize(256)];
+    private long sequence;
+
+    private Game game;
+    /**
+     * The state the players have been told about, to find the pits a move changed
+     */
+    private int[] pushedState;
+    private final GameMessageView view = new GameMessageView();
+    private boolean finished = false;
+
+    public GameActor(final MessageBus bus,
+                     final long gameId,
+                     final String hostUserId,
+                     final ActorRef host,
+                     final String guestUserId,
+                     final boolean binaryMQ) {
+        this.bus = bus;
+        this.gameId = gameId;
+        this.hostUserId = hostUserId;
+        this.host = host;
+        this.guestUserId = guestUserId;
+        this.binaryMQ = binaryMQ;
+    }
+
+    // ==========================================================================
+    // Implementation details
+    // ==========================================================================
+    private void handleDelivery(final MessageBus.Delivery delivery) {
+        delivery.processed();
+        if (delivery.isBinary()) {
+            handleBinaryDelivery(delivery.getBody());
+        } else {
+            handleTextDelivery(view.decode(delivery.getBody()));
+        }
+    }
+
+    /**
+     * The player is found without decoding its user id.
+     */
+    private void handleBinaryDelivery(final byte[] body) {
+        final byte opcode = BinaryGameProtocol.opcode(body);
+        if (opcode != BinaryGameProtocol.MOVE
+                && opcode != BinaryGameProtocol.REJECT
+                && opcode != BinaryGameProtocol.SYNC) {
+            return;
+        }
+
+        final int player = BinaryGameProtocol.decodePlayer(body, playerIds);
+        if (player == -1) {
+            log.debug("Binary message of an unknown player discarded in game {}", gameId);
+        } else if (opcode == BinaryGameProtocol.MOVE) {
+            handleMove(new Move(players[player], BinaryGameProtocol.decodeMovePit(body)));
+        } else if (opcode == BinaryGameProtocol.SYNC) {
+            handleSync(new Sync(players[player]));
+        } else {
+            handleLeave(players[player]);
+        }
+    }
+
+    /**
+     * The user id is compared in place, so no string is created.
+     */
+    private void handleTextDelivery(final GameMessageView message) {
+        final int player = message.userIdEquals(players[0]) ? 0 : message.userIdEquals(players[1]) ? 1 : -1;
+        if (player == -1) {
+            log.debug("Message of kind {} of an unknown player discarded in game {}", message.kind(), gameId);
+        } else if (message.kind() == GameMessageView.Kind.MOVE && message.number() != -1) {
+            handleMove(new Move(players[player], (int) Math.min(message.number(), Integer.MAX_VALUE)));
+        } else if (message.kind() == GameMessageView.Kind.SYNC) {
+            handleSync(new Sync(players[player]));
+        } else if (message.kind() == GameMessageView.Kind.REJECT) {
+            handleLeave(players[player]);
+        }
+    }
+
+    /**
+     * Messages to the same routing key are told in order to a local guest, and go through the same lane of the pool to
+     * a remote one, so the guest receives the start and the frames in order.
+     */
+    private void pushToMQ(final String message, final String routingKey) {
+        bus.publish(routingKey, message).exceptionally(failure -> logFailure(failure, routingKey));
+    }
+
+    private void pushBinary(final int length, final String routingKey) {
+        bus.publish(routingKey, BinaryGameProtocol.CONTENT_TYPE, Arrays.copyOf(buffer, length))
+                .exceptionally(failure -> logFailure(failure, routingKey));
+    }
+
+    /**
+     * Runs on the thread of the publisher, when the broker did not confirm a message.
+     */
+    private Void logFailure(final Throwable failure, final String routingKey) {
+        log.error(failure, "Message of game {} could not be published to {}", gameId, routingKey);
+        return null;
+    }
+
+    private void push(final int player, final String message) {
+        if (localPlayers[player] != null) {
+            localPlayers[player].tell(new Frame(message), self());
+        } else {
+            final int length = binaryMQ && message.length() < 256
+                    ? BinaryGameProtocol.encodeFrame(buffer, sequence + 1, message)
+                    : -1;
+            if (length < 0) {
+                pushToMQ(message, players[player]);
+            } else {
+                sequence++;
+                pushBinary(length, players[player]);
+            }
+        }
+    }
+
+    /**
+     * Pushes the pits which changed since the previous state, together with the turn of the player and the end of the
+     * game, as a single frame. A binary guest gets it encoded straight from the game.
+     *
+     * @param previous the state the player knows, or null to push every pit
+     */
+    private void pushDelta(final int player, final int[] previous, final boolean isEnded) {
+        final boolean turn = !isEnded && game.playerToMove() == player;
+        if (localPlayers[player] == null && binaryMQ) {
+            pushBinary(BinaryGameProtocol.encodeDelta(buffer, ++sequence, previous, game, turn, isEnded),
+                    players[player]);
+        } else {
+            push(player, buildGameDeltaMessage(previous, game, turn, isEnded));
+        }
+    }
+
+    private void pushTurns() {
+        final int toMove = game.playerToMove();
+        push(0, buildGameTurnMessage(toMove == 0));
+        push(1, buildGameTurnMessage(toMove == 1));
+    }
+
+    private int playerOf(final String userId) {
+        if (players[0].equals(userId)) {
+            return 0;
+        }
+        return players[1].equals(userId) ? 1 : -1;
+    }
+
+    private void handleMove(final Move move) {
+        final int player = playerOf(move.getUserId());
+        final int pits = game.getGeometry().getPitsPerPlayer();
+        if (player == -1 || player != game.playerToMove() || move.getPitIndex() < 1 || move.getPitIndex() > pits) {
+            log.debug("Move {} of {} ignored in game {}", move.getPitIndex(), move.getUserId(), gameId);
+            return;
+        }
+
+        final boolean isEnded = game.move(player * (pits + 1) + move.getPitIndex() - 1);
+
+        pushDelta(0, pushedState, isEnded);
+        pushDelta(1, pushedState, isEnded);
+        for (int i = 0; i < pushedState.length; i++) {
+            pushedState[i] = game.stonesAt(i);
+        }
+
+        if (isEnded) {
+            finished = true;
+            getContext().stop(self());
+        }
+    }
+
+    private void handleSync(final Sync sync) {
+        final int player = playerOf(sync.getUserId());
+        if (player != -1) {
+            pushDelta(player, null, false);
+        }
+    }
+
+    /**
+     * Tells the other player that the user left and stops the game.
+     */
+    private void handleLeave(final String userId) {
+        final int player = playerOf(userId);
+        if (player == -1 || finished) {
+            return;
+        }
+
+        log.debug("User {} left game {}", userId, gameId);
+        push(1 - player, buildRejectMessage(userId));
+        finished = true;
+        getContext().stop(self());
+    }
+
+    @Override
+    public void onReceive(final Object message) throws Exception {
+        if (message instanceof MessageBus.Delivery) {
+            handleDelivery((MessageBus.Delivery) message);
+        } else if (message instanceof Move) {
+            handleMove((Move) message);
+        } else if (message instanceof Sync) {
+            handleSync((Sync) message);
+        } else if (message instanceof String && isGameRejectedMessage((String) message)) {
+            handleLeave(fetchRejector((String) message));
+        } else if (message instanceof Terminated) {
+            handleLeave(hostUserId);
+        } else if (message instanceof ReceiveTimeout) {
+            log.debug("Game {} timed out", gameId);
+            push(0, buildRejectMessage(players[1]));
+            push(1, buildRejectMessage(players[0]));
+            finished = true;
+            getContext().stop(self());
+        } else {
+            unhandled(message);
+        }
+    }
+
+    // ==========================================================================
+    // Actor hooks
+    // ==========================================================================
+    @Override
+    public void preStart() throws Exception {
+        super.preStart();
+
+        // The first player is the user with the smaller id, and it starts
+        final boolean hostFirst = hostUserId.compareTo(guestUserId) < 0;
+        final int hostPlayer = hostFirst ? 0 : 1;
+        players[hostPlayer] = hostUserId;
+        players[1 - hostPlayer] = guestUserId;
+        localPlayers[hostPlayer] = host;
+        playerIds[0] = players[0].getBytes(StandardCharsets.UTF_8);
+        playerIds[1] = players[1].getBytes(StandardCharsets.UTF_8);
+        game = new Game(gameId, true, 0);
+        pushedState = game.getState();
+
+        bus.register(buildGameRoutingKey(gameId), self());
+        getContext().watch(host);
+
+        // The start goes through the same channel as the frames, so the guest is playing before the first one arrives
+        pushToMQ(buildStartMessage(hostUserId, gameId), guestUserId);
+        log.debug("Game {} between {} and {} started", gameId, hostUserId, guestUserId);
+
+        pushTurns();
+        getContext().setReceiveTimeout(GAME_MOVEMENT_TIMEOUT);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        super.postStop();
+
+        if (!finished && game != null) {
+            push(0, buildRejectMessage(players[1]));
+            push(1, buildRejectMessage(players[0]));
+        }
+
+        bus.unregister(buildGameRoutingKey(gameId), self());
+    }
+}
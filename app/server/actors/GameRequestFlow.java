@@ -3,35 +3,47 @@ package server.actors;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.japi.Procedure;
-import com.rabbitmq.client.AMQP;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import controllers.Application;
 import model.MessageProtocols;
-import utils.SafeChannel;
+import server.MessageBus;
+import server.bot.BotEngine;
 
-import static utils.SafeChannel.managed;
+import static model.MessageProtocols.GameProtocol.*;
 
+/**
+ * A worker of the pool of the {@link Dispatcher}: it publishes every game request it receives and is never stopped.
+ */
 public class GameRequestFlow extends UntypedActor {
     private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
-    final Connection connection;
+    final MessageBus bus;
+    final BotEngine botEngine;
 
-    public GameRequestFlow(final Connection connection) {
-        this.connection = connection;
+    public GameRequestFlow(final MessageBus bus, final BotEngine botEngine) {
+        this.bus = bus;
+        this.botEngine = botEngine;
+    }
+
+    /**
+     * Requests to the reserved bot user do not go through RabbitMQ to another user. A new bot player is started
+     * instead, which accepts the request itself.
+     */
+    private void handleBotGameRequest(final MessageProtocols.GameRequest gameRequest) {
+        final String requester = gameRequest.getRequester().getUserId();
+        log.debug("User {} requested a game against the bot.", requester);
+        getContext().system().actorOf(BotPlayer.props(bus, botEngine, requester));
     }
 
     private void handleGameRequest(final MessageProtocols.GameRequest gameRequest) {
-        managed(connection, Connection::createChannel, (SafeChannel.CheckedFunction<Channel, Void>) channel -> {
-            final String message = gameRequest.buildRequestMessage();
-            log.debug("Message {} published to MQ with routing key {}.", message, gameRequest.getTarget());
-            channel.basicPublish(Application.RabbitMQExchangeName,
-                    gameRequest.getTarget(),
-                    new AMQP.BasicProperties.Builder()
-                            .contentType("text/plain").deliveryMode(1)
-                            .build(),
-                    message.getBytes(Application.DEFAULT_CHARSET));
+        if (BotEngine.BOT_USER_ID.equals(gameRequest.getTarget())) {
+            handleBotGameRequest(gameRequest);
+            return;
+        }
+
+        final String message = gameRequest.buildRequestMessage();
+        final String routingKey = buildRequestRoutingKey(gameRequest.getTarget());
+        log.debug("Message {} published to MQ with routing key {}.", message, routingKey);
+        bus.publish(routingKey, message).exceptionally(failure -> {
+            log.error(failure, "Game request could not be published to {}", routingKey);
             return null;
         });
     }
@@ -39,12 +51,7 @@ public class GameRequestFlow extends UntypedActor {
     @Override
     public void onReceive(Object message) throws Exception {
         if (message instanceof MessageProtocols.GameRequest) {
-            getContext().become(processing);
             handleGameRequest((MessageProtocols.GameRequest) message);
         }
     }
-
-    private Procedure<Object> processing = object -> {
-        //while the actor processes the first game request, it does not respond to any other message.
-    };
 }
@@ -5,7 +5,6 @@ import akka.actor.Status;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.japi.Procedure;
 import model.MessageProtocols;
 import model.SearchResult;
 import model.User;
@@ -14,6 +13,10 @@ import play.libs.F;
 import java.util.List;
 import java.util.stream.Collectors;
 
+/**
+ * A worker of the pool of the {@link Dispatcher}: it handles every search it receives and is never stopped. The
+ * query runs on the default execution context, so the worker takes the next search at once.
+ */
 public class SearchFlow extends UntypedActor {
     private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
@@ -33,25 +36,18 @@ public class SearchFlow extends UntypedActor {
         searchPromise.onFailure(throwable -> {
             log.debug("Search failed due to:", throwable);
             responder.tell(new Status.Failure(throwable), self());
-            getContext().stop(self());
         });
 
         searchPromise.onRedeem(users -> {
             log.debug("Search succeeded for phrase {} and had {} matches.", search.getContent(), users.size());
             responder.tell(new SearchResult(users), self());
-            getContext().stop(self());
         });
     }
 
     @Override
     public void onReceive(final Object message) throws Exception {
         if (message instanceof MessageProtocols.Search) {
-            getContext().become(processing);
             handlerSearch((MessageProtocols.Search) message, getSender());
         }
     }
-
-    private Procedure<Object> processing = object -> {
-        //while the actor processes the first search, it does not respond to any other message.
-    };
 }
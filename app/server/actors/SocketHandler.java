@@ -8,59 +8,107 @@ import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.japi.Procedure;
-import com.rabbitmq.client.AMQP;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.DefaultConsumer;
-import com.rabbitmq.client.Envelope;
-import controllers.Application;
 import model.ActiveSession;
-import model.Game;
+import model.BinaryGameProtocol;
+import model.GameMessageView;
 import model.User;
 import scala.concurrent.duration.FiniteDuration;
+import server.MessageBus;
+import server.OutboundQueue;
+import server.SessionStore;
+import server.SessionTokens;
+import server.bot.BotEngine;
+
+import javax.annotation.Nullable;
 
 import java.io.IOException;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
-import static utils.SafeChannel.managed;
 import static model.MessageProtocols.GameProtocol.*;
 
 /**
  * This actor is the core coordinator of the game. Each user will have one instance of this actor running.
  * All the messages coming from the web socket channel will be delegated to this actor. Moreover this actor
  * is responsible to push messages to RabbitMQ and also subscribe to it.
+ * <p>
+ * The game itself is owned by a {@link GameActor}, started by the handler of the requester. Handlers only pass the
+ * moves of their user to it and forward the frames it pushes back to the socket.
+ * <p>
+ * The client chooses its protocol with the first socket message: the credentials as text for the string protocol, or
+ * a HELLO frame for the {@link BinaryGameProtocol}.
+ * <p>
+ * Frames reach the socket through an {@link OutboundQueue}: a client which acknowledges what it received and falls
+ * behind gets the whole state of the game instead of every delta, or is disconnected. A client which does not
+ * acknowledge is written every frame.
+ * <p>
+ * A signed session is watched while the socket is open: its revocation, on any node, closes the socket.
  */
 public class SocketHandler extends UntypedActor {
     private final static FiniteDuration GAME_START_TIMEOUT = new FiniteDuration(15, TimeUnit.SECONDS);
     private final static FiniteDuration GAME_MOVEMENT_TIMEOUT = new FiniteDuration(5, TimeUnit.MINUTES);
 
+    /**
+     * Sent to the handler when its signed session is revoked
+     */
+    private final static Object SESSION_REVOKED = "session-revoked";
+
+    /**
+     * @param sessionTokens  the signed sessions checked in place of the session store, or null to use the store
+     * @param outboundQueues the limits of the frames waiting for the client, shared by the node
+     * @param binaryMQ       whether moves and the frames of hosted games are published in the binary protocol
+     */
     public static Props props(final ActorRef out,
-                              final ActorRef sessionStore,
-                              final Connection connection) {
-        return Props.create(SocketHandler.class, out, sessionStore, connection);
+                              final SessionStore sessionStore,
+                              @Nullable final SessionTokens sessionTokens,
+                              final MessageBus bus,
+                              final OutboundQueue.Factory outboundQueues,
+                              final boolean binaryMQ) {
+        return Props.create(SocketHandler.class, out, sessionStore, sessionTokens, bus, outboundQueues, binaryMQ);
     }
 
     private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
     private final ActorRef out;
 
-    private final ActorRef sessionStore;
-    private final Connection connection;
+    private final SessionStore sessionStore;
+    private final SessionTokens sessionTokens;
+    private final MessageBus bus;
+    private final OutboundQueue outbound;
+    private final boolean binaryMQ;
 
-    private Channel consumingChannel;
     private ActiveSession session;
+    private String watchedSessionId;
+    private Runnable revocationListener;
+    private boolean subscribed = false;
     private String opponentUserId;
     private boolean playing = false;
-    private Game game;
+    /**
+     * The game accepted or played, and its actor if this handler hosts it.
+     */
+    private Long gameId;
+    private ActorRef gameActor;
+
+    private boolean binaryClient = false;
+    private long socketSequence;
+    private long mqSequence;
+    private byte[] buffer = new byte[BinaryGameProtocol.maxSize(64)];
+    private final GameMessageView view = new GameMessageView();
 
 
     public SocketHandler(final ActorRef out,
-                         final ActorRef sessionStore,
-                         final Connection connection) {
+                         final SessionStore sessionStore,
+                         @Nullable final SessionTokens sessionTokens,
+                         final MessageBus bus,
+                         final OutboundQueue.Factory outboundQueues,
+                         final boolean binaryMQ) {
         this.out = out;
         this.sessionStore = sessionStore;
-        this.connection = connection;
+        this.sessionTokens = sessionTokens;
+        this.bus = bus;
+        this.outbound = outboundQueues.newQueue();
+        this.binaryMQ = binaryMQ;
     }
 
     // ==========================================================================
@@ -87,104 +135,214 @@ public class SocketHandler extends UntypedActor {
     }
 
     /**
-     * A helper function to create the rabbitMQ queue name out of the session
-     *
-     * @param session user session
+     * Receives the messages of the bus to the user, and its game requests while it waits for one.
      */
-    private String createQueueName(final ActiveSession session) {
-        return String.format("%s-%s", session.getUserId().replace(":", "-"), UUID.randomUUID());
+    private void subscribe(final ActiveSession session) throws IOException {
+        bus.register(session.getUserId(), self());
+        subscribed = true;
+        bus.register(buildRequestRoutingKey(session.getUserId()), self());
+        log.debug("User {} has been registered to the message bus", session.getUserId());
+        getContext().become(waitForGameRequestOrAccept);
     }
 
     /**
-     * Subscribes to the created queue to consume events
-     *
-     * @param queueName the queue to subscribe to
+     * The game requests have their own routing key, bound only while the user can accept one. The requests to a user
+     * who plays or waits for the start of a game are dropped by the exchange instead of being delivered and discarded.
      */
-    private void consumeQueue(final String queueName) {
-        final boolean keepChannelOpen = true;
-        consumingChannel = managed(connection, Connection::createChannel, channel -> {
-            final boolean autoAck = false;
-
-            channel.basicConsume(queueName, autoAck, new DefaultConsumer(channel) {
-                @Override
-                public void handleDelivery(final String consumerTag,
-                                           final Envelope envelope,
-                                           final AMQP.BasicProperties properties,
-                                           final byte[] body) throws IOException {
-                    final String deliveredMessage = new String(body, Application.DEFAULT_CHARSET);
-                    log.debug("A message has been received from MQ: {}", deliveredMessage);
-
-                    long deliveryTag = envelope.getDeliveryTag();
-
-                    if (!playing
-                            || isGameInstructionMessage(deliveredMessage)
-                            || isGameRejectedMessage(deliveredMessage)) {
-                        self().tell(deliveredMessage, self());
-                    } else {
-                        log.debug("MQ message {} has been discarded for user {}, playing status: {}",
-                                deliveredMessage, session.getUserId(), playing);
-                    }
-
-                    channel.basicAck(deliveryTag, false);
-                }
-            });
-            return channel;
-        }, keepChannelOpen);
-        getContext().become(waitForGameRequestOrAccept);
+    private void acceptGameRequests(final boolean accept) {
+        final String routingKey = buildRequestRoutingKey(session.getUserId());
+        if (!accept) {
+            bus.unregister(routingKey, self());
+            return;
+        }
+
+        try {
+            bus.register(routingKey, self());
+        } catch (final IOException e) {
+            log.error(e, "User {} cannot receive game requests any more", session.getUserId());
+        }
     }
 
     /**
-     * Creates a rabbitMQ queue to receive the events
-     *
-     * @param session the active session
-     * @return the created queue name
+     * Turns a delivery of RabbitMQ into the message the behaviours handle: a frame of the game or, if the user does
+     * not play, the message as a string. Anything else is discarded; a string is only created for the messages which
+     * are kept. The acknowledgements of the client and the revocation of the session are handled here, whatever the
+     * state of the handler.
      */
-    private String createQueue(final ActiveSession session) {
-        return managed(connection, Connection::createChannel, channel -> {
-            final String queueName = createQueueName(session);
-            final boolean durable = false;
-            final boolean exclusive = false;
-            final boolean autoDelete = true;
+    private Object receive(final Object message) {
+        if (message == SESSION_REVOKED) {
+            log.debug("Session of user {} has been revoked, closing its socket", session.getUserId());
+            getContext().stop(self());
+            return null;
+        } else if (message instanceof String) {
+            final String text = (String) message;
+            if (text.startsWith(GAME_INSTRUCTION_PREFIX) && view.decode(text).kind() == GameMessageView.Kind.ACK) {
+                acknowledge(view.number());
+                return null;
+            }
+            return message;
+        } else if (message instanceof byte[]) {
+            final byte[] bytes = (byte[]) message;
+            if (BinaryGameProtocol.opcode(bytes) == BinaryGameProtocol.ACK) {
+                final long received = BinaryGameProtocol.decodeAck(bytes);
+                if (received >= 0) {
+                    acknowledge(received);
+                }
+                return null;
+            }
+            return message;
+        } else if (!(message instanceof MessageBus.Delivery)) {
+            return message;
+        }
+
+        final MessageBus.Delivery delivery = (MessageBus.Delivery) message;
+        delivery.processed();
+        final byte[] body = delivery.getBody();
+        if (delivery.isBinary()) {
+            final byte opcode = BinaryGameProtocol.opcode(body);
+            return opcode != BinaryGameProtocol.MOVE && opcode != BinaryGameProtocol.HELLO
+                    && opcode != BinaryGameProtocol.SYNC
+                    ? new GameActor.Frame(body)
+                    : null;
+        }
 
-            final String createdQueue = channel
-                    .queueDeclare(queueName, durable, exclusive, autoDelete, null)
-                    .getQueue();
+        switch (view.decode(body).kind()) {
+            case TURN:
+                return GameActor.Frame.TURN;
+            case NOT_TURN:
+                return GameActor.Frame.NOT_TURN;
+            case END:
+                return GameActor.Frame.END;
+            case STATE:
+            case DELTA:
+            case REJECT:
+                return new GameActor.Frame(new String(body, StandardCharsets.UTF_8));
+            default:
+                if (!playing) {
+                    return new String(body, StandardCharsets.UTF_8);
+                }
+                log.debug("MQ message of kind {} has been discarded for user {}, playing status: {}",
+                        view.kind(), session.getUserId(), playing);
+                return null;
+        }
+    }
 
-            log.debug("Queue {} has been created!", createdQueue);
+    private void pushToMQ(final String message, final String routingKey) {
+        if (session == null) {
+            return;
+        }
 
-            channel.queueBind(createdQueue, Application.RabbitMQExchangeName, session.getUserId());
+        bus.publish(routingKey, message).exceptionally(failure -> logFailure(failure, routingKey));
+    }
 
-            log.debug("Queue {} and exchange {} are bound with {}!",
-                    createdQueue, Application.RabbitMQExchangeName, session.getSessionId());
+    private void pushToMQ(final byte[] body, final String routingKey) {
+        bus.publish(routingKey, BinaryGameProtocol.CONTENT_TYPE, body)
+                .exceptionally(failure -> logFailure(failure, routingKey));
+    }
 
-            return createdQueue;
-        });
+    /**
+     * Runs on the thread of the publisher, when the broker did not confirm a message. Nothing is retried: a lost move
+     * leaves the player on its turn, and a lost reject is covered by the timeouts of the opponent.
+     */
+    private Void logFailure(final Throwable failure, final String routingKey) {
+        log.error(failure, "Message could not be published to {}", routingKey);
+        return null;
     }
 
-    private void pushToMQ(final String message, final String routingKey) {
-        managed(connection, Connection::createChannel, channel -> {
-            if (session != null) {
-                channel.basicPublish(Application.RabbitMQExchangeName,
-                        routingKey,
-                        new AMQP.BasicProperties.Builder()
-                                .contentType("text/plain").deliveryMode(1)
-                                .build(),
-                        message.getBytes(Application.DEFAULT_CHARSET));
-            }
-            return null;
-        });
+    private byte[] buffer(final int size) {
+        if (buffer.length < size) {
+            buffer = new byte[size];
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes the frame to the socket, or leaves it in the outbound queue until the client acknowledged enough frames.
+     *
+     * @param stale whether a later state of the game replaces the frame
+     */
+    private void write(final Object frame, final boolean stale) {
+        switch (outbound.offer(frame, stale)) {
+            case SEND:
+                out.tell(frame, self());
+                break;
+            case QUEUED:
+                break;
+            case RESYNC:
+                log.debug("User {} falls behind, stale frames dropped", session.getUserId());
+                handleSync();
+                break;
+            case DISCONNECT:
+                log.warning("User {} does not read its socket, {} frames are waiting", session.getUserId(),
+                        outbound.depth());
+                getContext().stop(self());
+                break;
+        }
+    }
+
+    /**
+     * Writes the frames which waited for the acknowledgement.
+     */
+    private void acknowledge(final long received) {
+        outbound.acknowledge(received);
+        Object frame;
+        while ((frame = outbound.poll()) != null) {
+            out.tell(frame, self());
+        }
     }
 
     private void pushToSocket(final String message) {
-        out.tell(message, self());
+        pushToSocket(message, false);
+    }
+
+    private void pushToSocket(final String message, final boolean stale) {
+        if (!binaryClient) {
+            write(message, stale);
+            return;
+        }
+
+        final int length = BinaryGameProtocol.encodeFrame(
+                buffer(BinaryGameProtocol.maxSize(message.length())), socketSequence + 1, message);
+        if (length < 0) {
+            log.debug("Message {} has no binary form, not sent to user {}", message, session.getUserId());
+        } else {
+            socketSequence++;
+            write(Arrays.copyOf(buffer, length), stale);
+        }
+    }
+
+    /**
+     * A binary frame goes to a binary client as it is, with the sequence number of the socket.
+     */
+    private void pushToSocket(final GameActor.Frame frame) {
+        final byte[] binary = frame.getBinary();
+        if (binary != null && binaryClient) {
+            final int length = BinaryGameProtocol.restamp(binary, binary.length,
+                    buffer(binary.length + BinaryGameProtocol.MAX_HEADER_SIZE), socketSequence + 1);
+            if (length == -1) {
+                log.warning("Invalid binary frame of {} bytes dropped", binary.length);
+                return;
+            }
+            socketSequence++;
+            write(Arrays.copyOf(buffer, length), frame.isStale());
+        } else {
+            final String message = frame.getMessage();
+            if (message == null) {
+                log.warning("Binary frame without a text form dropped");
+                return;
+            }
+            pushToSocket(message, frame.isStale());
+        }
     }
 
     private void waitForGameRequest() {
         log.debug("User {} changed the state to waiting for a game request!", session.getUserId());
         playing = false;
         opponentUserId = null;
-        game = null;
+        gameId = null;
+        gameActor = null;
 
+        acceptGameRequests(true);
         pushToSocket(buildSocketWaitingForRequestMessage());
 
         getContext().setReceiveTimeout(FiniteDuration.Undefined());
@@ -201,11 +359,20 @@ public class SocketHandler extends UntypedActor {
 
         log.debug("Active Session {} received as first message of socket connection", session);
 
-        if (session == null) {
-            self().tell(new Status.Failure(new SessionInMemoryStore.UserNotFoundException()), self());
+        if (session != null && sessionTokens != null) {
+            //Watched before it is verified, so a revocation in between is not missed
+            final ActorRef self = self();
+            watchedSessionId = session.getSessionId();
+            revocationListener = () -> self.tell(SESSION_REVOKED, ActorRef.noSender());
+            sessionTokens.watch(watchedSessionId, revocationListener);
+        }
+
+        if (session == null
+                || !(sessionTokens != null ? sessionTokens.verify(session) : sessionStore.contains(session))) {
+            self().tell(new Status.Failure(new SessionStore.UserNotFoundException()), self());
         } else {
             this.session = session;
-            sessionStore.tell(new SessionInMemoryStore.LoadSession(session.getUserId()), self());
+            self().tell(session, self());
         }
     }
 
@@ -214,9 +381,11 @@ public class SocketHandler extends UntypedActor {
      *
      * @param gameRequest the message containing the game request
      */
-    private void handleGameRequest(final String gameRequest) {
-        final String requester = fetchRequester(gameRequest);
-        final String acceptedMessage = buildAcceptMessage(session.getUserId());
+    private void handleGameRequest(final GameMessageView gameRequest) {
+        final String requester = gameRequest.userId();
+        acceptGameRequests(false);
+        gameId = GameActor.newGameId();
+        final String acceptedMessage = buildAcceptMessage(session.getUserId(), gameId);
 
         pushToMQ(acceptedMessage, requester);
         log.debug("Game request from user {} accepted by user {}.", requester, session.getUserId());
@@ -224,77 +393,115 @@ public class SocketHandler extends UntypedActor {
         getContext().become(waitForGameStart);
     }
 
-    private void handleGameAccepted(final String accept) {
-        final String opponent = fetchAccepter(accept);
-        final String gameStartMessage = buildStartMessage(session.getUserId());
-        pushToMQ(gameStartMessage, opponent);
+    /**
+     * The requester hosts the game: it starts the game actor, which sends the start message to the opponent.
+     */
+    private void handleGameAccepted(final GameMessageView accept) {
+        if (!accept.hasUserId() || accept.number() == -1) {
+            log.warning("Invalid accept message received by user {}", session.getUserId());
+            return;
+        }
+
+        final String opponent = accept.userId();
+        gameId = accept.number();
+        gameActor = getContext().system().actorOf(
+                GameActor.props(bus, gameId, session.getUserId(), self(), opponent, binaryMQ),
+                "game-" + gameId);
         startGame(opponent);
     }
 
-    private void handleGameStart(final String gameStart) {
-        final String opponent = fetchStarter(gameStart);
-        startGame(opponent);
+    private void handleGameStart(final GameMessageView gameStart) {
+        if (gameId != null && gameId == gameStart.number()) {
+            startGame(gameStart.userId());
+        } else {
+            log.debug("Start of game {} discarded, user {} accepted game {}",
+                    gameStart.number(), session.getUserId(), gameId);
+        }
     }
 
-    private void handleGameInstruction(final String gameInstructionMessage) {
-        try {
-            final String instruction = fetchGameInstruction(gameInstructionMessage);
-            if (instruction != null) {
-                final int pitIndex = Integer.parseInt(instruction);
-                if (game != null) {
-                    if (game.getTurn()) {
-                        pushToMQ(gameInstructionMessage, opponentUserId);
-                    }
-
-                    final boolean isEnded = game.move(game.normalized(pitIndex));
-
-                    pushToSocket(buildGameStateMessage(game));
-
-                    if (isEnded) {
-                        pushToSocket(buildGameEndMessage());
-                    } else {
-                        notifyTurn();
-                    }
-                }
-            }
-        } catch (NumberFormatException nfe) {
-            log.warning("Invalid move receive from the client: {}", gameInstructionMessage);
+    private void handleMove(final int pitIndex) {
+        if (gameId == null) {
+            return;
+        }
+
+        if (gameActor != null) {
+            gameActor.tell(new GameActor.Move(session.getUserId(), pitIndex), self());
+        } else if (binaryMQ) {
+            final int length = BinaryGameProtocol.encodeMove(
+                    buffer(BinaryGameProtocol.maxSize(session.getUserId().length())),
+                    ++mqSequence, pitIndex, session.getUserId());
+            pushToMQ(Arrays.copyOf(buffer, length), buildGameRoutingKey(gameId));
+        } else {
+            pushToMQ(buildMoveMessage(session.getUserId(), pitIndex), buildGameRoutingKey(gameId));
+        }
+    }
+
+    /**
+     * Asks the game actor for the whole state, e.g. when the client lost track of the board.
+     */
+    private void handleSync() {
+        if (gameId == null) {
+            return;
+        }
+
+        if (gameActor != null) {
+            gameActor.tell(new GameActor.Sync(session.getUserId()), self());
+        } else if (binaryMQ) {
+            final int length = BinaryGameProtocol.encodeSync(
+                    buffer(BinaryGameProtocol.maxSize(session.getUserId().length())),
+                    ++mqSequence, session.getUserId());
+            pushToMQ(Arrays.copyOf(buffer, length), buildGameRoutingKey(gameId));
+        } else {
+            pushToMQ(buildSyncMessage(session.getUserId()), buildGameRoutingKey(gameId));
         }
     }
 
-    private void notifyTurn() {
-        if (game != null) {
-            final String turnMessage = buildGameTurnMessage(game.getTurn());
-            log.debug("Turn message {} sent via web socket", turnMessage);
-            pushToSocket(turnMessage);
+    private void handleGameFrame(final GameActor.Frame frame) {
+        if (frame.isRejected()) {
+            waitForGameRequest();
+            return;
+        }
+
+        pushToSocket(frame);
+        if (frame.isEnd()) {
+            // The game actor is gone, there is nobody to notify if the user leaves now
+            gameId = null;
+            gameActor = null;
         }
     }
 
-    private Game createGame() {
-        log.debug("{} compareTo {} is {}", opponentUserId, session.getUserId(), opponentUserId.compareTo(session.getUserId()) < 0);
-        if (opponentUserId.compareTo(session.getUserId()) < 0) {
-            final boolean turn = false;
-            return new Game(turn, Game.SMALL_PIT_NUMBER_PER_USER + 1);
+    /**
+     * Tells the game actor that the user does not play any more.
+     */
+    private void leaveGame() {
+        if (gameId == null) {
+            return;
+        }
+
+        final String rejectMessage = buildRejectMessage(session.getUserId());
+        if (gameActor != null) {
+            gameActor.tell(rejectMessage, self());
         } else {
-            final boolean turn = true;
-            return new Game(turn, 0);
+            pushToMQ(rejectMessage, buildGameRoutingKey(gameId));
         }
     }
 
     private void startGame(final String opponentUserId) {
         this.opponentUserId = opponentUserId;
         this.playing = true;
-        log.debug("Game between user {} and {} started.", session.getUserId(), this.opponentUserId);
-
-        final User opponent = User.findByUserId(opponentUserId);
-        if (opponent != null) {
-            pushToSocket(buildSocketGameStartMessage(opponent.getDisplayName()));
-            game = createGame();
-            notifyTurn();
-        } else {
+        acceptGameRequests(false);
+        log.debug("Game {} between user {} and {} started.", gameId, session.getUserId(), this.opponentUserId);
+
+        //Every bot game has its own bot user id, but they all share the display name of the reserved bot user
+        final User opponent = User.findByUserId(
+                BotEngine.isBot(opponentUserId) ? BotEngine.BOT_USER_ID : opponentUserId);
+        if (opponent == null) {
+            leaveGame();
             waitForGameRequest();
+            return;
         }
 
+        pushToSocket(buildSocketGameStartMessage(opponent.getDisplayName()));
         getContext().setReceiveTimeout(GAME_MOVEMENT_TIMEOUT);
         getContext().become(gaming);
     }
@@ -321,10 +528,9 @@ public class SocketHandler extends UntypedActor {
         if (message instanceof ActiveSession) {
             try {
                 log.debug("Authentication has been done successfully!");
-                final ActiveSession session = (ActiveSession) message;
-                consumeQueue(createQueue(session));
+                subscribe((ActiveSession) message);
             } catch (final Exception e) {
-                log.error(e, "Queue creation and consumption went wrong!");
+                log.error(e, "Registration to the node queue went wrong!");
                 getContext().stop(self());
             }
         } else {
@@ -333,39 +539,64 @@ public class SocketHandler extends UntypedActor {
         }
     };
 
-    private Procedure<Object> waitForGameRequestOrAccept = message -> {
+    private Procedure<Object> waitForGameRequestOrAccept = received -> {
+        final Object message = receive(received);
         if (message instanceof String) {
-            final String str = (String) message;
-            if (isGameRequestMessage(str)) {
-                handleGameRequest(str); //send accepted, wait for game start
-            } else if (isGameAcceptedMessage(str)) {
-                handleGameAccepted(str); //send game start, start gaming
+            final GameMessageView.Kind kind = view.decode((String) message).kind();
+            if (kind == GameMessageView.Kind.GAME_REQUEST) {
+                handleGameRequest(view); //send accepted, wait for game start
+            } else if (kind == GameMessageView.Kind.ACCEPT) {
+                handleGameAccepted(view); //send game start, start gaming
             }
         }
     };
 
-    private Procedure<Object> waitForGameStart = message -> {
+    private Procedure<Object> waitForGameStart = received -> {
+        final Object message = receive(received);
         if (message instanceof String) {
-            final String str = (String) message;
-            if (isGameStartMessage(str)) {
-                handleGameStart(str); //start gaming
+            if (view.decode((String) message).kind() == GameMessageView.Kind.START) {
+                handleGameStart(view); //start gaming
             }
         } else if (message instanceof ReceiveTimeout) {
             waitForGameRequest();
         }
     };
 
-    private Procedure<Object> gaming = message -> {
+    private Procedure<Object> gaming = received -> {
+        final Object message = receive(received);
         log.debug("Message {} received in the game.", message);
 
-        if (message instanceof String) {
-            final String str = (String) message;
-            if (isGameRejectedMessage(str)) {
+        if (message instanceof GameActor.Frame) {
+            handleGameFrame((GameActor.Frame) message);
+        } else if (message instanceof String) {
+            final GameMessageView.Kind kind = view.decode((String) message).kind();
+            if (kind == GameMessageView.Kind.REJECT) {
+                leaveGame();
+                waitForGameRequest();
+            } else if (kind == GameMessageView.Kind.INSTRUCTION && view.number() <= Integer.MAX_VALUE) {
+                handleMove((int) view.number());
+            } else if (kind == GameMessageView.Kind.SYNC) {
+                handleSync();
+            } else if (isGameInstructionMessage((String) message)) {
+                log.warning("Invalid move receive from the client: {}", message);
+            }
+        } else if (message instanceof byte[]) {
+            final byte[] bytes = (byte[]) message;
+            if (BinaryGameProtocol.opcode(bytes) == BinaryGameProtocol.MOVE) {
+                final int pitIndex = BinaryGameProtocol.decodeMovePit(bytes);
+                if (pitIndex == -1) {
+                    log.warning("Invalid binary move of {} bytes received from the client", bytes.length);
+                } else {
+                    handleMove(pitIndex);
+                }
+            } else if (BinaryGameProtocol.opcode(bytes) == BinaryGameProtocol.SYNC) {
+                handleSync();
+            } else if (BinaryGameProtocol.opcode(bytes) == BinaryGameProtocol.REJECT) {
+                leaveGame();
                 waitForGameRequest();
-            } else if (isGameInstructionMessage(str)) {
-                handleGameInstruction(str);
             }
         } else if (message instanceof ReceiveTimeout) {
+            leaveGame();
             waitForGameRequest();
         }
     };
@@ -376,6 +607,16 @@ public class SocketHandler extends UntypedActor {
         if (message instanceof String) {
             getContext().become(waitForAuthentication);
             handleCredentials((String) message);
+        } else if (message instanceof byte[]) {
+            final byte[] hello = (byte[]) message;
+            getContext().become(waitForAuthentication);
+            if (BinaryGameProtocol.opcode(hello) == BinaryGameProtocol.HELLO) {
+                binaryClient = true;
+                final String credentials = BinaryGameProtocol.decodeHello(hello);
+                handleCredentials(credentials == null ? "" : credentials);
+            } else {
+                handleCredentials("");
+            }
         }
     }
 
@@ -391,11 +632,16 @@ public class SocketHandler extends UntypedActor {
 
         if (playing) {
             log.debug("Socket handler getting close, notifying opponent {} to stop playing", opponentUserId);
-            pushToMQ(buildRejectMessage(session.getUserId()), opponentUserId);
+            leaveGame();
         }
 
-        if (consumingChannel != null && consumingChannel.isOpen()) {
-            consumingChannel.close();
+        if (subscribed) {
+            bus.unregister(session.getUserId(), self());
+            bus.unregister(buildRequestRoutingKey(session.getUserId()), self());
+        }
+        outbound.clear();
+        if (revocationListener != null) {
+            sessionTokens.unwatch(watchedSessionId, revocationListener);
         }
 
         log.debug("Socket Handler has been killed!");
@@ -0,0 +1,400 @@
+package server.bot;
+
+import model.Board;
+import model.Game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses the moves of the bot. It runs an iterative deepening alpha-beta search: every iteration searches one ply
+ * deeper until the time budget of the move is spent, and the best move of the last complete iteration is played.
+ * The moves of the root are searched in parallel, sharing the best score found so far as their lower bound.
+ * <p>
+ * The search runs on its own fork-join pool, so bot games never occupy the threads of the Akka dispatchers. One engine
+ * is shared by all the bot games of the node, and so is its {@link TranspositionTable}: positions repeat a lot in
+ * Kalah, within one search and across the moves and games of the node.
+ * <p>
+ * With a {@link Tablebase}, endgame positions are not searched any more: their exact value is read from the table, and
+ * a root position covered by it is played from the table straight away.
+ */
+public class BotEngine implements AutoCloseable {
+    public static final String BOT_USER_ID = "bolboard:bot";
+
+    private static final int MAX_DEPTH = 64;
+    private static final int DEADLINE_CHECK_MASK = 0x3FF;
+    private static final long DEFAULT_TRANSPOSITION_TABLE_SIZE = 64L * 1024 * 1024;
+
+    public static boolean isBot(final String userId) {
+        return userId != null && userId.startsWith(BOT_USER_ID);
+    }
+
+    /**
+     * Counters of the engine. Rates are computed over the life time of the engine.
+     */
+    public static class Metrics {
+        private final long moves;
+        private final long nodes;
+        private final int parallelism;
+        private final double movesPerSecondPerCore;
+        private final double nodesPerSecond;
+
+        public Metrics(final long moves,
+                       final long nodes,
+                       final int parallelism,
+                       final double movesPerSecondPerCore,
+                       final double nodesPerSecond) {
+            this.moves = moves;
+            this.nodes = nodes;
+            this.parallelism = parallelism;
+            this.movesPerSecondPerCore = movesPerSecondPerCore;
+            this.nodesPerSecond = nodesPerSecond;
+        }
+
+        public long getMoves() {
+            return moves;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public double getMovesPerSecondPerCore() {
+            return movesPerSecondPerCore;
+        }
+
+        public double getNodesPerSecond() {
+            return nodesPerSecond;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final long moveBudgetNanos;
+    private final TranspositionTable transpositions;
+    private final Tablebase tablebase;
+    private final long startedAt = System.nanoTime();
+
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+
+    /**
+     * @param parallelism number of threads searching for all the bot games
+     * @param moveBudgetMillis time given to each move
+     */
+    public BotEngine(final int parallelism, final long moveBudgetMillis) {
+        this(parallelism, moveBudgetMillis, new TranspositionTable(DEFAULT_TRANSPOSITION_TABLE_SIZE));
+    }
+
+    /**
+     * @param transpositions the table shared by all the searches of this engine
+     */
+    public BotEngine(final int parallelism, final long moveBudgetMillis, final TranspositionTable transpositions) {
+        this(parallelism, moveBudgetMillis, transpositions, null);
+    }
+
+    /**
+     * @param tablebase exact values of the endgame positions, or null
+     */
+    public BotEngine(final int parallelism,
+                     final long moveBudgetMillis,
+                     final TranspositionTable transpositions,
+                     final Tablebase tablebase) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.moveBudgetNanos = TimeUnit.MILLISECONDS.toNanos(moveBudgetMillis);
+        this.transpositions = transpositions;
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Searches the best move of the player to move.
+     *
+     * @return a future of the absolute index of the chosen pit, or -1 if the player has no move.
+     */
+    public CompletableFuture<Integer> bestMove(final Game game) {
+        return bestMove(game.snapshot(), game.playerToMove());
+    }
+
+    /**
+     * Searches the best move of the player in the position. The board must not be changed until the future completes.
+     *
+     * @param player the absolute player (see {@link Board}) to move
+     */
+    public CompletableFuture<Integer> bestMove(final Board root, final int player) {
+        final long deadline = System.nanoTime() + moveBudgetNanos;
+
+        return CompletableFuture.supplyAsync(() -> {
+            final int move = search(root, player, deadline);
+            moves.increment();
+            return move;
+        }, pool);
+    }
+
+    public Metrics metrics() {
+        final double seconds = Math.max(1e-9, (System.nanoTime() - startedAt) / 1e9);
+        final long moveCount = moves.sum();
+        final long nodeCount = nodes.sum();
+        return new Metrics(moveCount,
+                nodeCount,
+                pool.getParallelism(),
+                moveCount / seconds / pool.getParallelism(),
+                nodeCount / seconds);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private static List<Integer> legalMoves(final Board board, final int player) {
+        final List<Integer> legal = new ArrayList<>();
+        final int first = player * (board.getGeometry().getPitsPerPlayer() + 1);
+        for (int i = first; i < first + board.getGeometry().getPitsPerPlayer(); i++) {
+            if (board.get(i) != 0) {
+                legal.add(i);
+            }
+        }
+        return legal;
+    }
+
+    private int search(final Board root, final int player, final long deadline) {
+        final List<Integer> legal = legalMoves(root, player);
+        if (legal.isEmpty()) {
+            return -1;
+        }
+
+        if (tablebase != null) {
+            final int perfect = tablebase.bestMove(root, player);
+            if (perfect != -1) {
+                return perfect;
+            }
+        }
+
+        int best = legal.get(0);
+        for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+            final AtomicInteger alpha = new AtomicInteger(-Integer.MAX_VALUE);
+            final List<RootMove> tasks = new ArrayList<>(legal.size());
+            for (int pit : legal) {
+                tasks.add(new RootMove(root, player, pit, depth, deadline, alpha));
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            // A score which is not above the bound its task started with is only an upper bound, so on a tie the
+            // move with an exact score wins.
+            int depthBest = -1;
+            long depthBestKey = Long.MIN_VALUE;
+            boolean complete = true;
+            boolean exhausted = true;
+            for (RootMove task : tasks) {
+                exhausted &= !task.reachedDepth;
+                if (task.timedOut) {
+                    complete = false;
+                    break;
+                }
+                final int score = task.join();
+                final long key = 2L * score + (score > task.startAlpha ? 1 : 0);
+                if (key > depthBestKey) {
+                    depthBestKey = key;
+                    depthBest = task.pit;
+                }
+            }
+
+            // If no line was cut by the depth, the whole tree has been searched and going deeper changes nothing.
+            if (!complete || exhausted || System.nanoTime() > deadline) {
+                if (complete) {
+                    best = depthBest;
+                }
+                break;
+            }
+            best = depthBest;
+        }
+        return best;
+    }
+
+    /**
+     * Searches one move of the root to a fixed depth. Scores are from the point of view of the root player.
+     */
+    private final class RootMove extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final Board root;
+        private final int player;
+        private final int pit;
+        private final int depth;
+        private final long deadline;
+        private final AtomicInteger sharedAlpha;
+
+        private Board[] stack;
+        private long visited;
+        private int startAlpha;
+        private boolean timedOut;
+        private boolean reachedDepth;
+
+        RootMove(final Board root,
+                 final int player,
+                 final int pit,
+                 final int depth,
+                 final long deadline,
+                 final AtomicInteger sharedAlpha) {
+            this.root = root;
+            this.player = player;
+            this.pit = pit;
+            this.depth = depth;
+            this.deadline = deadline;
+            this.sharedAlpha = sharedAlpha;
+        }
+
+        @Override
+        protected Integer compute() {
+            stack = new Board[depth + 1];
+            for (int i = 0; i <= depth; i++) {
+                stack[i] = new Board(root);
+            }
+
+            final boolean again = stack[0].move(player, pit);
+            final int next = again ? player : 1 - player;
+            startAlpha = sharedAlpha.get();
+            final int score = alphaBeta(0, depth - 1, next, startAlpha, Integer.MAX_VALUE);
+
+            nodes.add(visited);
+            if (!timedOut) {
+                sharedAlpha.accumulateAndGet(score, Math::max);
+            }
+            return score;
+        }
+
+        private int evaluate(final Board board) {
+            final int opponent = 1 - player;
+            int score = board.get(board.store(player)) - board.get(board.store(opponent));
+            if (board.isEnded()) {
+                score += board.sideStones(player) - board.sideStones(opponent);
+            }
+            return score;
+        }
+
+        private int toAbsolute(final int score) {
+            return player == 0 ? score : -score;
+        }
+
+        /**
+         * Turns a bound of the first player into a bound of the root player, which flips its direction for the second.
+         */
+        private int boundOfRootPlayer(final int flag) {
+            if (player == 0 || flag == TranspositionTable.EXACT) {
+                return flag;
+            }
+            return flag == TranspositionTable.LOWER_BOUND ? TranspositionTable.UPPER_BOUND : TranspositionTable.LOWER_BOUND;
+        }
+
+        /**
+         * @param level index of the board in the stack holding the position to search
+         * @param toMove the absolute player who moves in that position
+         */
+        private int alphaBeta(final int level, final int remaining, final int toMove, int alpha, int beta) {
+            final Board board = stack[level];
+            visited++;
+
+            if ((visited & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() > deadline) {
+                timedOut = true;
+            }
+            if (timedOut || board.isEnded()) {
+                return evaluate(board);
+            }
+            if (tablebase != null) {
+                final int value = tablebase.value(board, toMove);
+                if (value != Tablebase.UNKNOWN) {
+                    final int opponent = 1 - player;
+                    return board.get(board.store(player)) - board.get(board.store(opponent))
+                            + (toMove == player ? value : -value);
+                }
+            }
+            if (remaining == 0) {
+                reachedDepth = true;
+                return evaluate(board);
+            }
+
+            final long key = board.hash(toMove);
+            final long entry = transpositions.probe(key);
+            int hashMove = -1;
+            if (entry != TranspositionTable.MISS) {
+                hashMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= remaining) {
+                    // The stored subtree may have been cut by the depth, so the search can not be called exhausted
+                    reachedDepth = true;
+
+                    final int score = toAbsolute(TranspositionTable.score(entry));
+                    final int flag = boundOfRootPlayer(TranspositionTable.flag(entry));
+                    if (flag == TranspositionTable.EXACT) {
+                        return score;
+                    } else if (flag == TranspositionTable.LOWER_BOUND) {
+                        alpha = Math.max(alpha, score);
+                    } else {
+                        beta = Math.min(beta, score);
+                    }
+                    if (alpha >= beta) {
+                        return score;
+                    }
+                }
+            }
+
+            final int originalAlpha = alpha;
+            final int originalBeta = beta;
+            final boolean maximizing = toMove == player;
+            int best = maximizing ? -Integer.MAX_VALUE : Integer.MAX_VALUE;
+            int bestMove = -1;
+
+            final int pits = board.getGeometry().getPitsPerPlayer();
+            final int first = toMove * (pits + 1);
+            final Board child = stack[level + 1];
+
+            // The best move of an earlier search of this position is tried first, then the others in order
+            for (int n = hashMove == -1 ? 0 : -1; n < pits; n++) {
+                final int i = n == -1 ? hashMove : first + n;
+                if (board.get(i) == 0 || (n != -1 && i == hashMove)) {
+                    continue;
+                }
+
+                child.copyFrom(board);
+                final boolean again = child.move(toMove, i);
+                final int score = alphaBeta(level + 1, remaining - 1, again ? toMove : 1 - toMove, alpha, beta);
+
+                if (maximizing ? score > best : score < best) {
+                    best = score;
+                    bestMove = i;
+                }
+                if (maximizing) {
+                    alpha = Math.max(alpha, best);
+                } else {
+                    beta = Math.min(beta, best);
+                }
+                if (alpha >= beta || timedOut) {
+                    break;
+                }
+            }
+
+            if (!timedOut) {
+                final int flag;
+                if (best <= originalAlpha) {
+                    flag = TranspositionTable.UPPER_BOUND;
+                } else if (best >= originalBeta) {
+                    flag = TranspositionTable.LOWER_BOUND;
+                } else {
+                    flag = TranspositionTable.EXACT;
+                }
+                transpositions.store(key,
+                        TranspositionTable.pack(toAbsolute(best), remaining, boundOfRootPlayer(flag), bestMove));
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package server.bot;
+
+import model.Board;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exact values of all the endgame positions with at most a given number of stones left in the small pits, as written
+ * by {@link TablebaseGenerator}. The file is memory-mapped read-only, so it does not live on the heap and all the
+ * JVMs of a host share the same pages.
+ * <p>
+ * The value of a position is the difference the player to move can force between the stones it will still gain and
+ * the ones its opponent will gain, counting the stones left on each side when the game ends. Stores do not change how
+ * the remaining stones can be played, so they are not part of the position.
+ * <p>
+ * File layout (big-endian): magic, version, pits per player, maximum stones (4 bytes each), then one signed byte per
+ * position and player to move. Positions are ranked as the ways to put at most maximum stones in the small pits,
+ * in the order of the pits (see {@link #index}).
+ */
+public class Tablebase {
+    public static final int MAGIC = 0x424F4C54; // BOLT
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * Returned by {@link #value} if the position is not in the tablebase.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final ByteBuffer values;
+    private final int pitsPerPlayer;
+    private final int maxStones;
+    private final long[][] binomials;
+
+    Tablebase(final ByteBuffer values, final int pitsPerPlayer, final int maxStones) {
+        this.values = values;
+        this.pitsPerPlayer = pitsPerPlayer;
+        this.maxStones = maxStones;
+        this.binomials = binomials(maxStones + 2 * pitsPerPlayer + 1);
+    }
+
+    /**
+     * Maps the tablebase file read-only.
+     */
+    public static Tablebase open(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(String.format("%s is not a tablebase of version %d", file, VERSION));
+            }
+
+            final int pitsPerPlayer = buffer.getInt(8);
+            final int maxStones = buffer.getInt(12);
+            final long expected = HEADER_SIZE + 2 * positions(pitsPerPlayer, maxStones);
+            if (channel.size() != expected) {
+                throw new IOException(String.format("%s is truncated: %d bytes instead of %d", file, channel.size(), expected));
+            }
+
+            return new Tablebase(buffer, pitsPerPlayer, maxStones);
+        }
+    }
+
+    static long[][] binomials(final int n) {
+        final long[][] table = new long[n + 1][n + 1];
+        for (int i = 0; i <= n; i++) {
+            table[i][0] = 1;
+            for (int k = 1; k <= i; k++) {
+                table[i][k] = table[i - 1][k - 1] + table[i - 1][k];
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the number of ways to put at most maxStones stones in the small pits of both players.
+     */
+    static long positions(final int pitsPerPlayer, final int maxStones) {
+        final int pits = 2 * pitsPerPlayer;
+        return binomials(maxStones + pits)[maxStones + pits][pits];
+    }
+
+    /**
+     * Ranks the small pits of the board among all the positions with at most maxStones stones. They are seen as
+     * maxStones stones put in the small pits plus one extra bin holding the stones which are not on the board; for
+     * every pit the positions with fewer stones in it come first.
+     */
+    static long index(final Board board, final int pitsPerPlayer, final int maxStones, final long[][] binomials) {
+        long rank = 0;
+        int remaining = maxStones;
+        int bins = 2 * pitsPerPlayer + 1;
+        for (int player = 0; player < Board.PLAYERS; player++) {
+            final int first = player * (pitsPerPlayer + 1);
+            for (int i = first; i < first + pitsPerPlayer; i++) {
+                final int stones = board.get(i);
+                rank += binomials[remaining + bins - 1][bins - 1] - binomials[remaining - stones + bins - 1][bins - 1];
+                remaining -= stones;
+                bins--;
+            }
+        }
+        return rank;
+    }
+
+    public int getMaxStones() {
+        return maxStones;
+    }
+
+    public boolean covers(final Board board) {
+        return board.getGeometry().getPitsPerPlayer() == pitsPerPlayer
+                && board.sideStones(0) + board.sideStones(1) <= maxStones;
+    }
+
+    /**
+     * @return the value of the position for the player to move, or {@link #UNKNOWN}.
+     */
+    public int value(final Board board, final int toMove) {
+        if (!covers(board)) {
+            return UNKNOWN;
+        }
+        final long position = index(board, pitsPerPlayer, maxStones, binomials);
+        return values.get((int) (HEADER_SIZE + 2 * position + toMove));
+    }
+
+    /**
+     * @return the pit which gives the player the best value, or -1 if the position is not in the tablebase or the
+     * game has ended.
+     */
+    public int bestMove(final Board board, final int player) {
+        if (!covers(board) || board.isEnded()) {
+            return -1;
+        }
+
+        int best = -1;
+        int bestValue = Integer.MIN_VALUE;
+        final int store = board.store(player);
+        final int first = player * (pitsPerPlayer + 1);
+        for (int i = first; i < first + pitsPerPlayer; i++) {
+            if (board.get(i) == 0) {
+                continue;
+            }
+
+            final Board child = new Board(board);
+            final boolean again = child.move(player, i);
+            final int gain = child.get(store) - board.get(store);
+            final int value = gain + (again ? value(child, player) : -value(child, 1 - player));
+
+            if (value > bestValue) {
+                bestValue = value;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
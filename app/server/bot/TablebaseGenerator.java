@@ -0,0 +1,149 @@
+package server.bot;
+
+import model.Board;
+import model.Geometry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Solves all the positions with at most a given number of stones in the small pits and writes them as a
+ * {@link Tablebase}. It runs offline:
+ * <pre>
+ *     ./activator "runMain server.bot.TablebaseGenerator conf/tablebase.bin 6 12"
+ * </pre>
+ * A move never adds stones to the small pits, and a move which puts none in a large pit only moves stones towards the
+ * large pit of the player who moved. So positions never repeat and a depth-first search with memoization solves them
+ * all.
+ */
+public class TablebaseGenerator {
+    private static final byte UNSOLVED = Byte.MIN_VALUE;
+
+    private final int pitsPerPlayer;
+    private final int maxStones;
+    private final Geometry geometry;
+    private final long[][] binomials;
+    private final byte[] values;
+
+    public TablebaseGenerator(final int pitsPerPlayer, final int maxStones) {
+        if (maxStones > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Values of more than " + Byte.MAX_VALUE + " stones do not fit a byte");
+        }
+
+        final long positions = Tablebase.positions(pitsPerPlayer, maxStones);
+        if (2 * positions > Integer.MAX_VALUE - Tablebase.HEADER_SIZE) {
+            throw new IllegalArgumentException("Too many positions: " + positions);
+        }
+
+        this.pitsPerPlayer = pitsPerPlayer;
+        this.maxStones = maxStones;
+        this.geometry = Geometry.of(pitsPerPlayer, 1);
+        this.binomials = Tablebase.binomials(maxStones + 2 * pitsPerPlayer + 1);
+        this.values = new byte[(int) (2 * positions)];
+        Arrays.fill(values, UNSOLVED);
+    }
+
+    /**
+     * Builds the board of the position with the given rank, with empty large pits.
+     */
+    private Board position(long rank) {
+        final Board board = new Board(geometry);
+        int remaining = maxStones;
+        int bins = 2 * pitsPerPlayer + 1;
+        for (int player = 0; player < Board.PLAYERS; player++) {
+            board.set(board.store(player), 0);
+
+            final int first = player * (pitsPerPlayer + 1);
+            for (int i = first; i < first + pitsPerPlayer; i++) {
+                int stones = 0;
+                long count = binomials[remaining + bins - 2][bins - 2];
+                while (rank >= count) {
+                    rank -= count;
+                    stones++;
+                    count = binomials[remaining - stones + bins - 2][bins - 2];
+                }
+                board.set(i, stones);
+                remaining -= stones;
+                bins--;
+            }
+        }
+        return board;
+    }
+
+    private int solve(final Board board, final int toMove) {
+        final int index = (int) (2 * Tablebase.index(board, pitsPerPlayer, maxStones, binomials) + toMove);
+        if (values[index] != UNSOLVED) {
+            return values[index];
+        }
+
+        int best;
+        if (board.isEnded()) {
+            best = board.sideStones(toMove) - board.sideStones(1 - toMove);
+        } else {
+            best = Integer.MIN_VALUE;
+            final int store = board.store(toMove);
+            final int first = toMove * (pitsPerPlayer + 1);
+            for (int i = first; i < first + pitsPerPlayer; i++) {
+                if (board.get(i) == 0) {
+                    continue;
+                }
+
+                final Board child = new Board(board);
+                final boolean again = child.move(toMove, i);
+                final int gain = child.get(store) - board.get(store);
+                child.set(store, 0);
+
+                final int value = gain + (again ? solve(child, toMove) : -solve(child, 1 - toMove));
+                best = Math.max(best, value);
+            }
+        }
+
+        values[index] = (byte) best;
+        return best;
+    }
+
+    public void generate() {
+        final long positions = values.length / 2;
+        for (long rank = 0; rank < positions; rank++) {
+            final Board board = position(rank);
+            for (int toMove = 0; toMove < Board.PLAYERS; toMove++) {
+                solve(board, toMove);
+            }
+        }
+    }
+
+    public void write(final OutputStream stream) throws IOException {
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+        output.writeInt(Tablebase.MAGIC);
+        output.writeInt(Tablebase.VERSION);
+        output.writeInt(pitsPerPlayer);
+        output.writeInt(maxStones);
+        output.write(values);
+        output.flush();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: TablebaseGenerator <output file> <pits per player> <max stones>");
+            System.exit(1);
+        }
+
+        final Path output = Paths.get(args[0]);
+        final TablebaseGenerator generator = new TablebaseGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+
+        final long start = System.nanoTime();
+        generator.generate();
+        try (OutputStream stream = Files.newOutputStream(output)) {
+            generator.write(stream);
+        }
+
+        System.out.printf("%d positions written to %s in %d ms%n",
+                generator.values.length / 2, output, (System.nanoTime() - start) / 1000000);
+    }
+}
@@ -0,0 +1,97 @@
+package server.bot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed-size table of searched positions, keyed by their Zobrist hash and shared by all the searches of the node.
+ * Entries live off-heap in a direct buffer, so a large table adds nothing to the work of the garbage collector.
+ * <p>
+ * The table takes no lock. Each entry is two longs: the data and the key xor-ed with the data. A reader only trusts an
+ * entry if both halves agree, so an entry torn by two threads writing at the same time simply reads as a miss. Scores
+ * are stored from the point of view of the first player.
+ */
+public class TranspositionTable {
+    public static final int EXACT = 0;
+    public static final int LOWER_BOUND = 1;
+    public static final int UPPER_BOUND = 2;
+
+    /**
+     * Returned by {@link #probe(long)} if the position is not in the table.
+     */
+    public static final long MISS = 0;
+
+    private static final int ENTRY_SIZE = 16;
+
+    private final ByteBuffer entries;
+    private final long mask;
+
+    /**
+     * @param sizeInBytes memory given to the table. It is rounded down to a power of two number of entries.
+     */
+    public TranspositionTable(final long sizeInBytes) {
+        final long count = Long.highestOneBit(Math.max(1, Math.min(sizeInBytes, Integer.MAX_VALUE) / ENTRY_SIZE));
+        this.mask = count - 1;
+        this.entries = ByteBuffer.allocateDirect((int) (count * ENTRY_SIZE)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Packs an entry. Depth and move must fit in 8 bits; a move of -1 means no best move is known.
+     */
+    public static long pack(final int score, final int depth, final int flag, final int move) {
+        return (score & 0xFFFFFFFFL)
+                | ((long) (depth & 0xFF) << 32)
+                | ((long) (flag & 0x3) << 40)
+                | ((long) ((move + 1) & 0xFF) << 42)
+                | (1L << 63); // never equal to MISS
+    }
+
+    public static int score(final long entry) {
+        return (int) entry;
+    }
+
+    public static int depth(final long entry) {
+        return (int) ((entry >>> 32) & 0xFF);
+    }
+
+    public static int flag(final long entry) {
+        return (int) ((entry >>> 40) & 0x3);
+    }
+
+    public static int move(final long entry) {
+        return (int) ((entry >>> 42) & 0xFF) - 1;
+    }
+
+    private int offset(final long key) {
+        return (int) ((key & mask) * ENTRY_SIZE);
+    }
+
+    /**
+     * @return the packed entry of the position or {@link #MISS}.
+     */
+    public long probe(final long key) {
+        final int offset = offset(key);
+        final long data = entries.getLong(offset);
+        final long check = entries.getLong(offset + 8);
+        return data != MISS && (check ^ data) == key ? data : MISS;
+    }
+
+    /**
+     * Stores the entry. An entry of the same position searched deeper is kept.
+     */
+    public void store(final long key, final long entry) {
+        final int offset = offset(key);
+        final long data = entries.getLong(offset);
+        final long check = entries.getLong(offset + 8);
+        if (data != MISS && (check ^ data) == key && depth(data) > depth(entry)) {
+            return;
+        }
+
+        entries.putLong(offset, entry);
+        entries.putLong(offset + 8, key ^ entry);
+    }
+
+    public long capacity() {
+        return mask + 1;
+    }
+}
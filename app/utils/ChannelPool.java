@@ -0,0 +1,394 @@
+package utils;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import play.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed number of long lived channels to publish to one exchange, so a publish is a single frame write instead of
+ * opening and closing a channel around it (see {@link SafeChannel}).
+ * <p>
+ * Publishing never blocks the caller: the message is queued on the lane of its routing key and the returned future
+ * completes when the broker confirms it. Every lane has one thread and one channel in confirm mode. The thread takes
+ * the queued messages in batches, up to a size or for a short window, and writes them without waiting for the
+ * confirms of the previous ones; the broker confirms several messages at once, so a confirm round-trip is not paid
+ * per message. Messages to the same routing key go through the same lane, so they keep their order.
+ * <p>
+ * A channel is opened on the first batch of its lane, and opened again if the broker closed it. The messages it had
+ * not confirmed yet fail, as it is unknown whether they arrived.
+ */
+public class ChannelPool implements AutoCloseable {
+    public static final String TEXT_CONTENT_TYPE = "text/plain";
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final long DEFAULT_WINDOW_MICROS = 500;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+
+    private static final ConcurrentHashMap<String, AMQP.BasicProperties> PROPERTIES = new ConcurrentHashMap<>();
+
+    private static class Message {
+        private final String routingKey;
+        private final AMQP.BasicProperties properties;
+        private final byte[] body;
+        private final CompletableFuture<Void> confirmed = new CompletableFuture<>();
+
+        private Message(final String routingKey, final AMQP.BasicProperties properties, final byte[] body) {
+            this.routingKey = routingKey;
+            this.properties = properties;
+            this.body = body;
+        }
+    }
+
+    private final Connection connection;
+    private final String exchange;
+    private final int batchSize;
+    private final long windowNanos;
+    private final Lane[] lanes;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong reopened = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public ChannelPool(final Connection connection, final String exchange, final int size) {
+        this(connection, exchange, size, DEFAULT_BATCH_SIZE, DEFAULT_WINDOW_MICROS);
+    }
+
+    /**
+     * @param batchSize    the most messages written by a lane before it looks at the confirms
+     * @param windowMicros how long a lane waits for more messages once it has one, 0 to publish what is queued
+     */
+    public ChannelPool(final Connection connection,
+                       final String exchange,
+                       final int size,
+                       final int batchSize,
+                       final long windowMicros) {
+        if (size < 1 || batchSize < 1 || windowMicros < 0) {
+            throw new IllegalArgumentException("A channel pool needs at least one channel and a positive batch size");
+        }
+
+        this.connection = connection;
+        this.exchange = exchange;
+        this.batchSize = batchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.lanes = new Lane[size];
+        for (int i = 0; i < size; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
+
+    /**
+     * @return the shared, non persistent properties of the content type
+     */
+    public static AMQP.BasicProperties properties(final String contentType) {
+        return PROPERTIES.computeIfAbsent(contentType, type -> new AMQP.BasicProperties.Builder()
+                .contentType(type).deliveryMode(1)
+                .build());
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public int size() {
+        return lanes.length;
+    }
+
+    public long published() {
+        return published.get();
+    }
+
+    public long confirmed() {
+        return confirmed.get();
+    }
+
+    /**
+     * @return the messages which were refused by the broker, lost with their channel or could not be written
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * @return how many times a channel has been replaced after a failure or after the broker closed it
+     */
+    public long reopened() {
+        return reopened.get();
+    }
+
+    public CompletableFuture<Void> publish(final String routingKey, final String message) {
+        return publish(routingKey, properties(TEXT_CONTENT_TYPE), message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public CompletableFuture<Void> publish(final String routingKey, final String contentType, final byte[] body) {
+        return publish(routingKey, properties(contentType), body);
+    }
+
+    /**
+     * @return a future completed when the broker confirms the message, or failed if it could not be published
+     */
+    public CompletableFuture<Void> publish(final String routingKey,
+                                           final AMQP.BasicProperties properties,
+                                           final byte[] body) {
+        final Message message = new Message(routingKey, properties, body);
+        if (closed) {
+            fail(message, new IOException("Channel pool is closed"));
+        } else {
+            lanes[(routingKey.hashCode() & Integer.MAX_VALUE) % lanes.length].offer(message);
+        }
+        return message.confirmed;
+    }
+
+    /**
+     * Stops the lanes after the messages already queued are written. Those not confirmed yet fail with the channels.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+    }
+
+    // ==========================================================================
+    // Implementation details
+    // ==========================================================================
+    private void fail(final Message message, final Throwable cause) {
+        failed.incrementAndGet();
+        message.confirmed.completeExceptionally(cause);
+    }
+
+    private static void closeQuietly(final Channel channel) {
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (final IOException | ShutdownSignalException e) {
+                // Do Nothing
+            }
+        }
+    }
+
+    /**
+     * A channel in confirm mode and its messages waiting for a confirm, by publish sequence number.
+     */
+    private class ConfirmChannel implements ConfirmListener {
+        private final Channel channel;
+        private final ConcurrentSkipListMap<Long, Message> unconfirmed = new ConcurrentSkipListMap<>();
+
+        private ConfirmChannel(final Channel channel) throws IOException {
+            this.channel = channel;
+            channel.confirmSelect();
+            channel.addConfirmListener(this);
+            channel.addShutdownListener(cause -> failUnconfirmed(new IOException("Channel closed", cause)));
+        }
+
+        private void publish(final Message message) throws IOException {
+            final long sequence = channel.getNextPublishSeqNo();
+            unconfirmed.put(sequence, message);
+            try {
+                channel.basicPublish(exchange, message.routingKey, message.properties, message.body);
+            } catch (final IOException | ShutdownSignalException e) {
+                unconfirmed.remove(sequence);
+                throw e;
+            }
+            published.incrementAndGet();
+        }
+
+        @Override
+        public void handleAck(final long deliveryTag, final boolean multiple) {
+            for (Message message : take(deliveryTag, multiple)) {
+                confirmed.incrementAndGet();
+                message.confirmed.complete(null);
+            }
+        }
+
+        @Override
+        public void handleNack(final long deliveryTag, final boolean multiple) {
+            for (Message message : take(deliveryTag, multiple)) {
+                fail(message, new IOException("Message refused by the broker"));
+            }
+        }
+
+        private List<Message> take(final long deliveryTag, final boolean multiple) {
+            final List<Message> messages = new ArrayList<>();
+            if (multiple) {
+                final NavigableMap<Long, Message> head = unconfirmed.headMap(deliveryTag, true);
+                messages.addAll(head.values());
+                head.clear();
+            } else {
+                final Message message = unconfirmed.remove(deliveryTag);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        }
+
+        private void failUnconfirmed(final Throwable cause) {
+            Map.Entry<Long, Message> entry;
+            while ((entry = unconfirmed.pollFirstEntry()) != null) {
+                fail(entry.getValue(), cause);
+            }
+        }
+    }
+
+    /**
+     * The queue, thread and channel of some routing keys
+     */
+    private class Lane implements Runnable {
+        private final int index;
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        private final List<Message> batch = new ArrayList<>();
+
+        private volatile Thread thread;
+        private ConfirmChannel current;
+
+        private Lane(final int index) {
+            this.index = index;
+        }
+
+        private synchronized void start() {
+            if (thread == null) {
+                thread = new Thread(this, "mq-publisher-" + index);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void offer(final Message message) {
+            queue.add(message);
+            // The thread is started by the first message, so idle pools cost nothing
+            if (thread == null) {
+                start();
+            }
+        }
+
+        private synchronized void stop() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    batch.add(queue.take());
+                    if (windowNanos > 0) {
+                        final long deadline = System.nanoTime() + windowNanos;
+                        long left = windowNanos;
+                        while (batch.size() < batchSize && left > 0) {
+                            final Message message = queue.poll(left, TimeUnit.NANOSECONDS);
+                            if (message == null) {
+                                break;
+                            }
+                            batch.add(message);
+                            left = deadline - System.nanoTime();
+                        }
+                    }
+                    queue.drainTo(batch, batchSize - batch.size());
+                    publish();
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+
+            // Whatever is still queued is written, and confirmed if the broker is quick enough, before the channel closes
+            Thread.interrupted();
+            queue.drainTo(batch);
+            publish();
+            if (current != null) {
+                try {
+                    current.channel.waitForConfirms(CLOSE_TIMEOUT_MILLIS);
+                } catch (final InterruptedException | TimeoutException | ShutdownSignalException e) {
+                    // The unconfirmed messages fail with the channel
+                }
+                closeQuietly(current.channel);
+                current.failUnconfirmed(new IOException("Channel pool is closed"));
+            }
+        }
+
+        /**
+         * Closes the channel after a failure. Its unconfirmed messages fail, as it is unknown whether they arrived.
+         */
+        private void discard(final Throwable cause) {
+            if (current != null) {
+                reopened.incrementAndGet();
+                closeQuietly(current.channel);
+                current.failUnconfirmed(cause);
+                current = null;
+            }
+        }
+
+        private ConfirmChannel channel() throws IOException {
+            if (current != null && !current.channel.isOpen()) {
+                discard(new IOException("Channel closed"));
+            }
+            if (current == null) {
+                final Channel channel = connection.createChannel();
+                if (channel == null) {
+                    throw new IOException("No channel is available on the connection");
+                }
+                current = new ConfirmChannel(channel);
+            }
+            return current;
+        }
+
+        /**
+         * Writes the batch. If the channel fails, the rest of the batch is written once more on a new channel.
+         */
+        private void publish() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            batches.incrementAndGet();
+
+            boolean retried = false;
+            int i = 0;
+            while (i < batch.size()) {
+                try {
+                    channel().publish(batch.get(i));
+                    i++;
+                } catch (final IOException | ShutdownSignalException e) {
+                    discard(e);
+                    if (retried) {
+                        Logger.error("Publishing channel failed again, {} messages dropped", batch.size() - i);
+                        for (; i < batch.size(); i++) {
+                            fail(batch.get(i), e);
+                        }
+                    } else {
+                        Logger.warn("Publishing channel failed, publishing again on a new one: {}", e.getMessage());
+                        retried = true;
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package utils;
+
+import play.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps a trail of all the moves applied on the games of this node. Game threads only put primitive records in a
+ * {@link MoveRecordBuffer}; a background thread drains them to a rolling binary file. Each file is a plain sequence of
+ * {@link MoveRecordBuffer#RECORD_SIZE} byte big-endian records (game id, pit, state hash, nano time). When the file
+ * reaches its maximum size it is renamed to <code>name.1</code> (the older ones shift up to <code>name.(maxFiles-1)</code>)
+ * and a fresh file is started.
+ * <p>
+ * Until a log is {@link #install installed}, {@link #current()} returns a disabled log which ignores the records.
+ */
+public class MoveAuditLog implements AutoCloseable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int RECORDS_PER_WRITE = 1024;
+
+    private static final MoveAuditLog DISABLED = new MoveAuditLog();
+    private static volatile MoveAuditLog current = DISABLED;
+
+    public static MoveAuditLog current() {
+        return current;
+    }
+
+    public static void install(final MoveAuditLog log) {
+        current = log;
+    }
+
+    public static void uninstall(final MoveAuditLog log) {
+        if (current == log) {
+            current = DISABLED;
+        }
+    }
+
+    private final MoveRecordBuffer buffer;
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final ByteBuffer writeBuffer;
+    private final Thread drainer;
+
+    private FileChannel channel;
+    private volatile boolean running;
+
+    private MoveAuditLog() {
+        this.buffer = null;
+        this.file = null;
+        this.maxFileSize = 0;
+        this.maxFiles = 0;
+        this.writeBuffer = null;
+        this.drainer = null;
+    }
+
+    /**
+     * Opens (or appends to) the file and starts draining.
+     *
+     * @param file the active audit file
+     * @param capacity number of records which can wait in memory before new ones are dropped
+     * @param maxFileSize the size after which the file rolls
+     * @param maxFiles number of files kept, the active one included
+     */
+    public MoveAuditLog(final Path file,
+                        final int capacity,
+                        final long maxFileSize,
+                        final int maxFiles) throws IOException {
+        this.buffer = new MoveRecordBuffer(capacity);
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.writeBuffer = ByteBuffer.allocateDirect(MoveRecordBuffer.RECORD_SIZE * RECORDS_PER_WRITE);
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = open();
+
+        this.running = true;
+        this.drainer = new Thread(this::drainLoop, "move-audit-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Records an applied move. It never blocks and does not allocate.
+     */
+    public void record(final long gameId, final int pit, final long stateHash) {
+        if (buffer != null) {
+            buffer.offer(gameId, pit, stateHash, System.nanoTime());
+        }
+    }
+
+    public boolean isEnabled() {
+        return buffer != null;
+    }
+
+    /**
+     * @return number of records dropped because the drainer could not keep up.
+     */
+    public long dropped() {
+        return buffer == null ? 0 : buffer.dropped();
+    }
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void roll() throws IOException {
+        channel.close();
+
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + "." + (maxFiles - 1)));
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            final Path source = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(source)) {
+                Files.move(source, file.resolveSibling(file.getFileName() + "." + (i + 1)),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 1) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+
+        channel = open();
+    }
+
+    /**
+     * @return true if anything has been written
+     */
+    private boolean drainOnce() throws IOException {
+        writeBuffer.clear();
+        if (buffer.drainTo(writeBuffer) == 0) {
+            return false;
+        }
+
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+
+        if (channel.size() >= maxFileSize) {
+            roll();
+        }
+        return true;
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                if (!drainOnce()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (final IOException e) {
+                Logger.error("Writing move audit records failed due to: ", e);
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Stops the drainer, writes what is left in the buffer and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (drainer == null) {
+            return;
+        }
+
+        uninstall(this);
+        running = false;
+        try {
+            drainer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        while (drainOnce()) {
+            // Keep draining until the buffer is empty
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,107 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free ring of primitive move records. Any number of threads can {@link #offer} records while one
+ * thread {@link #drainTo drains} them. Every slot carries a sequence number which tells producers and the consumer
+ * whose turn it is to touch the slot, so neither side takes a lock or allocates. When the ring is full new records are
+ * dropped and counted rather than blocking the game thread.
+ */
+public class MoveRecordBuffer {
+    /**
+     * game id (8 bytes), pit (4 bytes), state hash (8 bytes), nano time (8 bytes)
+     */
+    public static final int RECORD_SIZE = 28;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] gameIds;
+    private final int[] pits;
+    private final long[] hashes;
+    private final long[] nanos;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long head = 0; // only touched by the draining thread
+
+    /**
+     * @param capacity number of records the ring can hold. It is rounded up to a power of two.
+     */
+    public MoveRecordBuffer(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.gameIds = new long[size];
+        this.pits = new int[size];
+        this.hashes = new long[size];
+        this.nanos = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the ring was full and the record has been dropped.
+     */
+    public boolean offer(final long gameId, final int pit, final long stateHash, final long nanoTime) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    gameIds[index] = gameId;
+                    pits[index] = pit;
+                    hashes[index] = stateHash;
+                    nanos[index] = nanoTime;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Moves as many published records as fit into the target buffer. Must only be called by one thread at a time.
+     *
+     * @return number of drained records
+     */
+    public int drainTo(final ByteBuffer target) {
+        int drained = 0;
+        while (target.remaining() >= RECORD_SIZE) {
+            final int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+
+            target.putLong(gameIds[index]);
+            target.putInt(pits[index]);
+            target.putLong(hashes[index]);
+            target.putLong(nanos[index]);
+
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+}
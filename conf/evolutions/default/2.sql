@@ -0,0 +1,9 @@
+# --- The reserved bot user which can be challenged like any other online user
+
+# --- !Ups
+
+insert into user (id, user_id, display_name, online) values ('bolboard-bot', 'bolboard:bot', 'BolBot', true);
+
+# --- !Downs
+
+delete from user where user_id = 'bolboard:bot';
@@ -0,0 +1,104 @@
+package benchmarks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import model.ActiveSession;
+import model.MessageProtocols;
+import model.SearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import play.libs.ws.WSClient;
+import scala.concurrent.Await;
+import scala.concurrent.duration.FiniteDuration;
+import server.LocalMessageBus;
+import server.MessageBus;
+import server.SessionStore;
+import server.ShardedSessionStore;
+import server.actors.Dispatcher;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static akka.pattern.Patterns.ask;
+
+/**
+ * End to end dispatch of search and game requests: authentication against the session store, the flow actor and the
+ * reply. The session store holds the one session of the benchmark, the search flow is a stand-in actor and the
+ * messages go through the in-JVM message bus, so only the dispatching cost is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+    private static final int TIMEOUT = 3000;
+    private static final FiniteDuration AWAIT = new FiniteDuration(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    public static class SearchFlowStub extends UntypedActor {
+        @Override
+        public void onReceive(final Object message) throws Exception {
+            if (message instanceof MessageProtocols.Search) {
+                sender().tell(new SearchResult(Collections.emptyList()), self());
+            }
+        }
+    }
+
+    public static class DispatcherUnderTest extends Dispatcher {
+        public DispatcherUnderTest(final WSClient client,
+                                   final MessageBus bus,
+                                   final SessionStore sessionStore,
+                                   final int flowTimeout) {
+            super(client, bus, sessionStore, null, flowTimeout);
+        }
+
+        @Override
+        protected ActorRef createSearchFlowActor() {
+            return getContext().actorOf(Props.create(SearchFlowStub.class));
+        }
+    }
+
+    private ActorSystem system;
+    private ActorRef dispatcher;
+
+    private final ActiveSession session = new ActiveSession("facebook:1", "session");
+    private final MessageProtocols.Search search = new MessageProtocols.Search(session, "Nam");
+    private final MessageProtocols.GameRequest gameRequest = new MessageProtocols.GameRequest(session, "facebook:2");
+
+    @Setup
+    public void setup() {
+        system = ActorSystem.create("dispatcher-benchmark");
+        final SessionStore sessionStore = new ShardedSessionStore();
+        sessionStore.put(session);
+        dispatcher = system.actorOf(Props.create(DispatcherUnderTest.class,
+                null, new LocalMessageBus(), sessionStore, TIMEOUT));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        system.terminate();
+        Await.ready(system.whenTerminated(), AWAIT);
+    }
+
+    @Benchmark
+    public Object dispatchSearch() throws Exception {
+        return Await.result(ask(dispatcher, search, TIMEOUT), AWAIT);
+    }
+
+    @Benchmark
+    public Object dispatchGameRequest() throws Exception {
+        return Await.result(ask(dispatcher, gameRequest, TIMEOUT), AWAIT);
+    }
+}
@@ -0,0 +1,100 @@
+package benchmarks;
+
+import model.Game;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays complete games made of random legal moves. The sequences are generated once per trial from a fixed seed, so
+ * every run measures the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GameBenchmark {
+    private static final int MAX_MOVES_PER_GAME = 500;
+
+    @Param({"1024"})
+    public int games;
+
+    @Param({"42"})
+    public long seed;
+
+    private int[][] sequences;
+    private int next;
+
+    /**
+     * Plays a game with random legal moves and returns the absolute pit indexes which have been played.
+     */
+    static int[] randomLegalGame(final Random random) {
+        final Game game = new Game(true, 0);
+        final List<Integer> moves = new ArrayList<>();
+
+        boolean ended = false;
+        while (!ended && moves.size() < MAX_MOVES_PER_GAME) {
+            final int[] legal = new int[Game.SMALL_PIT_NUMBER_PER_USER];
+            int count = 0;
+            for (int pit = 1; pit <= Game.SMALL_PIT_NUMBER_PER_USER; pit++) {
+                final int index = game.normalized(pit);
+                if (game.stonesAt(index) != 0) {
+                    legal[count++] = index;
+                }
+            }
+
+            if (count == 0) {
+                break;
+            }
+
+            final int move = legal[random.nextInt(count)];
+            moves.add(move);
+            ended = game.move(move);
+        }
+
+        return moves.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Setup(Level.Trial)
+    public void generate() {
+        final Random random = new Random(seed);
+        sequences = new int[games][];
+        for (int i = 0; i < games; i++) {
+            sequences[i] = randomLegalGame(random);
+        }
+    }
+
+    @Benchmark
+    public Game playGame() {
+        final int[] moves = sequences[next];
+        next = (next + 1) % sequences.length;
+
+        final Game game = new Game(true, 0);
+        for (int move : moves) {
+            game.move(move);
+        }
+        return game;
+    }
+
+    @Benchmark
+    public boolean singleMove() {
+        final Game game = new Game(true, 0);
+        return game.move(game.normalized(3));
+    }
+}
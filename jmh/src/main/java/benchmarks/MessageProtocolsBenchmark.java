@@ -0,0 +1,83 @@
+package benchmarks;
+
+import model.Game;
+import model.MessageProtocols.GameProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and parsing of the string messages which go through the web socket and RabbitMQ.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MessageProtocolsBenchmark {
+    private Game game;
+
+    private String requestMessage;
+    private String acceptMessage;
+    private String startMessage;
+    private String instructionMessage;
+
+    @Setup
+    public void setup() {
+        //A board in the middle of a game, so the state message has pits of different widths
+        final int[] moves = GameBenchmark.randomLegalGame(new Random(42));
+        game = new Game(true, 0);
+        for (int i = 0; i < moves.length / 2; i++) {
+            game.move(moves[i]);
+        }
+
+        requestMessage = String.format("%s=%s", GameProtocol.MQ_GAME_REQUEST_PREFIX, "facebook:1234567890");
+        acceptMessage = GameProtocol.buildAcceptMessage("facebook:1234567890", 4242L);
+        startMessage = GameProtocol.buildStartMessage("facebook:1234567890", 4242L);
+        instructionMessage = GameProtocol.buildGameInstructionMessage("4");
+    }
+
+    @Benchmark
+    public String buildGameStateMessage() {
+        return GameProtocol.buildGameStateMessage(game);
+    }
+
+    @Benchmark
+    public String buildGameTurnMessage() {
+        return GameProtocol.buildGameTurnMessage(true);
+    }
+
+    @Benchmark
+    public void classify(final Blackhole blackhole) {
+        blackhole.consume(GameProtocol.isGameRequestMessage(instructionMessage));
+        blackhole.consume(GameProtocol.isGameAcceptedMessage(instructionMessage));
+        blackhole.consume(GameProtocol.isGameStartMessage(instructionMessage));
+        blackhole.consume(GameProtocol.isGameRejectedMessage(instructionMessage));
+        blackhole.consume(GameProtocol.isGameInstructionMessage(instructionMessage));
+    }
+
+    @Benchmark
+    public void fetch(final Blackhole blackhole) {
+        blackhole.consume(GameProtocol.fetchRequester(requestMessage));
+        blackhole.consume(GameProtocol.fetchAccepter(acceptMessage));
+        blackhole.consume(GameProtocol.fetchStarter(startMessage));
+        blackhole.consume(GameProtocol.fetchGameInstruction(instructionMessage));
+    }
+
+    @Benchmark
+    public int parseInstruction() {
+        return Integer.parseInt(GameProtocol.fetchGameInstruction(instructionMessage));
+    }
+}
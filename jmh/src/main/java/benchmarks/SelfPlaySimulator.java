@@ -0,0 +1,339 @@
+package benchmarks;
+
+import model.Board;
+import model.Game;
+import model.Geometry;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a large number of games of {@link Game} against itself on a fork-join pool and reports the throughput of the
+ * rules engine, the allocation rate, the distribution of the game lengths and how each opening move scores.
+ * <p>
+ * Every game draws its moves from its own random generator, seeded from the seed of the run and the number of the game.
+ * So the games played, and all the counts reported, are the same whatever the parallelism and the machine; only the
+ * rates change. Run it with:
+ * <pre>
+ *     ./activator "simulate games=1000000 parallelism=8 seed=42 policy=greedy"
+ * </pre>
+ */
+public class SelfPlaySimulator {
+    private static final int MAX_MOVES_PER_GAME = 1000;
+    private static final int GAMES_PER_TASK = 4096;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Chooses the moves of both players.
+     */
+    public enum Policy {
+        /**
+         * Any non-empty pit of the player.
+         */
+        RANDOM {
+            @Override
+            int choose(final Board board, final Board scratch, final int player, final SplittableRandom random) {
+                final int pits = board.getGeometry().getPitsPerPlayer();
+                final int first = player * (pits + 1);
+                int count = 0;
+                int chosen = -1;
+                // Reservoir sampling, so no list of the legal moves is needed
+                for (int i = first; i < first + pits; i++) {
+                    if (board.get(i) != 0 && random.nextInt(++count) == 0) {
+                        chosen = i;
+                    }
+                }
+                return chosen;
+            }
+        },
+        /**
+         * A move which plays again if there is one, otherwise the one which puts most stones in the large pit. Ties
+         * are broken randomly.
+         */
+        GREEDY {
+            @Override
+            int choose(final Board board, final Board scratch, final int player, final SplittableRandom random) {
+                final int pits = board.getGeometry().getPitsPerPlayer();
+                final int first = player * (pits + 1);
+                final int store = board.store(player);
+
+                int bestGain = Integer.MIN_VALUE;
+                int count = 0;
+                int chosen = -1;
+                for (int i = first; i < first + pits; i++) {
+                    if (board.get(i) == 0) {
+                        continue;
+                    }
+                    scratch.copyFrom(board);
+                    final boolean again = scratch.move(player, i);
+                    final int gain = (again ? board.size() : 0) + scratch.get(store) - board.get(store);
+
+                    if (gain > bestGain) {
+                        bestGain = gain;
+                        count = 1;
+                        chosen = i;
+                    } else if (gain == bestGain && random.nextInt(++count) == 0) {
+                        chosen = i;
+                    }
+                }
+                return chosen;
+            }
+        };
+
+        /**
+         * @param scratch a board the policy may change freely, so choosing a move allocates nothing
+         * @return the absolute index of the chosen pit.
+         */
+        abstract int choose(Board board, Board scratch, int player, SplittableRandom random);
+    }
+
+    /**
+     * Counts of a range of games. Everything but the allocated bytes is deterministic.
+     */
+    public static class Result {
+        private long games;
+        private long moves;
+        private long unfinished;
+        private long allocatedBytes;
+        private final long[] lengths = new long[MAX_MOVES_PER_GAME + 1];
+        /**
+         * Per opening pit of the first player: games, won by the first player, drawn.
+         */
+        private final long[][] openings;
+
+        Result(final int pitsPerPlayer) {
+            openings = new long[pitsPerPlayer][3];
+        }
+
+        void merge(final Result other) {
+            games += other.games;
+            moves += other.moves;
+            unfinished += other.unfinished;
+            allocatedBytes += other.allocatedBytes;
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] += other.lengths[i];
+            }
+            for (int i = 0; i < openings.length; i++) {
+                for (int j = 0; j < 3; j++) {
+                    openings[i][j] += other.openings[i][j];
+                }
+            }
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        public long getMoves() {
+            return moves;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return the number of games which ended after the given number of moves.
+         */
+        public long gamesOfLength(final int moves) {
+            return lengths[moves];
+        }
+
+        /**
+         * The length under which the given fraction of the games ended.
+         */
+        public int lengthPercentile(final double fraction) {
+            long seen = 0;
+            for (int i = 0; i < lengths.length; i++) {
+                seen += lengths[i];
+                if (seen >= fraction * games) {
+                    return i;
+                }
+            }
+            return lengths.length - 1;
+        }
+    }
+
+    private final Geometry geometry;
+    private final Policy policy;
+    private final long seed;
+
+    public SelfPlaySimulator(final Geometry geometry, final Policy policy, final long seed) {
+        this.geometry = geometry;
+        this.policy = policy;
+        this.seed = seed;
+    }
+
+    /**
+     * Same mixing as {@link SplittableRandom}, so nearby game numbers get unrelated generators.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Plays the game with the given number and adds it to the result.
+     */
+    void play(final long number, final Result result) {
+        final SplittableRandom random = new SplittableRandom(mix(seed + number * GOLDEN_GAMMA));
+        final Game game = new Game(number, geometry, true, 0);
+        final Board board = new Board(geometry);
+        final Board scratch = new Board(geometry);
+
+        int moves = 0;
+        int opening = -1;
+        boolean ended = false;
+        while (!ended && moves < MAX_MOVES_PER_GAME) {
+            final int player = game.playerToMove();
+            for (int i = 0; i < board.size(); i++) {
+                board.set(i, game.stonesAt(i));
+            }
+            final int pit = policy.choose(board, scratch, player, random);
+            if (opening == -1) {
+                opening = pit;
+            }
+            ended = game.move(pit);
+            moves++;
+        }
+
+        result.games++;
+        result.moves += moves;
+        result.lengths[moves]++;
+        if (!ended) {
+            result.unfinished++;
+            return;
+        }
+
+        final int first = score(game, 0);
+        final int second = score(game, 1);
+        final long[] openingCounts = result.openings[opening];
+        openingCounts[0]++;
+        if (first > second) {
+            openingCounts[1]++;
+        } else if (first == second) {
+            openingCounts[2]++;
+        }
+    }
+
+    private int score(final Game game, final int player) {
+        final int pits = geometry.getPitsPerPlayer();
+        int score = 0;
+        for (int i = player * (pits + 1); i <= player * (pits + 1) + pits; i++) {
+            score += game.stonesAt(i);
+        }
+        return score;
+    }
+
+    /**
+     * Plays the games of [from, to), splitting the range until it is small enough to be played by one thread.
+     */
+    private final class Games extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+
+        Games(final long from, final long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from > GAMES_PER_TASK) {
+                final long middle = (from + to) >>> 1;
+                final Games left = new Games(from, middle);
+                left.fork();
+                final Result result = new Games(middle, to).compute();
+                result.merge(left.join());
+                return result;
+            }
+
+            final long allocatedBefore = allocatedBytes();
+            final Result result = new Result(geometry.getPitsPerPlayer());
+            for (long number = from; number < to; number++) {
+                play(number, result);
+            }
+            result.allocatedBytes = allocatedBytes() - allocatedBefore;
+            return result;
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or 0 if the JVM does not tell.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    public Result run(final long games, final ForkJoinPool pool) {
+        return pool.invoke(new Games(0, games));
+    }
+
+    public static void main(final String[] args) {
+        long games = 1000000;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long seed = 42;
+        Policy policy = Policy.RANDOM;
+        int pits = Game.SMALL_PIT_NUMBER_PER_USER;
+        int stones = Game.STONE_NUMBER_PER_PIT;
+
+        for (String arg : args) {
+            final String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                System.err.println("Usage: SelfPlaySimulator [games=n] [parallelism=n] [seed=n] "
+                        + "[policy=random|greedy] [pits=n] [stones=n]");
+                System.exit(1);
+            }
+            switch (option[0]) {
+                case "games": games = Long.parseLong(option[1]); break;
+                case "parallelism": parallelism = Integer.parseInt(option[1]); break;
+                case "seed": seed = Long.parseLong(option[1]); break;
+                case "policy": policy = Policy.valueOf(option[1].toUpperCase()); break;
+                case "pits": pits = Integer.parseInt(option[1]); break;
+                case "stones": stones = Integer.parseInt(option[1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        final SelfPlaySimulator simulator = new SelfPlaySimulator(Geometry.of(pits, stones), policy, seed);
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final long start = System.nanoTime();
+        final Result result = simulator.run(games, pool);
+        final double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        pool.shutdown();
+
+        System.out.printf("%d games (%s, seed %d, %dx%d) on %d threads in %.2f s%n",
+                result.games, policy, seed, pits, stones, parallelism, seconds);
+        System.out.printf("games/s: %.0f%n", result.games / seconds);
+        System.out.printf("moves/s: %.0f%n", result.moves / seconds);
+        System.out.printf("allocation: %.1f MB/s, %.1f bytes/move%n",
+                result.allocatedBytes / seconds / 1024 / 1024, result.allocatedBytes / (double) result.moves);
+        System.out.printf("game length: mean %.1f, p50 %d, p90 %d, p99 %d, max %d, unfinished %d%n",
+                result.moves / (double) result.games,
+                result.lengthPercentile(0.5),
+                result.lengthPercentile(0.9),
+                result.lengthPercentile(0.99),
+                result.lengthPercentile(1.0),
+                result.unfinished);
+        System.out.println("opening  games  first player wins  draws");
+        for (int i = 0; i < result.openings.length; i++) {
+            final long[] counts = result.openings[i];
+            System.out.printf("%7d  %5d  %16.1f%%  %5.1f%%%n", i + 1, counts[0],
+                    100.0 * counts[1] / Math.max(1, counts[0]), 100.0 * counts[2] / Math.max(1, counts[0]));
+        }
+    }
+}
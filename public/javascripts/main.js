@@ -4,12 +4,22 @@ var turnMessage = "##turn";
 var notTurnMessage = "##~turn";
 var endMessage = "end";
 var statePrefix = "$$";
+var deltaPrefix = "%%";
+var syncMessage = "##sync";
+var ackPrefix = "##ack=";
+// Time in milliseconds the frames received are acknowledged together
+var ackDelay = 50;
+var deltaTurnFlag = 1;
+var deltaEndFlag = 2;
 
 var userStartingIndex = -1;
 var opponentStartingIndex = -1;
 var userDisplayName = "";
+var boardState = [];
 
 var socket;
+var received = 0;
+var ackTimer = null;
 
 function statusChangeCallback(response) {
     if (response.status === 'connected') {
@@ -83,6 +93,7 @@ function createSession(fbLoginResponse) {
 function handlingSocket(activeSession) {
     //TODO: making the socket server configurable.
     socket = new WebSocket("ws://localhost:9000/socket");
+    received = 0;
 
     var msg = activeSession.userId.toString().concat("=", activeSession.sessionId.toString());
 
@@ -92,12 +103,15 @@ function handlingSocket(activeSession) {
 
     socket.onmessage = function (event) {
         var data = event.data.toString();
+        acknowledge();
 
         console.log(data);
 
         if (data.startsWith(opponentMessagePrefix)) {
             var opponent = data.replace(opponentMessagePrefix, "");
             goto_game_state(opponent, userDisplayName);
+            boardState = [];
+            socket.send(syncMessage);
         } else if (data == waitingForGameMessage) {
             goto_search_state();
         } else if (data == turnMessage) {
@@ -114,13 +128,50 @@ function handlingSocket(activeSession) {
             hide_input();
         } else if (data.startsWith(statePrefix)) {
             var stateMessage = data.replace(statePrefix, "");
+            boardState = stateMessage.split("-");
             update_board(stateMessage, userStartingIndex, opponentStartingIndex);
+        } else if (data.startsWith(deltaPrefix)) {
+            apply_delta(data.substring(deltaPrefix.length));
         } else if (data == endMessage) {
             hide_input();
         }
     };
 }
 
+// The server holds back the frames once too many are not acknowledged
+function acknowledge() {
+    received++;
+    if (ackTimer == null) {
+        ackTimer = setTimeout(function () {
+            ackTimer = null;
+            socket.send(ackPrefix + received);
+        }, ackDelay);
+    }
+}
+
+// "flags,pit:stones,pit:stones..." with the pits changed by the last move, or all of them after a sync
+function apply_delta(delta) {
+    var parts = delta.split(",");
+    var flags = parseInt(parts[0]);
+
+    for (var i = 1; i < parts.length; i++) {
+        var change = parts[i].split(":");
+        boardState[parseInt(change[0])] = change[1];
+    }
+
+    if (userStartingIndex == -1 && (flags & deltaEndFlag) == 0) {
+        userStartingIndex = (flags & deltaTurnFlag) != 0 ? 0 : 7;
+        opponentStartingIndex = 7 - userStartingIndex;
+    }
+    update_board(boardState.join("-"), userStartingIndex, opponentStartingIndex);
+
+    if ((flags & deltaTurnFlag) != 0) {
+        show_input();
+    } else {
+        hide_input();
+    }
+}
+
 var lastSearchPhrase = ""
 
 function searchPlayer() {
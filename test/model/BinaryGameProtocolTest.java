@@ -0,0 +1,172 @@
+package model;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static model.MessageProtocols.GameProtocol.*;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BinaryGameProtocolTest {
+    private final byte[] buffer = new byte[BinaryGameProtocol.maxSize(64)];
+
+    private byte[] message(final int length) {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Test
+    public void testVarint() {
+        for (long value : new long[]{0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1}) {
+            final int end = BinaryGameProtocol.writeVarint(buffer, 3, value);
+            assertThat(BinaryGameProtocol.readVarint(buffer, 3), is(value));
+            assertThat(BinaryGameProtocol.skipVarint(buffer, 3), is(end));
+        }
+    }
+
+    @Test
+    public void testStateRoundTrip() {
+        final Game game = new Game(true, 0);
+        game.move(2);
+
+        final byte[] state = message(BinaryGameProtocol.encodeState(buffer, 300, game));
+        assertThat(BinaryGameProtocol.opcode(state), is(BinaryGameProtocol.STATE));
+        assertThat(BinaryGameProtocol.sequence(state), is(300L));
+        assertThat(state.length, is(1 + 2 + 1 + game.size()));
+
+        final int[] pits = new int[game.size()];
+        assertThat(BinaryGameProtocol.decodeState(state, pits), is(game.size()));
+        assertThat(pits, is(game.getState()));
+        assertThat(BinaryGameProtocol.toText(state), is(buildGameStateMessage(game)));
+    }
+
+    @Test
+    public void testTextFramesAreEncodedAsTheSameMessages() {
+        final Game game = new Game(true, 0);
+        for (String text : new String[]{
+                buildGameTurnMessage(true),
+                buildGameTurnMessage(false),
+                buildGameEndMessage(),
+                buildSocketWaitingForRequestMessage(),
+                buildSocketGameStartMessage("Nami Çelik"),
+                buildRejectMessage("facebook:12"),
+                buildGameStateMessage(game),
+                buildGameDeltaMessage(null, game, true, false),
+                buildGameDeltaMessage(game.getState(), game, false, true)}) {
+            final int length = BinaryGameProtocol.encodeFrame(buffer, 7, text);
+            assertThat(BinaryGameProtocol.toText(message(length)), is(text));
+        }
+
+        assertThat(BinaryGameProtocol.encodeFrame(buffer, 7, "game_request=facebook:12"), is(-1));
+    }
+
+    @Test
+    public void testDelta() {
+        final Game game = new Game(true, 0);
+        final int[] previous = game.getState();
+        game.move(2);
+
+        final byte[] delta = message(BinaryGameProtocol.encodeDelta(buffer, 9, previous, game, true, false));
+        assertThat(BinaryGameProtocol.opcode(delta), is(BinaryGameProtocol.DELTA));
+        assertThat(BinaryGameProtocol.decodeDeltaFlags(delta), is(GAME_DELTA_TURN));
+        assertThat(delta.length, is(1 + 1 + 1 + 1 + 2 * 7));
+        assertThat(BinaryGameProtocol.toText(delta), is(buildGameDeltaMessage(previous, game, true, false)));
+
+        assertThat(BinaryGameProtocol.decodeDelta(delta, previous), is(7));
+        assertThat(previous, is(game.getState()));
+        assertThat(BinaryGameProtocol.decodeDelta(delta, new int[3]), is(-1));
+    }
+
+    @Test
+    public void testMoveOfPlayer() {
+        final byte[][] players = {
+                "facebook:1".getBytes(StandardCharsets.UTF_8),
+                "facebook:12".getBytes(StandardCharsets.UTF_8)};
+
+        final byte[] move = message(BinaryGameProtocol.encodeMove(buffer, 1, 4, "facebook:12"));
+        assertThat(BinaryGameProtocol.decodeMovePit(move), is(4));
+        assertThat(BinaryGameProtocol.decodePlayer(move, players), is(1));
+
+        final byte[] reject = message(BinaryGameProtocol.encodeReject(buffer, 2, "facebook:1"));
+        assertThat(BinaryGameProtocol.decodePlayer(reject, players), is(0));
+
+        final byte[] sync = message(BinaryGameProtocol.encodeSync(buffer, 3, "facebook:12"));
+        assertThat(BinaryGameProtocol.decodePlayer(sync, players), is(1));
+
+        final byte[] ack = message(BinaryGameProtocol.encodeAck(buffer, 4, 300));
+        assertThat(BinaryGameProtocol.opcode(ack), is(BinaryGameProtocol.ACK));
+        assertThat(BinaryGameProtocol.decodeAck(ack), is(300L));
+
+        final byte[] stranger = message(BinaryGameProtocol.encodeMove(buffer, 3, 4, "facebook:13"));
+        assertThat(BinaryGameProtocol.decodePlayer(stranger, players), is(-1));
+    }
+
+    @Test
+    public void testHelloAndRestamp() {
+        final byte[] hello = message(BinaryGameProtocol.encodeHello(buffer, "facebook:12=session"));
+        assertThat(BinaryGameProtocol.opcode(hello), is(BinaryGameProtocol.HELLO));
+        assertThat(BinaryGameProtocol.decodeHello(hello), is("facebook:12=session"));
+
+        final byte[] original = message(BinaryGameProtocol.encodeReject(buffer, 5, "facebook:12"));
+        final byte[] target = new byte[BinaryGameProtocol.maxSize(64)];
+        final byte[] restamped = Arrays.copyOf(target,
+                BinaryGameProtocol.restamp(original, original.length, target, 1000));
+        assertThat(BinaryGameProtocol.sequence(restamped), is(1000L));
+        assertThat(BinaryGameProtocol.toText(restamped), is(buildRejectMessage("facebook:12")));
+
+        assertThat(BinaryGameProtocol.toText(new byte[]{42, 0}), is(nullValue()));
+    }
+
+    @Test
+    public void testCutFramesAreInvalid() {
+        final Game game = new Game(true, 0);
+        final byte[][] players = {"facebook:12".getBytes(StandardCharsets.UTF_8)};
+        final byte[][] frames = {
+                message(BinaryGameProtocol.encodeState(buffer, 300, game)),
+                message(BinaryGameProtocol.encodeDelta(buffer, 300, null, game, true, false)),
+                message(BinaryGameProtocol.encodeMove(buffer, 300, 4, "facebook:12")),
+                message(BinaryGameProtocol.encodeHello(buffer, "facebook:12=session")),
+                message(BinaryGameProtocol.encodeReject(buffer, 300, "facebook:12")),
+                message(BinaryGameProtocol.encodeAck(buffer, 300, 300))
+        };
+
+        //Every frame cut anywhere, even in its header, is read as invalid instead of throwing
+        final int[] pits = new int[game.size()];
+        for (byte[] frame : frames) {
+            for (int length = 0; length < frame.length; length++) {
+                final byte[] cut = Arrays.copyOf(frame, length);
+                switch (frame[0]) {
+                    case BinaryGameProtocol.STATE:
+                        assertThat(BinaryGameProtocol.decodeState(cut, pits), is(-1));
+                        break;
+                    case BinaryGameProtocol.DELTA:
+                        assertThat(BinaryGameProtocol.decodeDelta(cut, pits), is(-1));
+                        break;
+                    case BinaryGameProtocol.MOVE:
+                        assertThat(BinaryGameProtocol.decodePlayer(cut, players), is(-1));
+                        if (length < 3) {
+                            assertThat(BinaryGameProtocol.decodeMovePit(cut), is(-1));
+                        }
+                        break;
+                    case BinaryGameProtocol.HELLO:
+                        assertThat(BinaryGameProtocol.decodeHello(cut), is(nullValue()));
+                        break;
+                    case BinaryGameProtocol.REJECT:
+                        assertThat(BinaryGameProtocol.decodePlayer(cut, players), is(-1));
+                        break;
+                    default:
+                        assertThat(BinaryGameProtocol.decodeAck(cut), is(-1L));
+                }
+                assertThat(BinaryGameProtocol.toText(cut), is(nullValue()));
+                if (length < BinaryGameProtocol.skipVarint(frame, 1)) {
+                    assertThat(BinaryGameProtocol.restamp(cut, cut.length, buffer, 1), is(-1));
+                }
+            }
+        }
+
+        //A state of more pits than the board is invalid too
+        assertThat(BinaryGameProtocol.decodeState(frames[0], new int[game.size() - 1]), is(-1));
+    }
+}
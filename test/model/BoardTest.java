@@ -0,0 +1,69 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class BoardTest {
+
+    private static Board rebuilt(final Board board) {
+        final int[] pits = new int[board.size()];
+        board.copyTo(pits);
+
+        final Board copy = new Board(board.getGeometry());
+        copy.load(pits);
+        return copy;
+    }
+
+    /**
+     * The hash kept up to date by the moves must always be the hash of the board built from scratch.
+     */
+    @Test
+    public void testIncrementalHashMatchesRecomputedHash() {
+        final Random random = new Random(7);
+
+        for (Geometry geometry : new Geometry[]{Geometry.DEFAULT, Geometry.of(8, 4), Geometry.of(10, 6)}) {
+            for (int game = 0; game < 200; game++) {
+                final Board board = new Board(geometry);
+                int player = 0;
+
+                while (!board.isEnded()) {
+                    final int first = player * (geometry.getPitsPerPlayer() + 1);
+                    final int pit = first + random.nextInt(geometry.getPitsPerPlayer());
+                    if (board.get(pit) == 0) {
+                        continue;
+                    }
+
+                    if (!board.move(player, pit)) {
+                        player = 1 - player;
+                    }
+                    assertThat(board.hash(), is(rebuilt(board).hash()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHashDependsOnPlayerToMove() {
+        final Board board = new Board(Geometry.DEFAULT);
+
+        assertThat(board.hash(0), is(board.hash()));
+        assertThat(board.hash(1), is(not(board.hash(0))));
+    }
+
+    @Test
+    public void testCopiesShareTheHash() {
+        final Board board = new Board(Geometry.DEFAULT);
+        board.move(0, 2);
+
+        final Board copy = new Board(Geometry.DEFAULT);
+        copy.copyFrom(board);
+
+        assertThat(copy.hash(), is(board.hash()));
+        assertThat(new Board(board).hash(), is(board.hash()));
+    }
+}
@@ -0,0 +1,138 @@
+package model;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static model.MessageProtocols.GameProtocol.*;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class GameMessageViewTest {
+    private final GameMessageView view = new GameMessageView();
+
+    private static byte[] bytes(final String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testKinds() {
+        final Game game = new Game(true, 0);
+        final Object[][] cases = {
+                {"game_request=facebook:12", GameMessageView.Kind.GAME_REQUEST},
+                {buildAcceptMessage("facebook:12", 42), GameMessageView.Kind.ACCEPT},
+                {buildRejectMessage("facebook:12"), GameMessageView.Kind.REJECT},
+                {buildStartMessage("facebook:12", 42), GameMessageView.Kind.START},
+                {buildMoveMessage("facebook:12", 4), GameMessageView.Kind.MOVE},
+                {buildSyncMessage("facebook:12"), GameMessageView.Kind.SYNC},
+                {buildGameInstructionMessage(GAME_SYNC_INSTRUCTION), GameMessageView.Kind.SYNC},
+                {buildAckMessage(12), GameMessageView.Kind.ACK},
+                {"##ack=", GameMessageView.Kind.UNKNOWN},
+                {buildGameInstructionMessage("3"), GameMessageView.Kind.INSTRUCTION},
+                {buildGameTurnMessage(true), GameMessageView.Kind.TURN},
+                {buildGameTurnMessage(false), GameMessageView.Kind.NOT_TURN},
+                {buildGameStateMessage(game), GameMessageView.Kind.STATE},
+                {buildGameDeltaMessage(null, game, true, false), GameMessageView.Kind.DELTA},
+                {"%%", GameMessageView.Kind.UNKNOWN},
+                {"%%7,1:2", GameMessageView.Kind.UNKNOWN},
+                {buildGameEndMessage(), GameMessageView.Kind.END},
+                {"", GameMessageView.Kind.UNKNOWN},
+                {"game_request", GameMessageView.Kind.UNKNOWN},
+                {"ending", GameMessageView.Kind.UNKNOWN},
+                {"##turns", GameMessageView.Kind.UNKNOWN},
+                {"startle=facebook:12", GameMessageView.Kind.UNKNOWN}};
+
+        for (Object[] c : cases) {
+            final String message = (String) c[0];
+            assertThat(message, view.decode(message).kind(), is(c[1]));
+            assertThat(message, view.decode(bytes(message)).kind(), is(c[1]));
+        }
+    }
+
+    @Test
+    public void testNumbersAndUserIds() {
+        for (boolean binary : new boolean[]{false, true}) {
+            final String accept = buildAcceptMessage("facebook:12", 42);
+            decode(accept, binary);
+            assertThat(view.userId(), is("facebook:12"));
+            assertThat(view.number(), is(42L));
+
+            decode(buildMoveMessage("Çelik", 4), binary);
+            assertThat(view.userId(), is("Çelik"));
+            assertThat(view.userIdEquals("Çelik"), is(true));
+            assertThat(view.userIdEquals("Celik"), is(false));
+            assertThat(view.number(), is(4L));
+
+            decode(buildRejectMessage("facebook:12"), binary);
+            assertThat(view.userIdEquals("facebook:12"), is(true));
+            assertThat(view.userIdEquals("facebook:1"), is(false));
+            assertThat(view.number(), is(-1L));
+
+            decode("start=facebook:12", binary);
+            assertThat(view.userId(), is("facebook:12"));
+            assertThat(view.number(), is(-1L));
+
+            decode(buildStartMessage("facebook:12", 43) + "x", binary);
+            assertThat(view.number(), is(-1L));
+
+            decode(buildGameTurnMessage(true), binary);
+            assertThat(view.hasUserId(), is(false));
+            assertThat(view.userId(), is(nullValue()));
+
+            decode(buildGameInstructionMessage("5"), binary);
+            assertThat(view.number(), is(5L));
+        }
+    }
+
+    @Test
+    public void testStateInto() {
+        final Game game = new Game(true, 0);
+        game.move(2);
+        final int[] pits = new int[game.size()];
+
+        for (boolean binary : new boolean[]{false, true}) {
+            decode(buildGameStateMessage(game), binary);
+            assertThat(view.stateInto(pits), is(game.size()));
+            assertThat(pits, is(game.getState()));
+
+            assertThat(view.stateInto(new int[game.size() - 1]), is(-1));
+            assertThat(decode("$$1--2", binary).stateInto(pits), is(-1));
+            assertThat(decode("$$1-a", binary).stateInto(pits), is(-1));
+            assertThat(decode("$$", binary).stateInto(pits), is(-1));
+            assertThat(decode(buildGameEndMessage(), binary).stateInto(pits), is(-1));
+        }
+    }
+
+    @Test
+    public void testDeltaInto() {
+        final Game game = new Game(true, 0);
+        final int[] previous = game.getState();
+        final int[] pits = game.getState();
+        game.move(2);
+
+        for (boolean binary : new boolean[]{false, true}) {
+            System.arraycopy(previous, 0, pits, 0, pits.length);
+            decode(buildGameDeltaMessage(previous, game, true, false), binary);
+            assertThat(view.number(), is((long) GAME_DELTA_TURN));
+            assertThat(view.deltaInto(pits), is(7));
+            assertThat(pits, is(game.getState()));
+
+            decode(buildGameDeltaMessage(null, game, false, true), binary);
+            assertThat(view.number(), is((long) GAME_DELTA_END));
+            assertThat(view.deltaInto(new int[game.size()]), is(game.size()));
+
+            assertThat(decode("%%0", binary).deltaInto(pits), is(0));
+            assertThat(decode("%%0,1:5,14:2", binary).deltaInto(pits), is(-1));
+            assertThat(pits, is(game.getState()));
+            assertThat(decode("%%0,1", binary).deltaInto(pits), is(-1));
+            assertThat(decode("%%0,1:", binary).deltaInto(pits), is(-1));
+            assertThat(decode("%%0,,1:2", binary).deltaInto(pits), is(-1));
+            assertThat(decode("%%01:2", binary).deltaInto(pits), is(-1));
+        }
+    }
+
+    private GameMessageView decode(final String message, final boolean binary) {
+        return binary ? view.decode(bytes(message)) : view.decode(message);
+    }
+}
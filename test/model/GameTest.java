@@ -3,6 +3,7 @@ package model;
 import org.junit.Test;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
@@ -188,5 +189,67 @@ public class GameTest {
         assertArrayEquals(game.getState(), new int[] {7, 7, 7, 2, 1, 6, 11, 1, 2, 3, 4, 5, 0, 16});
     }
 
+    /**
+     * A pit with more stones than the board can take in one lap sows around the board more than once and skips the
+     * large pit of the other player on every lap.
+     */
+    @Test
+    public void testMultiLapSowing() {
+        final Game game = new Game(true, 0);
+        game.moveToState(new int[] {6, 6, 6, 6, 6, 28, 0, 6, 6, 6, 6, 6, 6, 0});
+
+        assertFalse(game.move(game.normalized(6)));
+
+        assertArrayEquals(game.getState(), new int[] {8, 8, 8, 8, 8, 2, 3, 9, 8, 8, 8, 8, 8, 0});
+        assertFalse(game.getTurn());
+    }
+
+    @Test
+    public void testGameEndingWhenOpponentSideIsEmpty() {
+        final Game game = new Game(false, 0);
+        game.moveToState(new int[] {1, 2, 3, 4, 5, 1, 11, 0, 0, 0, 0, 0, 1, 15});
+
+        //The last stone of the opponent lands in his large pit, so his side becomes empty.
+        assertTrue(game.move(game.normalized(6)));
+    }
+
+    @Test
+    public void testStateAccessors() {
+        final Game game = new Game(true, 0);
+        final int[] state = game.getState();
+
+        assertThat(game.size(), is(state.length));
+        for (int i = 0; i < state.length; i++) {
+            assertThat(game.stonesAt(i), is(state[i]));
+        }
+    }
+
+    @Test
+    public void testGeometryIsShared() {
+        assertThat(Geometry.of(8, 4), is(sameInstance(Geometry.of(8, 4))));
+        assertThat(new Game(true, 0).getGeometry(), is(sameInstance(Geometry.DEFAULT)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGeometryWhichDoesNotFitIsRejected() {
+        Geometry.of(20, 10);
+    }
+
+    @Test
+    public void testCustomGeometry() {
+        final Geometry geometry = Geometry.of(8, 4);
+        final Game game = new Game(1, geometry, true, 0);
+
+        assertArrayEquals(game.getState(), new int[] {4, 4, 4, 4, 4, 4, 4, 4, 0, 4, 4, 4, 4, 4, 4, 4, 4, 0});
+
+        //The last stone of pit 5 (index 4) ends in the large pit of the user, so it is still his turn
+        assertFalse(game.move(game.normalized(5)));
+        assertTrue(game.getTurn());
+        assertArrayEquals(game.getState(), new int[] {4, 4, 4, 4, 0, 5, 5, 5, 1, 4, 4, 4, 4, 4, 4, 4, 4, 0});
+
+        final Game opponentView = new Game(1, geometry, false, 9);
+        assertThat(opponentView.normalized(5), is(4));
+    }
+
     //TODO: More tests can be added.
 }
@@ -2,14 +2,64 @@ package model;
 
 import org.junit.Test;
 
-import static model.MessageProtocols.GameProtocol.buildAcceptMessage;
+import static model.MessageProtocols.GameProtocol.*;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class MessageProtocolsTest {
     @Test
     public void testBuildAcceptMessage() {
-        assertThat(buildAcceptMessage("test"), is("accept=test"));
+        assertThat(buildAcceptMessage("test", 42), is("accept=test=42"));
+    }
+
+    @Test
+    public void testAcceptAndStartCarryTheGameId() {
+        final String accept = buildAcceptMessage("facebook:123", 42);
+        assertThat(fetchAccepter(accept), is("facebook:123"));
+        assertThat(fetchGameId(accept), is(42L));
+
+        final String start = buildStartMessage("bolboard:bot:7", 43);
+        assertThat(fetchStarter(start), is("bolboard:bot:7"));
+        assertThat(fetchGameId(start), is(43L));
+
+        assertThat(fetchGameId("start=facebook:123"), is(nullValue()));
+    }
+
+    @Test
+    public void testMoveMessage() {
+        final String move = buildMoveMessage("facebook:123", 4);
+        assertThat(isGameMoveMessage(move), is(true));
+        assertThat(fetchMover(move), is("facebook:123"));
+        assertThat(fetchMovePit(move), is(4));
+    }
+
+    @Test
+    public void testGameFrames() {
+        assertThat(isGameFrameMessage(buildGameTurnMessage(true)), is(true));
+        assertThat(isGameFrameMessage(buildGameTurnMessage(false)), is(true));
+        assertThat(isGameFrameMessage(buildGameEndMessage()), is(true));
+        assertThat(isGameFrameMessage(buildGameInstructionMessage("3")), is(false));
+
+        final String state = buildGameStateMessage(new Game(true, 0));
+        assertThat(isGameFrameMessage(state), is(true));
+        assertThat(fetchGameState(state), is(new int[]{6, 6, 6, 6, 6, 6, 0, 6, 6, 6, 6, 6, 6, 0}));
+    }
+
+    @Test
+    public void testGameDelta() {
+        final Game game = new Game(true, 0);
+        final int[] previous = game.getState();
+        game.move(4);
+
+        final String delta = buildGameDeltaMessage(previous, game, false, false);
+        assertThat(delta, is("%%0,4:0,5:7,6:1,7:7,8:7,9:7,10:7"));
+        assertThat(isGameFrameMessage(delta), is(true));
+        assertThat(fetchGameDeltaFlags(delta), is(0));
+
+        assertThat(fetchGameDeltaFlags(buildGameDeltaMessage(null, game, true, true)), is(3));
+        assertThat(fetchGameDeltaFlags("%%9"), is(-1));
+        assertThat(fetchGameDeltaFlags(buildGameEndMessage()), is(-1));
     }
 
     //TODO: the same for other build message functions
@@ -4,28 +4,26 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.testkit.JavaTestKit;
-import com.rabbitmq.client.AMQP;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.DefaultConsumer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
-import org.mockito.Matchers;
 import scala.concurrent.duration.FiniteDuration;
-import server.actors.SessionInMemoryStore;
+import server.AmqpMessageBus;
+import server.MessageBus;
+import server.NodeQueue;
+import server.OutboundQueue;
+import server.SessionStore;
+import server.SessionTokens;
+import server.ShardedSessionStore;
 import server.actors.SocketHandler;
+import utils.ChannelPool;
 
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
-import static org.junit.Assert.fail;
-import static org.mockito.Matchers.anyBoolean;
-import static org.mockito.Matchers.anyMap;
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 public class SocketHandlerTest {
     static ActorSystem system;
@@ -43,9 +41,9 @@ public class SocketHandlerTest {
 
     public static class ActorUnderTest extends SocketHandler {
         public ActorUnderTest(final ActorRef out,
-                              final ActorRef sessionStore,
-                              final Connection connection) {
-            super(out, sessionStore, connection);
+                              final SessionStore sessionStore,
+                              final MessageBus bus) {
+            super(out, sessionStore, null, bus, new OutboundQueue.Factory(), false);
         }
     }
 
@@ -54,14 +52,11 @@ public class SocketHandlerTest {
         new JavaTestKit(system) {
             {
                 final JavaTestKit outProbe = new JavaTestKit(system);
-                final JavaTestKit sessionStoreProbe = new JavaTestKit(system);
-                final Connection connection = mock(Connection.class);
-
                 final ActorRef underTest = system.actorOf(
                         Props.create(ActorUnderTest.class,
                                 outProbe.getRef(),
-                                sessionStoreProbe.getRef(),
-                                connection));
+                                new ShardedSessionStore(),
+                                mock(MessageBus.class)));
 
                 //the session message is in invalid format (correct format: userid=sessionid)
                 underTest.tell("wrong-session-message", getRef());
@@ -72,7 +67,6 @@ public class SocketHandlerTest {
                     @Override
                     protected void run() {
                         expectTerminated(underTest);
-                        sessionStoreProbe.expectNoMsg();
                     }
                 };
             }
@@ -80,25 +74,26 @@ public class SocketHandlerTest {
     }
 
     @Test
-    public void testLoadSessionIfValid() {
+    public void testStopIfSessionIsNotInTheStore() {
         new JavaTestKit(system) {
             {
                 final JavaTestKit outProbe = new JavaTestKit(system);
-                final JavaTestKit sessionStoreProbe = new JavaTestKit(system);
-                final Connection connection = mock(Connection.class);
-
+                final SessionStore sessionStore = new ShardedSessionStore();
+                sessionStore.put(new ActiveSession("some-user-id", "another-session-id"));
                 final ActorRef underTest = system.actorOf(
                         Props.create(ActorUnderTest.class,
                                 outProbe.getRef(),
-                                sessionStoreProbe.getRef(),
-                                connection));
+                                sessionStore,
+                                mock(MessageBus.class)));
 
                 underTest.tell("some-user-id=some-session-id", getRef());
 
+                watch(underTest);
+
                 new Within(new FiniteDuration(4, TimeUnit.SECONDS)) {
                     @Override
                     protected void run() {
-                        sessionStoreProbe.expectMsgEquals(new SessionInMemoryStore.LoadSession("some-user-id"));
+                        expectTerminated(underTest);
                     }
                 };
             }
@@ -106,54 +101,61 @@ public class SocketHandlerTest {
     }
 
     @Test
-    public void testConsumeQueueIfSessionIsLoaded() throws IOException {
+    public void testRegisterOnNodeQueueIfSessionIsLoaded() throws IOException {
         new JavaTestKit(system) {
             {
                 final JavaTestKit outProbe = new JavaTestKit(system);
-                final JavaTestKit sessionStoreProbe = new JavaTestKit(system);
-                final Connection connection = mock(Connection.class);
-
-                final Channel channel = mock(Channel.class);
-                final AMQP.Queue.DeclareOk ok = mock(AMQP.Queue.DeclareOk.class);
-                when(connection.createChannel()).thenReturn(channel, channel);
-                when(channel.queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyMap())).thenReturn(ok);
-                when(ok.getQueue()).thenReturn("MyQueue");
+                final SessionStore sessionStore = new ShardedSessionStore();
+                sessionStore.put(new ActiveSession("some-user-id", "some-session-id"));
+                final NodeQueue nodeQueue = mock(NodeQueue.class);
 
                 final ActorRef underTest = system.actorOf(
                         Props.create(ActorUnderTest.class,
                                 outProbe.getRef(),
-                                sessionStoreProbe.getRef(),
-                                connection));
+                                sessionStore,
+                                new AmqpMessageBus(nodeQueue, mock(ChannelPool.class))));
 
                 underTest.tell("some-user-id=some-session-id", getRef());
 
-                new Within(new FiniteDuration(2, TimeUnit.SECONDS)) {
-                    @Override
-                    protected void run() {
-                        sessionStoreProbe.expectMsgEquals(new SessionInMemoryStore.LoadSession("some-user-id"));
-                        sessionStoreProbe.reply(new ActiveSession("some-user-id", "some-session-id"));
-
-                        //If the invocation is not verified, within will timeout after 2 seconds
-                        while (true) {
-                            try {
-                                verify(channel).basicConsume(
-                                        Matchers.eq("MyQueue"),
-                                        Matchers.eq(false),
-                                        Matchers.any(DefaultConsumer.class));
-
-                                return;
-                            } catch (IOException e) {
-                                fail();
-                            } catch (Throwable ex) {
-                                try {
-                                    Thread.sleep(100);
-                                } catch (InterruptedException e) {
-                                    //Do Nothing
-                                }
-                            }
-                        }
-                    }
-                };
+                try {
+                    verify(nodeQueue, timeout(2000)).register("some-user-id", underTest);
+                    verify(nodeQueue, timeout(2000)).register(
+                            MessageProtocols.GameProtocol.buildRequestRoutingKey("some-user-id"), underTest);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testSignedSessionIsCheckedWithoutTheStore() throws IOException {
+        new JavaTestKit(system) {
+            {
+                final JavaTestKit outProbe = new JavaTestKit(system);
+                final SessionStore sessionStore = new ShardedSessionStore();
+                final NodeQueue nodeQueue = mock(NodeQueue.class);
+                final SessionTokens tokens = new SessionTokens("secret", 60000);
+                final ActiveSession session = tokens.issue("some-user-id");
+
+                final ActorRef underTest = system.actorOf(SocketHandler.props(outProbe.getRef(),
+                        sessionStore, tokens, new AmqpMessageBus(nodeQueue, mock(ChannelPool.class)),
+                        new OutboundQueue.Factory(), false));
+                underTest.tell(session.getUserId() + "=" + session.getSessionId(), getRef());
+
+                try {
+                    verify(nodeQueue, timeout(2000)).register("some-user-id", underTest);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+
+                //A session which is not signed is refused the same way
+                sessionStore.put(new ActiveSession("some-user-id", "some-session-id"));
+                final ActorRef forged = system.actorOf(SocketHandler.props(outProbe.getRef(),
+                        sessionStore, tokens, mock(MessageBus.class), new OutboundQueue.Factory(), false));
+                watch(forged);
+                forged.tell("some-user-id=some-session-id", getRef());
+                expectTerminated(forged);
             }
         };
     }
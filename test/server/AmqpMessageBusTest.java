@@ -0,0 +1,80 @@
+package server;
+
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Matchers;
+import utils.ChannelPool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AmqpMessageBusTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static byte[] bytes(final String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLocalActorIsToldDirectly() {
+        new JavaTestKit(system) {
+            {
+                final JavaTestKit local = new JavaTestKit(system);
+                final NodeQueue nodeQueue = mock(NodeQueue.class);
+                final ChannelPool publishers = mock(ChannelPool.class);
+                when(nodeQueue.actorOf("game:1")).thenReturn(local.getRef());
+
+                final AmqpMessageBus bus = new AmqpMessageBus(nodeQueue, publishers);
+                final CompletableFuture<Void> sent = bus.publish("game:1", "move=a=1");
+
+                assertThat(sent.isDone() && !sent.isCompletedExceptionally(), is(true));
+                final MessageBus.Delivery delivery = local.expectMsgClass(MessageBus.Delivery.class);
+                assertThat(delivery.getRoutingKey(), is("game:1"));
+                assertThat(delivery.getBody(), is(bytes("move=a=1")));
+                assertThat(delivery.isBinary(), is(false));
+                verify(publishers, never()).publish(anyString(), anyString(), any(byte[].class));
+                assertThat(bus.local(), is(1L));
+                assertThat(bus.remote(), is(0L));
+            }
+        };
+    }
+
+    @Test
+    public void testRemoteKeyIsPublished() {
+        final NodeQueue nodeQueue = mock(NodeQueue.class);
+        final ChannelPool publishers = mock(ChannelPool.class);
+        final CompletableFuture<Void> confirmed = new CompletableFuture<>();
+        when(publishers.publish(anyString(), anyString(), any(byte[].class))).thenReturn(confirmed);
+
+        final AmqpMessageBus bus = new AmqpMessageBus(nodeQueue, publishers);
+
+        assertThat(bus.publish("b", "application/x-bolboard", new byte[]{6, 1}), is(confirmed));
+        verify(publishers).publish(Matchers.eq("b"), Matchers.eq("application/x-bolboard"),
+                Matchers.eq(new byte[]{6, 1}));
+        assertThat(bus.local(), is(0L));
+        assertThat(bus.remote(), is(1L));
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import utils.ChannelPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AmqpSessionReplicationTest {
+
+    @Test
+    public void testEveryNodeConsumesTheFanoutExchange() throws IOException {
+        final Connection connection = mock(Connection.class);
+        final Channel channel = mock(Channel.class);
+        final AMQP.Queue.DeclareOk ok = mock(AMQP.Queue.DeclareOk.class);
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.isOpen()).thenReturn(true);
+        when(channel.getNextPublishSeqNo()).thenReturn(1L);
+        when(channel.queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyMap())).thenReturn(ok);
+        when(ok.getQueue()).thenReturn("sessions-1");
+
+        final AmqpSessionReplication replication = new AmqpSessionReplication(connection, "BOL.sessions");
+        verify(channel).exchangeDeclare("BOL.sessions", "fanout", true);
+        verify(channel).queueDeclare(anyString(), Matchers.eq(false), Matchers.eq(true), Matchers.eq(true), anyMap());
+        verify(channel).queueBind("sessions-1", "BOL.sessions", "");
+
+        final List<byte[]> received = new ArrayList<>();
+        replication.start(received::add);
+        final ArgumentCaptor<Consumer> consumer = ArgumentCaptor.forClass(Consumer.class);
+        verify(channel).basicConsume(Matchers.eq("sessions-1"), Matchers.eq(true), consumer.capture());
+        consumer.getValue().handleDelivery("consumer", new Envelope(1, false, "BOL.sessions", ""),
+                ChannelPool.properties(AmqpSessionReplication.CONTENT_TYPE), new byte[]{1, 2});
+        assertThat(received.size(), is(1));
+        assertThat(received.get(0), is(new byte[]{1, 2}));
+
+        replication.broadcast(new byte[]{3});
+        verify(channel, timeout(1000)).basicPublish(Matchers.eq("BOL.sessions"), Matchers.eq(""),
+                Matchers.any(AMQP.BasicProperties.class), Matchers.eq(new byte[]{3}));
+
+        //A message for one node goes to its queue through the default exchange
+        assertThat(replication.address(), is("sessions-1"));
+        replication.send("sessions-2", new byte[]{4});
+        verify(channel, timeout(1000)).basicPublish(Matchers.eq(""), Matchers.eq("sessions-2"),
+                Matchers.any(AMQP.BasicProperties.class), Matchers.eq(new byte[]{4}));
+        replication.close();
+    }
+}
@@ -0,0 +1,133 @@
+package server;
+
+import model.ActiveSession;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JournaledSessionStoreTest {
+    private final AtomicLong now = new AtomicLong(1000000);
+
+    private JournaledSessionStore open(final Path file) throws IOException {
+        return new JournaledSessionStore(new ShardedSessionStore(4, 60000, now::get), file, 0, now::get);
+    }
+
+    @Test
+    public void testSessionsAreRestoredAfterRestart() throws IOException {
+        final Path file = Files.createTempDirectory("sessions").resolve("sessions.bin");
+
+        final JournaledSessionStore first = open(file);
+        first.put(new ActiveSession("facebook:12", "a"));
+        first.put(new ActiveSession("facebook:13", "b"));
+        first.flush();
+        first.put(new ActiveSession("facebook:12", "c"));
+        first.remove(new ActiveSession("facebook:13", "b"));
+        first.put(new ActiveSession("facebook:14", "d"));
+        first.remove(new ActiveSession("facebook:14", "d"));
+        first.close();
+
+        final JournaledSessionStore second = open(file);
+        assertThat(second.restored(), is(1));
+        assertThat(second.get("facebook:12"), is(new ActiveSession("facebook:12", "c")));
+        assertThat(second.get("facebook:13"), is(nullValue()));
+        assertThat(second.get("facebook:14"), is(nullValue()));
+        second.close();
+
+        //The sessions which expired while the node was down are not restored
+        now.addAndGet(60001);
+        assertThat(open(file).restored(), is(0));
+    }
+
+    @Test
+    public void testRemovalOnlyRemovesTheSameSession() throws IOException {
+        final Path file = Files.createTempDirectory("sessions").resolve("sessions.bin");
+
+        final JournaledSessionStore first = open(file);
+        first.put(new ActiveSession("facebook:12", "a"));
+        first.put(new ActiveSession("facebook:13", "b"));
+        first.flush();
+        //The session removed replaced one in the file but is not written yet
+        first.put(new ActiveSession("facebook:12", "c"));
+        first.remove(new ActiveSession("facebook:12", "c"));
+        first.remove(new ActiveSession("facebook:13", "b"));
+        first.put(new ActiveSession("facebook:14", "d"));
+        first.flush();
+
+        //The node stops without a snapshot, the records are replayed
+        final JournaledSessionStore second = open(file);
+        assertThat(second.restored(), is(1));
+        assertThat(second.get("facebook:12"), is(nullValue()));
+        assertThat(second.get("facebook:13"), is(nullValue()));
+        assertThat(second.get("facebook:14"), is(new ActiveSession("facebook:14", "d")));
+        second.close();
+    }
+
+    @Test
+    public void testSessionsInUseAreRestoredWithTheirLastAccess() throws IOException {
+        final Path file = Files.createTempDirectory("sessions").resolve("sessions.bin");
+
+        final JournaledSessionStore first = open(file);
+        first.put(new ActiveSession("facebook:12", "read"));
+        first.put(new ActiveSession("facebook:13", "idle"));
+        first.flush();
+        now.addAndGet(50000);
+        assertThat(first.get("facebook:12").getSessionId(), is("read"));
+        first.close();
+
+        //Both sessions were put longer ago than they expire, only the one which has been read since is kept
+        now.addAndGet(20000);
+        final JournaledSessionStore second = open(file);
+        assertThat(second.restored(), is(1));
+        assertThat(second.get("facebook:12").getSessionId(), is("read"));
+        second.close();
+    }
+
+    @Test
+    public void testPartialRecordIsDropped() throws IOException {
+        final Path file = Files.createTempDirectory("sessions").resolve("sessions.bin");
+
+        final JournaledSessionStore first = open(file);
+        first.put(new ActiveSession("facebook:12", "a"));
+        first.put(new ActiveSession("facebook:13", "b"));
+        first.close();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        //The restarted journal appends after the last complete record
+        final JournaledSessionStore second = open(file);
+        assertThat(second.restored(), is(1));
+        second.put(new ActiveSession("facebook:14", "c"));
+        second.close();
+        assertThat(open(file).restored(), is(2));
+    }
+
+    @Test
+    public void testCompactionKeepsTheSessions() throws IOException {
+        final Path file = Files.createTempDirectory("sessions").resolve("sessions.bin");
+
+        final JournaledSessionStore journal = open(file);
+        for (int i = 0; i < 1100; i++) {
+            journal.put(new ActiveSession("facebook:" + (i % 10), "session-" + i));
+            journal.flush();
+        }
+        journal.close();
+
+        //Far less than the 1100 records appended
+        assertThat(Files.size(file), lessThan(100L * 30));
+
+        final JournaledSessionStore restarted = open(file);
+        assertThat(restarted.restored(), is(10));
+        assertThat(restarted.get("facebook:9").getSessionId(), is("session-1099"));
+    }
+}
@@ -0,0 +1,95 @@
+package server;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+import server.actors.GameActor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static model.MessageProtocols.GameProtocol.*;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+public class LocalMessageBusTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static String text(final Object delivery) {
+        return new String(((MessageBus.Delivery) delivery).getBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMessagesGoToTheLastRegisteredActor() {
+        new JavaTestKit(system) {
+            {
+                final JavaTestKit first = new JavaTestKit(system);
+                final JavaTestKit second = new JavaTestKit(system);
+                final LocalMessageBus bus = new LocalMessageBus();
+
+                bus.register("a", first.getRef());
+                final CompletableFuture<Void> sent = bus.publish("a", "move=a=1");
+                assertThat(sent.isDone() && !sent.isCompletedExceptionally(), is(true));
+                assertThat(text(first.expectMsgClass(MessageBus.Delivery.class)), is("move=a=1"));
+
+                bus.register("a", second.getRef());
+                bus.unregister("a", first.getRef());
+                bus.publish("a", "application/x-bolboard", new byte[]{6, 1});
+                assertThat(second.expectMsgClass(MessageBus.Delivery.class).isBinary(), is(true));
+                first.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+
+                bus.unregister("a", second.getRef());
+                bus.publish("a", "move=a=2");
+                assertThat(bus.delivered(), is(2L));
+                assertThat(bus.dropped(), is(1L));
+                assertThat(bus.registered(), is(0));
+            }
+        };
+    }
+
+    @Test
+    public void testGameIsPlayedWithoutBroker() {
+        new JavaTestKit(system) {
+            {
+                final JavaTestKit host = new JavaTestKit(system);
+                final JavaTestKit guest = new JavaTestKit(system);
+                final LocalMessageBus bus = new LocalMessageBus();
+                bus.register("a", guest.getRef());
+
+                //The guest has the smaller user id, so it starts
+                system.actorOf(GameActor.props(bus, 7, "b", host.getRef(), "a"));
+
+                new Within(new FiniteDuration(2, TimeUnit.SECONDS)) {
+                    @Override
+                    protected void run() {
+                        assertThat(text(guest.expectMsgClass(MessageBus.Delivery.class)), is(buildStartMessage("b", 7)));
+                        assertThat(text(guest.expectMsgClass(MessageBus.Delivery.class)), is(buildGameTurnMessage(true)));
+                        host.expectMsgClass(GameActor.Frame.class);
+
+                        bus.publish(buildGameRoutingKey(7), buildMoveMessage("a", 2));
+                        assertThat(text(guest.expectMsgClass(MessageBus.Delivery.class)), startsWith("%%"));
+                        assertThat(((GameActor.Frame) host.expectMsgClass(GameActor.Frame.class)).getMessage(),
+                                startsWith("%%1,"));
+                    }
+                };
+            }
+        };
+    }
+}
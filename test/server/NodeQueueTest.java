@@ -0,0 +1,247 @@
+package server;
+
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NodeQueueTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static Channel mockChannel(final Connection connection) throws IOException {
+        final Channel channel = mock(Channel.class);
+        final AMQP.Queue.DeclareOk ok = mock(AMQP.Queue.DeclareOk.class);
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), anyMap())).thenReturn(ok);
+        when(ok.getQueue()).thenReturn("node-1");
+        return channel;
+    }
+
+    private static byte[] bytes(final String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testQueueIsDeclaredAndConsumedOnce() throws IOException {
+        final Connection connection = mock(Connection.class);
+        final Channel channel = mockChannel(connection);
+
+        final NodeQueue queue = new NodeQueue(connection, "BOL");
+
+        assertThat(queue.getQueueName(), is("node-1"));
+        verify(channel).queueDeclare(anyString(), Matchers.eq(false), Matchers.eq(true), Matchers.eq(true), anyMap());
+        verify(channel).basicConsume(Matchers.eq("node-1"), Matchers.eq(false), Matchers.any(Consumer.class));
+        verify(channel).basicQos(NodeQueue.DEFAULT_PREFETCH);
+        queue.close();
+    }
+
+    @Test
+    public void testDeliveriesAreAcknowledgedTogether() throws IOException {
+        final Connection connection = mock(Connection.class);
+        final Channel channel = mockChannel(connection);
+
+        final NodeQueue queue = new NodeQueue(connection, "BOL", 8, 4, 50, 16, 4);
+        final ArgumentCaptor<Consumer> consumer = ArgumentCaptor.forClass(Consumer.class);
+        verify(channel).basicQos(8);
+        verify(channel).basicConsume(Matchers.eq("node-1"), Matchers.eq(false), consumer.capture());
+
+        final AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().contentType("text/plain").build();
+        for (long tag = 1; tag <= 6; tag++) {
+            consumer.getValue().handleDelivery("consumer", new Envelope(tag, false, "BOL", "a"), properties,
+                    bytes("move=a=1"));
+        }
+
+        //A full batch is acknowledged at once, the rest when the interval is over
+        verify(channel).basicAck(4, true);
+        verify(channel, timeout(1000)).basicAck(6, true);
+        verify(channel, never()).basicAck(Matchers.anyLong(), Matchers.eq(false));
+        assertThat(queue.acks(), is(2L));
+        assertThat(queue.dropped(), is(6L));
+        queue.close();
+    }
+
+    @Test
+    public void testDeliveriesGoToTheRegisteredActor() throws IOException {
+        new JavaTestKit(system) {
+            {
+                final Connection connection = mock(Connection.class);
+                final Channel channel = mockChannel(connection);
+                final JavaTestKit a = new JavaTestKit(system);
+                final JavaTestKit b = new JavaTestKit(system);
+
+                final NodeQueue queue = new NodeQueue(connection, "BOL");
+                queue.register("a", a.getRef());
+                queue.register("b", b.getRef());
+                verify(channel).queueBind("node-1", "BOL", "a");
+                verify(channel).queueBind("node-1", "BOL", "b");
+
+                queue.dispatch("b", "text/plain", bytes("move=b=1"));
+                final MessageBus.Delivery delivery = b.expectMsgClass(MessageBus.Delivery.class);
+                assertThat(delivery.getRoutingKey(), is("b"));
+                assertThat(delivery.getBody(), is(bytes("move=b=1")));
+                assertThat(delivery.isBinary(), is(false));
+                a.expectNoMsg();
+
+                queue.dispatch("c", "text/plain", bytes("move=c=1"));
+                assertThat(queue.delivered(), is(1L));
+                assertThat(queue.dropped(), is(1L));
+                assertThat(queue.registered(), is(2));
+            }
+        };
+    }
+
+    @Test
+    public void testNewActorReplacesTheKey() throws IOException {
+        new JavaTestKit(system) {
+            {
+                final Connection connection = mock(Connection.class);
+                final Channel channel = mockChannel(connection);
+                final JavaTestKit first = new JavaTestKit(system);
+                final JavaTestKit second = new JavaTestKit(system);
+
+                final NodeQueue queue = new NodeQueue(connection, "BOL");
+                queue.register("a", first.getRef());
+                queue.register("a", second.getRef());
+                verify(channel, times(1)).queueBind("node-1", "BOL", "a");
+
+                //The first actor stops after the second one took the key, the binding stays
+                queue.unregister("a", first.getRef());
+                verify(channel, never()).queueUnbind("node-1", "BOL", "a");
+                queue.dispatch("a", "text/plain", bytes("move=a=1"));
+                second.expectMsgClass(MessageBus.Delivery.class);
+                first.expectNoMsg();
+
+                queue.unregister("a", second.getRef());
+                verify(channel).queueUnbind("node-1", "BOL", "a");
+                assertThat(queue.registered(), is(0));
+            }
+        };
+    }
+
+    @Test
+    public void testFramesWaitForTheirActor() throws Exception {
+        new JavaTestKit(system) {
+            {
+                final Connection connection = mock(Connection.class);
+                mockChannel(connection);
+                final JavaTestKit a = new JavaTestKit(system);
+                final JavaTestKit b = new JavaTestKit(system);
+
+                //The frames of a game are never shed: they wait on the node until the actor takes the previous ones
+                final NodeQueue queue = new NodeQueue(connection, "BOL", 8, 4, 50, 16, 2);
+                queue.register("a", a.getRef());
+                queue.register("b", b.getRef());
+                queue.dispatch("a", "text/plain", bytes("%%1,0:4"));
+                queue.dispatch("a", "text/plain", bytes("%%0,1:4"));
+                queue.dispatch("a", "text/plain", bytes("%%1,2:4"));
+                queue.dispatch("a", "text/plain", bytes("%%0,3:4"));
+                final MessageBus.Delivery first = a.expectMsgClass(MessageBus.Delivery.class);
+                a.expectMsgClass(MessageBus.Delivery.class);
+                a.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+                assertThat(queue.held(), is(2L));
+
+                //The consumer does not wait for a busy actor, the other keys are delivered meanwhile
+                queue.dispatch("b", "text/plain", bytes("move=b=1"));
+                b.expectMsgClass(MessageBus.Delivery.class);
+
+                first.processed();
+                final MessageBus.Delivery third = a.expectMsgClass(MessageBus.Delivery.class);
+                assertThat(third.getBody(), is(bytes("%%1,2:4")));
+                a.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+                assertThat(queue.shed(), is(0L));
+                assertThat(queue.paused(), is(0L));
+                assertThat(queue.inFlight(), is(3));
+
+                //The frames waiting for an actor which is gone are dropped and give their credits back
+                queue.unregister("a", a.getRef());
+                assertThat(queue.dropped(), is(1L));
+                assertThat(queue.inFlight(), is(1));
+                queue.close();
+            }
+        };
+    }
+
+    @Test
+    public void testDeliveriesWaitForTheActors() throws Exception {
+        new JavaTestKit(system) {
+            {
+                final Connection connection = mock(Connection.class);
+                mockChannel(connection);
+                final JavaTestKit a = new JavaTestKit(system);
+                final JavaTestKit b = new JavaTestKit(system);
+
+                //Three deliveries in flight on the node, two for one actor; the game requests above them are shed
+                final NodeQueue queue = new NodeQueue(connection, "BOL", 8, 4, 50, 3, 2);
+                queue.register("request:a", a.getRef());
+                queue.register("b", b.getRef());
+
+                for (int i = 0; i < 3; i++) {
+                    queue.dispatch("request:a", "text/plain", bytes("game_request=x" + i));
+                }
+                final MessageBus.Delivery first = a.expectMsgClass(MessageBus.Delivery.class);
+                a.expectMsgClass(MessageBus.Delivery.class);
+                a.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+                assertThat(queue.shed(), is(1L));
+
+                queue.dispatch("b", "text/plain", bytes("move=b=1"));
+                b.expectMsgClass(MessageBus.Delivery.class);
+                assertThat(queue.inFlight(), is(3));
+
+                //No credit is left, so the consumer waits until an actor takes a delivery
+                final Thread consumer = new Thread(() -> queue.dispatch("b", "text/plain", bytes("move=b=2")));
+                consumer.start();
+                b.expectNoMsg(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+                first.processed();
+                first.processed();
+                b.expectMsgClass(MessageBus.Delivery.class);
+                consumer.join(1000);
+                assertThat(queue.paused(), is(1L));
+                assertThat(queue.inFlight(), is(3));
+
+                //The deliveries of an actor which is gone give their credits back
+                queue.unregister("b", b.getRef());
+                assertThat(queue.inFlight(), is(1));
+                queue.dispatch("request:a", "text/plain", bytes("game_request=x3"));
+                a.expectMsgClass(MessageBus.Delivery.class);
+                assertThat(queue.paused(), is(1L));
+                queue.close();
+            }
+        };
+    }
+}
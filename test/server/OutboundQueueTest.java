@@ -0,0 +1,94 @@
+package server;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void testFramesWaitForTheAcknowledgements() {
+        final OutboundQueue.Factory factory = new OutboundQueue.Factory(2, 4, OutboundQueue.Overflow.DISCONNECT);
+        final OutboundQueue queue = factory.newQueue();
+        queue.acknowledge(0);
+
+        assertThat(queue.offer("a", false), is(OutboundQueue.Action.SEND));
+        assertThat(queue.offer("b", false), is(OutboundQueue.Action.SEND));
+        assertThat(queue.offer("c", false), is(OutboundQueue.Action.QUEUED));
+        assertThat(queue.offer("d", false), is(OutboundQueue.Action.QUEUED));
+        assertThat(queue.poll(), is(nullValue()));
+        assertThat(factory.metrics().getQueued(), is(2L));
+
+        //The client received one frame, so one more may be written
+        queue.acknowledge(1);
+        assertThat(queue.poll(), is("c"));
+        assertThat(queue.poll(), is(nullValue()));
+
+        //An acknowledgement of frames which have not been written is not trusted
+        queue.acknowledge(10);
+        assertThat(queue.poll(), is("d"));
+        assertThat(queue.unacknowledged(), is(1L));
+        assertThat(queue.offer("e", false), is(OutboundQueue.Action.SEND));
+        assertThat(factory.metrics().getQueued(), is(0L));
+        assertThat(factory.metrics().getMaxDepth(), is(2));
+    }
+
+    @Test
+    public void testWindowStartsWithTheFirstAcknowledgement() {
+        final OutboundQueue.Factory factory = new OutboundQueue.Factory(2, 2, OutboundQueue.Overflow.DISCONNECT);
+        final OutboundQueue queue = factory.newQueue();
+
+        //A client which does not acknowledge is written every frame, as it was before the acknowledgements
+        for (int i = 0; i < 10; i++) {
+            assertThat(queue.offer("%%1,0:" + i, true), is(OutboundQueue.Action.SEND));
+        }
+        assertThat(queue.depth(), is(0));
+
+        //Its first acknowledgement counts the frames written so far
+        queue.acknowledge(9);
+        assertThat(queue.offer("a", false), is(OutboundQueue.Action.SEND));
+        assertThat(queue.offer("b", false), is(OutboundQueue.Action.QUEUED));
+        queue.acknowledge(11);
+        assertThat(queue.poll(), is("b"));
+    }
+
+    @Test
+    public void testOverflowDropsTheStaleFrames() {
+        final OutboundQueue.Factory factory = new OutboundQueue.Factory(1, 3, OutboundQueue.Overflow.DROP_STALE);
+        final OutboundQueue queue = factory.newQueue();
+        queue.acknowledge(0);
+
+        assertThat(queue.offer("opponent=bot", false), is(OutboundQueue.Action.SEND));
+        queue.offer("%%1,0:5", true);
+        queue.offer("##~turn", true);
+        queue.offer("%%0,1:5", true);
+
+        //The end goes after the frames which were kept, the state asked for replaces the rest
+        assertThat(queue.offer("end", false), is(OutboundQueue.Action.RESYNC));
+        assertThat(queue.offer("$$4-4-4", true), is(OutboundQueue.Action.QUEUED));
+        assertThat(queue.depth(), is(2));
+        queue.acknowledge(1);
+        assertThat(queue.poll(), is("end"));
+        assertThat(factory.metrics().getDropped(), is(3L));
+        assertThat(factory.metrics().getResyncs(), is(1L));
+
+        queue.clear();
+        assertThat(factory.metrics().getQueued(), is(0L));
+    }
+
+    @Test
+    public void testOverflowWithoutStaleFramesDisconnects() {
+        final OutboundQueue.Factory factory = new OutboundQueue.Factory(1, 2, OutboundQueue.Overflow.DROP_STALE);
+        final OutboundQueue queue = factory.newQueue();
+        queue.acknowledge(0);
+
+        queue.offer("opponent=bot", false);
+        queue.offer("wait-for-game", false);
+        queue.offer("opponent=bot", false);
+        assertThat(queue.offer("%%1,0:5", true), is(OutboundQueue.Action.DISCONNECT));
+        assertThat(factory.metrics().getDisconnects(), is(1L));
+        assertThat(OutboundQueue.Overflow.of("drop-stale"), is(OutboundQueue.Overflow.DROP_STALE));
+    }
+}
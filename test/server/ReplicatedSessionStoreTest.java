@@ -0,0 +1,244 @@
+package server;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import model.ActiveSession;
+import model.MessageProtocols;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import play.libs.ws.WSClient;
+import play.mvc.Result;
+import server.actors.Dispatcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplicatedSessionStoreTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    /**
+     * Nodes sharing their sessions in the JVM, each one with its own store
+     */
+    private static class Cluster {
+        private final LocalSessionReplication.Hub hub = new LocalSessionReplication.Hub();
+        private final AtomicLong now = new AtomicLong(1000000);
+        private final List<ShardedSessionStore> stores = new ArrayList<>();
+        private final List<ReplicatedSessionStore> nodes = new ArrayList<>();
+
+        private Cluster(final int size) throws IOException {
+            for (int i = 0; i < size; i++) {
+                start();
+            }
+        }
+
+        private ReplicatedSessionStore start() throws IOException {
+            final ShardedSessionStore store = new ShardedSessionStore(4, 60000, now::get);
+            final ReplicatedSessionStore node = new ReplicatedSessionStore(store, hub.join("node-" + nodes.size()), 0,
+                    now::get);
+            stores.add(store);
+            nodes.add(node);
+            return node;
+        }
+
+        private ReplicatedSessionStore node(final int index) {
+            return nodes.get(index);
+        }
+
+        private void close() {
+            nodes.forEach(ReplicatedSessionStore::close);
+        }
+    }
+
+    private Cluster cluster;
+
+    @After
+    public void stop() {
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    @Test
+    public void testSessionPutOnANodeIsReadOnEveryNode() throws IOException {
+        cluster = new Cluster(3);
+        final ActiveSession session = new ActiveSession("facebook:12", "first");
+        cluster.node(0).put(session);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(cluster.node(i).contains(session), is(true));
+        }
+
+        //The reads are served by the store of the node, nothing is sent
+        final long sent = cluster.node(2).sent();
+        cluster.node(2).get("facebook:12");
+        assertThat(cluster.node(2).sent(), is(sent));
+        assertThat(cluster.stores.get(2).metrics().getHits(), is(2L));
+        assertThat(cluster.node(2).received(), is(1L));
+    }
+
+    @Test
+    public void testLogoutOnANodeRemovesTheSessionEverywhere() throws IOException {
+        cluster = new Cluster(3);
+        final ActiveSession first = new ActiveSession("facebook:12", "first");
+        final ActiveSession second = new ActiveSession("facebook:12", "second");
+        cluster.node(0).put(first);
+        cluster.node(2).put(second);
+
+        //The old session is already replaced everywhere, removing it changes nothing
+        assertThat(cluster.node(1).remove(first), is(false));
+        assertThat(cluster.node(0).contains(second), is(true));
+
+        assertThat(cluster.node(1).remove(second), is(true));
+        for (int i = 0; i < 3; i++) {
+            assertThat(cluster.node(i).get("facebook:12"), is(nullValue()));
+            assertThat(cluster.stores.get(i).size(), is(0));
+        }
+    }
+
+    @Test
+    public void testNodeWhichStartsGetsTheSessionsOfTheOthers() throws IOException {
+        cluster = new Cluster(2);
+        final int sessions = ReplicatedSessionStore.STATE_BATCH + 10;
+        for (int i = 0; i < sessions; i++) {
+            cluster.node(i % 2).put(new ActiveSession("facebook:" + i, "session-" + i));
+        }
+        final long received = cluster.node(0).received();
+        final AtomicLong fanout = new AtomicLong();
+        final LocalSessionReplication observer = cluster.hub.join("observer");
+        observer.start(message -> fanout.incrementAndGet());
+
+        //Every node holds all the sessions and answers with them in two batches
+        final ReplicatedSessionStore started = cluster.start();
+        assertThat(cluster.stores.get(2).size(), is(sessions));
+        assertThat(started.get("facebook:7").getSessionId(), is("session-7"));
+        assertThat(started.received(), is(4L));
+
+        //The answers are sent to the new node only, the others only see its SYNC
+        assertThat(cluster.node(0).received(), is(received + 1));
+        assertThat(fanout.get(), is(1L));
+    }
+
+    @Test
+    public void testLoginBeforeTheAnswersIsNotOverwritten() throws IOException {
+        cluster = new Cluster(1);
+        final ActiveSession fresh = new ActiveSession("facebook:12", "fresh");
+        cluster.node(0).put(fresh);
+
+        //An answer to the SYNC of the node arrives after the login, with the session the user had before
+        final LocalSessionReplication other = cluster.hub.join("node-x");
+        other.start(received -> {
+        });
+        other.broadcast(ReplicatedSessionStore.encode(ReplicatedSessionStore.STATE, "node-x", "node-0", Arrays.asList(
+                new ReplicatedSessionStore.Entry("facebook:12", "stale", cluster.now.get() - 1000),
+                new ReplicatedSessionStore.Entry("facebook:13", "other", cluster.now.get() - 1000),
+                new ReplicatedSessionStore.Entry("facebook:14", "expired", cluster.now.get() - 70000))));
+
+        assertThat(cluster.node(0).get("facebook:12").getSessionId(), is("fresh"));
+        assertThat(cluster.node(0).get("facebook:13").getSessionId(), is("other"));
+        assertThat(cluster.node(0).get("facebook:14"), is(nullValue()));
+    }
+
+    @Test
+    public void testSessionReadOnOneNodeDoesNotExpireOnTheOthers() throws IOException {
+        cluster = new Cluster(3);
+        final ActiveSession session = new ActiveSession("facebook:12", "first");
+        cluster.node(0).put(session);
+
+        //Only the second node serves the user, its reads keep the session on every node
+        cluster.now.addAndGet(50000);
+        assertThat(cluster.node(1).get("facebook:12"), is(session));
+        final long sent = cluster.node(1).sent();
+        cluster.node(1).publishReads();
+        assertThat(cluster.node(1).sent(), is(sent + 1));
+
+        cluster.now.addAndGet(20000);
+        for (int i = 0; i < 3; i++) {
+            assertThat(cluster.stores.get(i).get("facebook:12"), is(session));
+        }
+
+        //Nothing read since, nothing sent
+        cluster.node(1).publishReads();
+        assertThat(cluster.node(1).sent(), is(sent + 1));
+
+        cluster.now.addAndGet(70000);
+        for (int i = 0; i < 3; i++) {
+            assertThat(cluster.stores.get(i).get("facebook:12"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void testClosedNodeNoLongerReceives() throws IOException {
+        cluster = new Cluster(2);
+        cluster.node(1).close();
+        cluster.node(0).put(new ActiveSession("facebook:12", "first"));
+
+        assertThat(cluster.node(1).get("facebook:12"), is(nullValue()));
+        assertThat(cluster.hub.size(), is(1));
+    }
+
+    @Test
+    public void testIncompleteMessageIsDropped() throws IOException {
+        final LocalSessionReplication.Hub hub = new LocalSessionReplication.Hub();
+        final ReplicatedSessionStore node = new ReplicatedSessionStore(new ShardedSessionStore(), hub.join("node-0"));
+        final byte[] message = ReplicatedSessionStore.encode(ReplicatedSessionStore.PUT, "node-1", "",
+                Collections.singletonList(new ReplicatedSessionStore.Entry("facebook:12", "first", 0)));
+
+        final LocalSessionReplication other = hub.join("node-1");
+        other.start(received -> {
+        });
+        other.broadcast(Arrays.copyOf(message, message.length - 3));
+
+        assertThat(node.dropped(), is(1L));
+        assertThat(node.get("facebook:12"), is(nullValue()));
+        other.broadcast(message);
+        assertThat(node.get("facebook:12").getSessionId(), is("first"));
+        node.close();
+    }
+
+    @Test
+    public void testRequestIsAuthenticatedByAnotherNode() throws IOException {
+        new JavaTestKit(system) {
+            {
+                cluster = new Cluster(2);
+                final MessageBus bus = mock(MessageBus.class);
+                when(bus.publish(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+
+                //The session is created by the first node, the request lands on the second one
+                final ActiveSession requester = new ActiveSession("facebook:12", "some-session-id");
+                cluster.node(0).put(requester);
+                final ActorRef dispatcher = system.actorOf(Props.create(Dispatcher.class,
+                        mock(WSClient.class), bus, cluster.node(1), null, null, 1000, 1, 1, 1));
+
+                dispatcher.tell(new MessageProtocols.GameRequest(requester, "facebook:13"), getRef());
+                assertThat(expectMsgClass(Result.class).status(), is(200));
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package server;
+
+import model.ActiveSession;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SessionTokensTest {
+    private final AtomicLong now = new AtomicLong(1000000);
+    private final SessionTokens tokens = new SessionTokens("secret", 60000, now::get);
+
+    @Test
+    public void testIssuedSessionIsValidUntilItExpires() {
+        final ActiveSession session = tokens.issue("facebook:12");
+        assertThat(session.getUserId(), is("facebook:12"));
+        assertThat(tokens.verify(session), is(true));
+        assertThat(tokens.verify(new ActiveSession("facebook:12", session.getSessionId())), is(true));
+
+        now.addAndGet(60001);
+        assertThat(tokens.verify(session), is(false));
+    }
+
+    @Test
+    public void testForgedSessionsAreRejected() {
+        final ActiveSession session = tokens.issue("facebook:12");
+        final String sessionId = session.getSessionId();
+
+        assertThat(tokens.verify(new ActiveSession("facebook:13", sessionId)), is(false));
+        assertThat(tokens.verify(new ActiveSession("facebook:12", "z" + sessionId)), is(false));
+        assertThat(tokens.verify(new ActiveSession("facebook:12", sessionId.substring(0, sessionId.length() - 2))),
+                is(false));
+        assertThat(tokens.verify(new ActiveSession("facebook:12", "some-session-id")), is(false));
+        assertThat(tokens.verify(new ActiveSession("facebook:12", "...")), is(false));
+        assertThat(new SessionTokens("another secret", 60000, now::get).verify(session), is(false));
+    }
+
+    @Test
+    public void testRevokedSessionIsRejectedUntilItExpires() {
+        final ActiveSession first = tokens.issue("facebook:12");
+        final ActiveSession second = tokens.issue("facebook:12");
+
+        tokens.revoke(first);
+        assertThat(tokens.verify(first), is(false));
+        assertThat(tokens.verify(second), is(true));
+        assertThat(tokens.revoked(), is(1));
+
+        //The expired sessions leave the revocation set with the next logout
+        now.addAndGet(60001);
+        tokens.revoke(tokens.issue("facebook:13"));
+        assertThat(tokens.revoked(), is(1));
+    }
+
+    @Test
+    public void testRevocationReachesEveryNode() throws IOException {
+        final LocalSessionReplication.Hub hub = new LocalSessionReplication.Hub();
+        final SessionTokens other = new SessionTokens("secret", 60000, now::get);
+        tokens.replicate(hub.join("node-0"));
+        other.replicate(hub.join("node-1"));
+
+        final ActiveSession first = tokens.issue("facebook:12");
+        final ActiveSession second = tokens.issue("facebook:13");
+        tokens.revoke(first);
+        other.revoke(second);
+        assertThat(other.verify(first), is(false));
+        assertThat(tokens.verify(second), is(false));
+
+        //A node which starts later gets the sessions revoked before, from each node
+        final SessionTokens started = new SessionTokens("secret", 60000, now::get);
+        started.replicate(hub.join("node-2"));
+        assertThat(started.verify(first), is(false));
+        assertThat(started.verify(second), is(false));
+        assertThat(started.revoked(), is(2));
+
+        started.close();
+        other.close();
+        tokens.close();
+        assertThat(hub.size(), is(0));
+    }
+
+    @Test
+    public void testWatchersAreToldOfTheRevocation() throws IOException {
+        final LocalSessionReplication.Hub hub = new LocalSessionReplication.Hub();
+        final SessionTokens other = new SessionTokens("secret", 60000, now::get);
+        tokens.replicate(hub.join("node-0"));
+        other.replicate(hub.join("node-1"));
+
+        final ActiveSession session = tokens.issue("facebook:12");
+        final AtomicInteger closed = new AtomicInteger();
+        final Runnable socket = closed::incrementAndGet;
+        other.watch(session.getSessionId(), socket);
+        assertThat(other.watched(), is(1));
+
+        //Revoked on another node than the one of the socket, and twice
+        tokens.revoke(session);
+        tokens.revoke(session);
+        assertThat(closed.get(), is(1));
+
+        other.unwatch(session.getSessionId(), socket);
+        assertThat(other.watched(), is(0));
+        other.close();
+        tokens.close();
+    }
+}
@@ -0,0 +1,80 @@
+package server;
+
+import model.ActiveSession;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ShardedSessionStoreTest {
+    private final AtomicLong now = new AtomicLong(1000000);
+    private final ShardedSessionStore store = new ShardedSessionStore(4, 60000, now::get);
+
+    @Test
+    public void testNewSessionReplacesThePreviousOne() {
+        store.put(new ActiveSession("facebook:12", "first"));
+        store.put(new ActiveSession("facebook:12", "second"));
+
+        assertThat(store.get("facebook:12"), is(new ActiveSession("facebook:12", "second")));
+        assertThat(store.contains(new ActiveSession("facebook:12", "first")), is(false));
+        assertThat(store.get("facebook:13"), is(nullValue()));
+
+        //Only the current session of the user is removed
+        assertThat(store.remove(new ActiveSession("facebook:12", "first")), is(false));
+        assertThat(store.remove(new ActiveSession("facebook:12", "second")), is(true));
+        assertThat(store.size(), is(0));
+        assertThat(store.metrics().getHits(), is(2L));
+        assertThat(store.metrics().getMisses(), is(1L));
+    }
+
+    @Test
+    public void testSessionsExpireAfterTheirLastAccess() {
+        store.put(new ActiveSession("facebook:12", "read"));
+        store.put(new ActiveSession("facebook:13", "idle"));
+        store.put(new ActiveSession("facebook:14", "idle"));
+
+        now.addAndGet(40000);
+        assertThat(store.get("facebook:12").getSessionId(), is("read"));
+        now.addAndGet(40000);
+        assertThat(store.get("facebook:12").getSessionId(), is("read"));
+
+        //An expired session is evicted when it is read, the others by a sweep
+        assertThat(store.get("facebook:13"), is(nullValue()));
+        assertThat(store.metrics().getEvictions(), is(1L));
+        store.cleanUp();
+        assertThat(store.size(), is(1));
+        assertThat(store.metrics().getEvictions(), is(2L));
+    }
+
+    @Test
+    public void testCopiesKeepTheCurrentSession() {
+        store.put(new ActiveSession("facebook:12", "current"));
+        assertThat(store.putIfAbsent(new ActiveSession("facebook:12", "copy"), now.get()), is(false));
+        assertThat(store.putIfAbsent(new ActiveSession("facebook:13", "expired"), now.get() - 70000), is(false));
+        assertThat(store.putIfAbsent(new ActiveSession("facebook:13", "copy"), now.get() - 50000), is(true));
+
+        //The copy keeps its last access, a touch of another session changes nothing
+        now.addAndGet(20000);
+        store.touch(new ActiveSession("facebook:12", "copy"), now.get());
+        store.touch(new ActiveSession("facebook:13", "copy"), now.get() - 1000);
+        now.addAndGet(50000);
+        assertThat(store.get("facebook:12"), is(nullValue()));
+        assertThat(store.get("facebook:13").getSessionId(), is("copy"));
+    }
+
+    @Test
+    public void testWritesSweepTheirShard() {
+        final ShardedSessionStore single = new ShardedSessionStore(1, 60000, now::get);
+        single.put(new ActiveSession("facebook:12", "idle"));
+        now.addAndGet(60001);
+
+        for (int i = 1; i < ShardedSessionStore.SWEEP_INTERVAL; i++) {
+            single.put(new ActiveSession("facebook:" + (100 + i % 10), "session"));
+        }
+        assertThat(single.size(), is(10));
+        assertThat(single.metrics().getEvictions(), is(1L));
+    }
+}
@@ -5,21 +5,32 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.actor.Status;
 import akka.testkit.JavaTestKit;
-import akka.testkit.TestProbe;
-import com.rabbitmq.client.Connection;
+import model.ActiveSession;
 import model.MessageProtocols;
 import model.Principal;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import play.libs.ws.WSClient;
+import play.mvc.Result;
 import play.mvc.Results;
 import scala.concurrent.duration.FiniteDuration;
+import server.MessageBus;
+import server.SessionStore;
+import server.ShardedSessionStore;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import static model.MessageProtocols.GameProtocol.buildRequestRoutingKey;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -45,12 +56,11 @@ public class DispatcherTest {
         final ActorRef createSessionFlow;
 
         public ActorUnderTest(WSClient client,
-                              Connection mqConnection,
-                              ActorRef sessionStore,
-                              int stepTimeout,
+                              MessageBus bus,
+                              SessionStore sessionStore,
                               int flowTimeout,
                               ActorRef createSessionFlow) {
-            super(client, mqConnection, sessionStore, stepTimeout, flowTimeout);
+            super(client, bus, sessionStore, null, flowTimeout);
             this.createSessionFlow = createSessionFlow;
         }
 
@@ -62,13 +72,10 @@ public class DispatcherTest {
 
     private ActorRef createDispatcher(final ActorSystem system, final ActorRef createSessionFlow) {
         final WSClient client = mock(WSClient.class);
-        final Connection connection = mock(Connection.class);
-
         return system.actorOf(Props.create(ActorUnderTest.class,
                 client,
-                connection,
-                new TestProbe(system).ref(),
-                100,
+                mock(MessageBus.class),
+                new ShardedSessionStore(),
                 100,
                 createSessionFlow
         ), UUID.randomUUID().toString());
@@ -116,5 +123,29 @@ public class DispatcherTest {
         };
     }
 
+    @Test
+    public void testGameRequestFlowsServeEveryRequest() {
+        new JavaTestKit(system) {
+            {
+                final SessionStore sessionStore = new ShardedSessionStore();
+                final MessageBus bus = mock(MessageBus.class);
+                when(bus.publish(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+
+                //A single worker, which used to ignore everything after its first request
+                final ActorRef underTest = system.actorOf(Props.create(Dispatcher.class,
+                        mock(WSClient.class), bus, sessionStore, null, null, 1000, 1, 1, 1));
+                final ActiveSession requester = new ActiveSession("facebook:12", "some-session-id");
+                sessionStore.put(requester);
+
+                for (int i = 0; i < 3; i++) {
+                    underTest.tell(new MessageProtocols.GameRequest(requester, "facebook:13"), getRef());
+                    assertThat(expectMsgClass(Result.class).status(), is(200));
+                }
+
+                verify(bus, timeout(1000).times(3)).publish(eq(buildRequestRoutingKey("facebook:13")), anyString());
+            }
+        };
+    }
+
     //TODO: Rest of the functionality can be tested exactly as above
 }
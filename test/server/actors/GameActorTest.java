@@ -0,0 +1,158 @@
+package server.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import model.Game;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Matchers;
+import scala.concurrent.duration.FiniteDuration;
+import server.AmqpMessageBus;
+import server.MessageBus;
+import server.NodeQueue;
+import utils.ChannelPool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static model.MessageProtocols.GameProtocol.*;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GameActorTest {
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static Channel mockChannel(final Connection connection) throws IOException {
+        final Channel channel = mock(Channel.class);
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.isOpen()).thenReturn(true);
+        return channel;
+    }
+
+    private static ChannelPool pool(final Connection connection) {
+        return new ChannelPool(connection, "BOL", 1);
+    }
+
+    private static String frame(final Object message) {
+        return ((GameActor.Frame) message).getMessage();
+    }
+
+    @Test
+    public void testOnlyTheLastFramesEndTheGame() {
+        final Game game = new Game(true, 0);
+        assertThat(GameActor.Frame.TURN.isEnd(), is(false));
+        assertThat(GameActor.Frame.NOT_TURN.isEnd(), is(false));
+        assertThat(new GameActor.Frame(buildGameStateMessage(game)).isEnd(), is(false));
+        assertThat(new GameActor.Frame(buildGameDeltaMessage(null, game, true, false)).isEnd(), is(false));
+
+        assertThat(GameActor.Frame.END.isEnd(), is(true));
+        assertThat(new GameActor.Frame(buildGameDeltaMessage(null, game, false, true)).isEnd(), is(true));
+    }
+
+    @Test
+    public void testHostPlaysAndGuestIsToldThroughMQ() throws IOException {
+        new JavaTestKit(system) {
+            {
+                final JavaTestKit host = new JavaTestKit(system);
+                final Connection connection = mock(Connection.class);
+                final Channel channel = mockChannel(connection);
+                final NodeQueue nodeQueue = mock(NodeQueue.class);
+
+                //The host has the smaller user id, so it is the first player and it starts
+                final ActorRef game = system.actorOf(GameActor.props(new AmqpMessageBus(nodeQueue, pool(connection)), 1, "a", host.getRef(), "b"));
+
+                new Within(new FiniteDuration(2, TimeUnit.SECONDS)) {
+                    @Override
+                    protected void run() {
+                        assertThat(frame(host.expectMsgClass(GameActor.Frame.class)), is(buildGameTurnMessage(true)));
+
+                        //Not the turn of the guest
+                        game.tell(new GameActor.Move("b", 1), getRef());
+                        host.expectNoMsg(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+
+                        //The last stone ends in the large pit, so the host plays again
+                        game.tell(new GameActor.Move("a", 1), getRef());
+                        assertThat(frame(host.expectMsgClass(GameActor.Frame.class)),
+                                is("%%1,0:0,1:7,2:7,3:7,4:7,5:7,6:1"));
+                        host.expectNoMsg(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+
+                        //A sync has every pit
+                        game.tell(new GameActor.Sync("a"), getRef());
+                        assertThat(frame(host.expectMsgClass(GameActor.Frame.class)),
+                                is("%%1,0:0,1:7,2:7,3:7,4:7,5:7,6:1,7:6,8:6,9:6,10:6,11:6,12:6,13:0"));
+                    }
+                };
+
+                try {
+                    verify(nodeQueue, timeout(1000)).register(buildGameRoutingKey(1), game);
+                    verify(channel, timeout(1000)).basicPublish(
+                            Matchers.anyString(),
+                            Matchers.eq("b"),
+                            Matchers.any(AMQP.BasicProperties.class),
+                            Matchers.eq(buildStartMessage("a", 1).getBytes("UTF-8")));
+                    verify(channel, timeout(1000)).basicPublish(
+                            Matchers.anyString(),
+                            Matchers.eq("b"),
+                            Matchers.any(AMQP.BasicProperties.class),
+                            Matchers.eq("%%0,0:0,1:7,2:7,3:7,4:7,5:7,6:1".getBytes("UTF-8")));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testGameStopsWhenTheGuestLeaves() throws IOException {
+        new JavaTestKit(system) {
+            {
+                final JavaTestKit host = new JavaTestKit(system);
+                final Connection connection = mock(Connection.class);
+                mockChannel(connection);
+                final NodeQueue nodeQueue = mock(NodeQueue.class);
+
+                final ActorRef game = system.actorOf(GameActor.props(new AmqpMessageBus(nodeQueue, pool(connection)), 2, "b", host.getRef(), "a"));
+                watch(game);
+
+                new Within(new FiniteDuration(2, TimeUnit.SECONDS)) {
+                    @Override
+                    protected void run() {
+                        assertThat(frame(host.expectMsgClass(GameActor.Frame.class)), is(buildGameTurnMessage(false)));
+
+                        //The move of the guest is delivered by the queue of the node
+                        game.tell(new MessageBus.Delivery(buildGameRoutingKey(2), ChannelPool.TEXT_CONTENT_TYPE,
+                                buildMoveMessage("a", 1).getBytes(StandardCharsets.UTF_8)), getRef());
+                        assertThat(frame(host.expectMsgClass(GameActor.Frame.class)), startsWith("%%0,"));
+
+                        game.tell(buildRejectMessage("a"), getRef());
+                        assertThat(frame(host.expectMsgClass(GameActor.Frame.class)), is(buildRejectMessage("a")));
+                        expectTerminated(game);
+                    }
+                };
+                verify(nodeQueue, timeout(1000)).unregister(buildGameRoutingKey(2), game);
+            }
+        };
+    }
+}
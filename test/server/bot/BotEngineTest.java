@@ -0,0 +1,66 @@
+package server.bot;
+
+import model.Game;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class BotEngineTest {
+    static BotEngine engine;
+
+    @BeforeClass
+    public static void setup() {
+        engine = new BotEngine(2, 100);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        engine.close();
+    }
+
+    @Test
+    public void testBotPlaysLegalMovesWithinBudget() throws Exception {
+        final Game game = new Game(true, 0);
+
+        boolean ended = false;
+        for (int i = 0; i < 6 && !ended; i++) {
+            final long start = System.nanoTime();
+            final int move = engine.bestMove(game).get(5, TimeUnit.SECONDS);
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertThat(game.stonesAt(move), greaterThan(0));
+            assertThat(elapsedMillis, lessThan(1000L));
+
+            ended = game.move(move);
+        }
+
+        assertTrue(engine.metrics().getMoves() > 0);
+        assertTrue(engine.metrics().getNodes() > 0);
+    }
+
+    /**
+     * The first pit of the starting position ends in the large pit, so the bot plays again. Any search deeper than one
+     * ply sees that this is better than the other moves.
+     */
+    @Test
+    public void testBotTakesTheExtraTurn() throws Exception {
+        final Game game = new Game(true, 0);
+
+        assertThat(engine.bestMove(game).get(5, TimeUnit.SECONDS), is(0));
+    }
+
+    @Test
+    public void testBotUserIds() {
+        assertTrue(BotEngine.isBot(BotEngine.BOT_USER_ID));
+        assertTrue(BotEngine.isBot(BotEngine.BOT_USER_ID + ":12"));
+        assertThat(BotEngine.isBot("facebook:12"), is(false));
+    }
+}
@@ -0,0 +1,119 @@
+package server.bot;
+
+import model.Board;
+import model.Geometry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TablebaseTest {
+    private static final int PITS = 6;
+    private static final int MAX_STONES = 5;
+
+    private static Path file;
+    private static Tablebase tablebase;
+
+    @BeforeClass
+    public static void generate() throws IOException {
+        final TablebaseGenerator generator = new TablebaseGenerator(PITS, MAX_STONES);
+        generator.generate();
+
+        file = Files.createTempFile("tablebase", ".bin");
+        try (OutputStream stream = Files.newOutputStream(file)) {
+            generator.write(stream);
+        }
+        tablebase = Tablebase.open(file);
+    }
+
+    @AfterClass
+    public static void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static Board randomEndgame(final Random random) {
+        final Board board = new Board(Geometry.DEFAULT);
+        for (int i = 0; i < board.size(); i++) {
+            board.set(i, 0);
+        }
+        final int stones = 1 + random.nextInt(MAX_STONES);
+        for (int n = 0; n < stones; n++) {
+            int pit;
+            do {
+                pit = random.nextInt(board.size());
+            } while (pit == board.store(0) || pit == board.store(1));
+            board.set(pit, board.get(pit) + 1);
+        }
+        board.set(board.store(0), random.nextInt(30));
+        board.set(board.store(1), random.nextInt(30));
+        return board;
+    }
+
+    /**
+     * Plain minimax of the final store difference, from the point of view of the player to move.
+     */
+    private static int solve(final Board board, final int toMove) {
+        final int opponent = 1 - toMove;
+        if (board.isEnded()) {
+            return board.get(board.store(toMove)) + board.sideStones(toMove)
+                    - board.get(board.store(opponent)) - board.sideStones(opponent);
+        }
+
+        int best = Integer.MIN_VALUE;
+        for (int i = toMove * (PITS + 1); i < toMove * (PITS + 1) + PITS; i++) {
+            if (board.get(i) != 0) {
+                final Board child = new Board(board);
+                final boolean again = child.move(toMove, i);
+                best = Math.max(best, again ? solve(child, toMove) : -solve(child, opponent));
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void testValuesMatchAFullSearch() {
+        final Random random = new Random(7);
+        for (int n = 0; n < 500; n++) {
+            final Board board = randomEndgame(random);
+            final int toMove = random.nextInt(2);
+            final int storeDifference = board.get(board.store(toMove)) - board.get(board.store(1 - toMove));
+
+            assertThat(storeDifference + tablebase.value(board, toMove), is(solve(board, toMove)));
+        }
+    }
+
+    @Test
+    public void testBestMoveReachesTheValue() {
+        final Random random = new Random(11);
+        for (int n = 0; n < 500; n++) {
+            final Board board = randomEndgame(random);
+            final int player = random.nextInt(2);
+            if (board.isEnded()) {
+                assertThat(tablebase.bestMove(board, player), is(-1));
+                continue;
+            }
+
+            final Board child = new Board(board);
+            final boolean again = child.move(player, tablebase.bestMove(board, player));
+            final int after = again ? solve(child, player) : -solve(child, 1 - player);
+            assertThat(after, is(solve(board, player)));
+        }
+    }
+
+    @Test
+    public void testPositionsWithMoreStonesAreNotCovered() {
+        final Board board = new Board(Geometry.DEFAULT);
+
+        assertThat(tablebase.covers(board), is(false));
+        assertThat(tablebase.value(board, 0), is(Tablebase.UNKNOWN));
+        assertThat(tablebase.bestMove(board, 0), is(-1));
+    }
+}
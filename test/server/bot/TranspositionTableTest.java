@@ -0,0 +1,47 @@
+package server.bot;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TranspositionTableTest {
+
+    @Test
+    public void testPackedEntry() {
+        final long entry = TranspositionTable.pack(-17, 9, TranspositionTable.LOWER_BOUND, 12);
+
+        assertThat(TranspositionTable.score(entry), is(-17));
+        assertThat(TranspositionTable.depth(entry), is(9));
+        assertThat(TranspositionTable.flag(entry), is(TranspositionTable.LOWER_BOUND));
+        assertThat(TranspositionTable.move(entry), is(12));
+        assertThat(TranspositionTable.move(TranspositionTable.pack(0, 0, TranspositionTable.EXACT, -1)), is(-1));
+    }
+
+    @Test
+    public void testProbeReturnsStoredEntryOfTheSameKeyOnly() {
+        final TranspositionTable table = new TranspositionTable(1024);
+        final long key = 0x1234567890ABCDEFL;
+        final long entry = TranspositionTable.pack(5, 3, TranspositionTable.EXACT, 2);
+
+        assertThat(table.probe(key), is(TranspositionTable.MISS));
+
+        table.store(key, entry);
+        assertThat(table.probe(key), is(entry));
+
+        //Same slot, different position
+        assertThat(table.probe(key + table.capacity()), is(TranspositionTable.MISS));
+    }
+
+    @Test
+    public void testDeeperEntryIsKept() {
+        final TranspositionTable table = new TranspositionTable(1024);
+        final long key = 42;
+        final long deep = TranspositionTable.pack(5, 8, TranspositionTable.EXACT, 2);
+
+        table.store(key, deep);
+        table.store(key, TranspositionTable.pack(1, 2, TranspositionTable.EXACT, 3));
+
+        assertThat(table.probe(key), is(deep));
+    }
+}
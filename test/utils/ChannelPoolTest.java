@@ -0,0 +1,154 @@
+package utils;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChannelPoolTest {
+    private static Channel openChannel() {
+        final Channel channel = mock(Channel.class);
+        when(channel.isOpen()).thenReturn(true);
+        when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+        return channel;
+    }
+
+    private static ConfirmListener confirmListener(final Channel channel) {
+        final ArgumentCaptor<ConfirmListener> listener = ArgumentCaptor.forClass(ConfirmListener.class);
+        verify(channel, timeout(1000)).addConfirmListener(listener.capture());
+        return listener.getValue();
+    }
+
+    private static void verifyPublished(final Channel channel, final int times) throws IOException {
+        verify(channel, timeout(1000).times(times))
+                .basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+    }
+
+    private static Throwable failure(final CompletableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("The publish should have failed");
+            return null;
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        } catch (final java.util.concurrent.TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void testPublishesAreConfirmed() throws IOException {
+        final Connection connection = mock(Connection.class);
+        final Channel channel = openChannel();
+        when(connection.createChannel()).thenReturn(channel);
+
+        final ChannelPool pool = new ChannelPool(connection, "BOL", 1);
+        final CompletableFuture<Void> first = pool.publish("a", "move=a=1");
+        final CompletableFuture<Void> second = pool.publish("a", "move=a=2");
+        final CompletableFuture<Void> third = pool.publish("b", "application/x-bolboard", new byte[]{6, 1, 2});
+
+        verifyPublished(channel, 3);
+        verify(connection, times(1)).createChannel();
+        verify(channel).confirmSelect();
+        verify(channel).basicPublish(
+                Matchers.eq("BOL"),
+                Matchers.eq("a"),
+                Matchers.same(ChannelPool.properties(ChannelPool.TEXT_CONTENT_TYPE)),
+                Matchers.eq("move=a=2".getBytes(StandardCharsets.UTF_8)));
+        assertThat(first.isDone(), is(false));
+
+        // One ack confirms every message up to its tag
+        final ConfirmListener listener = confirmListener(channel);
+        listener.handleAck(2, true);
+        assertThat(first.isDone() && !first.isCompletedExceptionally(), is(true));
+        assertThat(second.isDone() && !second.isCompletedExceptionally(), is(true));
+        assertThat(third.isDone(), is(false));
+
+        listener.handleNack(3, false);
+        assertThat(third.isCompletedExceptionally(), is(true));
+        assertThat(pool.published(), is(3L));
+        assertThat(pool.confirmed(), is(2L));
+        assertThat(pool.failed(), is(1L));
+        pool.close();
+    }
+
+    @Test
+    public void testMessagesAreBatched() throws IOException {
+        final Connection connection = mock(Connection.class);
+        final Channel channel = openChannel();
+        when(connection.createChannel()).thenReturn(channel);
+
+        // The window is long enough for the size limit to cut the batches
+        final ChannelPool pool = new ChannelPool(connection, "BOL", 1, 5, TimeUnit.SECONDS.toMicros(5));
+        for (int i = 0; i < 10; i++) {
+            pool.publish("a", "move=a=" + i);
+        }
+
+        verifyPublished(channel, 10);
+        assertThat(pool.batches(), is(2L));
+        pool.close();
+    }
+
+    @Test
+    public void testPropertiesAreShared() {
+        final AMQP.BasicProperties properties = ChannelPool.properties("application/x-bolboard");
+        assertThat(ChannelPool.properties("application/x-bolboard"), is(sameInstance(properties)));
+        assertThat(properties.getContentType(), is("application/x-bolboard"));
+        assertThat(properties.getDeliveryMode(), is(1));
+    }
+
+    @Test
+    public void testFailedChannelIsReplaced() throws IOException {
+        final Connection connection = mock(Connection.class);
+        final Channel broken = openChannel();
+        final Channel fresh = openChannel();
+        when(connection.createChannel()).thenReturn(broken, fresh);
+        doThrow(new AlreadyClosedException(mock(ShutdownSignalException.class)))
+                .when(broken).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+
+        final ChannelPool pool = new ChannelPool(connection, "BOL", 1);
+        final CompletableFuture<Void> reject = pool.publish("a", "reject=a");
+
+        verify(fresh, timeout(1000)).basicPublish(
+                Matchers.eq("BOL"),
+                Matchers.eq("a"),
+                any(AMQP.BasicProperties.class),
+                Matchers.eq("reject=a".getBytes(StandardCharsets.UTF_8)));
+        confirmListener(fresh).handleAck(1, false);
+        assertThat(reject.isDone() && !reject.isCompletedExceptionally(), is(true));
+        assertThat(pool.reopened(), is(1L));
+        pool.close();
+    }
+
+    @Test
+    public void testClosedPoolRefusesToPublish() throws InterruptedException {
+        final ChannelPool pool = new ChannelPool(mock(Connection.class), "BOL", 2);
+        pool.close();
+        assertThat(failure(pool.publish("a", "reject=a")), is(instanceOf(IOException.class)));
+    }
+}
@@ -0,0 +1,63 @@
+package utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MoveAuditLogTest {
+
+    @Test
+    public void testFullBufferDropsRecords() {
+        final MoveRecordBuffer buffer = new MoveRecordBuffer(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(1, i, 0, 0));
+        }
+        assertFalse(buffer.offer(1, 4, 0, 0));
+        assertThat(buffer.dropped(), is(1L));
+
+        final ByteBuffer target = ByteBuffer.allocate(MoveRecordBuffer.RECORD_SIZE * 8);
+        assertThat(buffer.drainTo(target), is(4));
+
+        //After draining there is room again
+        assertTrue(buffer.offer(1, 5, 0, 0));
+    }
+
+    @Test
+    public void testRecordsAreWrittenToFile() throws IOException {
+        final Path directory = Files.createTempDirectory("move-audit");
+        final Path file = directory.resolve("moves.bin");
+
+        final MoveAuditLog log = new MoveAuditLog(file, 16, 1024, 2);
+        log.record(42, 3, 7);
+        log.record(42, 9, 8);
+        log.close();
+
+        final ByteBuffer written = ByteBuffer.wrap(Files.readAllBytes(file));
+        assertThat(written.remaining(), is(2 * MoveRecordBuffer.RECORD_SIZE));
+        assertThat(written.getLong(), is(42L));
+        assertThat(written.getInt(), is(3));
+        assertThat(written.getLong(), is(7L));
+    }
+
+    @Test
+    public void testFileRollsWhenFull() throws IOException {
+        final Path directory = Files.createTempDirectory("move-audit");
+        final Path file = directory.resolve("moves.bin");
+
+        final MoveAuditLog log = new MoveAuditLog(file, 16, MoveRecordBuffer.RECORD_SIZE, 2);
+        log.record(1, 0, 0);
+        log.close();
+
+        assertTrue(Files.exists(directory.resolve("moves.bin.1")));
+        assertThat(Files.size(file), is(0L));
+    }
+}